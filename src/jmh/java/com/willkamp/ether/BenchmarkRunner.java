@@ -0,0 +1,41 @@
+package com.willkamp.ether;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Runs the benchmarks once for each power of two thread count up to a maximum, writing the results of each run as
+ * JSON so they can be compared between versions.
+ * <p>
+ * Arguments: the results directory, the benchmark include pattern and the maximum thread count.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        File resultsDir = new File(args[0]);
+        String include = args[1];
+        int maxThreads = Integer.parseInt(args[2]);
+        if (!resultsDir.isDirectory() && !resultsDir.mkdirs()) {
+            throw new IllegalStateException("could not create " + resultsDir);
+        }
+        int threads = 1;
+        while (true) {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(resultsDir, "results-" + threads + "-threads.json").getPath())
+                    .build();
+            new Runner(options).run();
+            if (threads >= maxThreads) {
+                break;
+            }
+            threads = Math.min(threads * 2, maxThreads);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.willkamp.ether;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import rx.Subscriber;
+import rx.Subscription;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the store's hot paths over a range of key cardinalities. Each thread walks the key space from its own
+ * random offset so threads contend on the same keys only as often as the cardinality dictates.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EtherBenchmark {
+
+    @Param({"16", "1024", "65536"})
+    int _keyCount;
+
+    EtherStore _store;
+    String[] _heldKeys;
+    String[] _missingKeys;
+    long[] _heldHandles;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        _store = new EtherStore();
+        _heldKeys = new String[_keyCount];
+        _missingKeys = new String[_keyCount];
+        _heldHandles = new long[_keyCount];
+        for (int i = 0; i < _keyCount; i++) {
+            _heldKeys[i] = "held-" + i;
+            _missingKeys[i] = "missing-" + i;
+            _store.holdFor(_heldKeys[i], "resource-" + i, Integer.MAX_VALUE);
+            _heldHandles[i] = _store.createHandle();
+            _store.holdFor(_heldHandles[i], "resource-" + i, Integer.MAX_VALUE);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        _store.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int _index = ThreadLocalRandom.current().nextInt(1 << 16);
+
+        String next(String[] keys) {
+            return keys[_index++ & (keys.length - 1)];
+        }
+
+        long next(long[] handles) {
+            return handles[_index++ & (handles.length - 1)];
+        }
+    }
+
+    // every benchmark runs its own trial, so the holds below never turn the misses into hits
+
+    @Benchmark
+    public void hold(Cursor cursor) {
+        _store.hold(cursor.next(_missingKeys), cursor);
+    }
+
+    @Benchmark
+    public void holdUntilObserved(Cursor cursor) {
+        _store.holdUntilObserved(cursor.next(_missingKeys), cursor);
+    }
+
+    @Benchmark
+    public Object getHit(Cursor cursor) {
+        return _store.getResourceWithKey(cursor.next(_heldKeys));
+    }
+
+    @Benchmark
+    public Object getMiss(Cursor cursor) {
+        return _store.getResourceWithKey(cursor.next(_missingKeys));
+    }
+
+    @Benchmark
+    public void observeHit(Cursor cursor, Blackhole blackhole) {
+        _store.getResourceObservable(cursor.next(_heldKeys)).subscribe(new BlackholeSubscriber(blackhole));
+    }
+
+    @Benchmark
+    public void observeMiss(Cursor cursor, Blackhole blackhole) {
+        // the waiter is reclaimed when unsubscribed so waiters do not pile up
+        Subscription subscription = _store.getResourceObservable(cursor.next(_missingKeys))
+                .subscribe(new BlackholeSubscriber(blackhole));
+        subscription.unsubscribe();
+    }
+
+    @Benchmark
+    public void holdUntilObservedHandle(Cursor cursor) {
+        _store.holdUntilObserved(cursor.next(_heldHandles), cursor);
+    }
+
+    @Benchmark
+    public Object getHitHandle(Cursor cursor) {
+        return _store.getResourceWithHandle(cursor.next(_heldHandles));
+    }
+
+    @Benchmark
+    public String createUniqueKey() {
+        return _store.createUniqueKey();
+    }
+
+    private static class BlackholeSubscriber extends Subscriber<Object> {
+        private final Blackhole _blackhole;
+
+        BlackholeSubscriber(Blackhole blackhole) {
+            _blackhole = blackhole;
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            _blackhole.consume(e);
+        }
+
+        @Override
+        public void onNext(Object o) {
+            _blackhole.consume(o);
+        }
+    }
+}
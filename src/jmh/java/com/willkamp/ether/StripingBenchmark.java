@@ -0,0 +1,140 @@
+package com.willkamp.ether;
+
+import org.openjdk.jmh.annotations.*;
+import rx.Observable;
+import rx.Observer;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of the striped store against the single monitor store it replaced. Each operation holds a resource until
+ * observed and fetches it back, every sixteenth also holds a timed resource, on keys of the thread's own.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StripingBenchmark {
+
+    private static final int KEYS_PER_THREAD = 256;
+
+    @Param({"striped", "monitor"})
+    String _storeType;
+
+    Store _store;
+    EtherImpl _striped;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if ("monitor".equals(_storeType)) {
+            _store = new MonitorStore();
+            return;
+        }
+        _striped = new EtherImpl();
+        _store = new Store() {
+            @Override
+            public void hold(String key, Object item) {
+                _striped.hold(key, item);
+            }
+
+            @Override
+            public void holdUntilObserved(String key, Object item) {
+                _striped.holdUntilObserved(key, item);
+            }
+
+            @Override
+            public Object get(String key) {
+                return _striped.getResourceWithKey(key);
+            }
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (_striped != null) {
+            _striped.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Keys {
+        private static final AtomicInteger __threads = new AtomicInteger();
+
+        final String[] _keys = new String[KEYS_PER_THREAD];
+        final String[] _timedKeys = new String[KEYS_PER_THREAD];
+        int _index;
+
+        public Keys() {
+            String prefix = "thread-" + __threads.getAndIncrement() + "-";
+            for (int i = 0; i < KEYS_PER_THREAD; i++) {
+                _keys[i] = prefix + i;
+                _timedKeys[i] = prefix + i + "-timed";
+            }
+        }
+    }
+
+    @Benchmark
+    public Object holdAndGet(Keys keys) {
+        int index = keys._index++;
+        String key = keys._keys[index % KEYS_PER_THREAD];
+        if (index % 16 == 0) {
+            _store.hold(keys._timedKeys[index % KEYS_PER_THREAD], key);
+        }
+        _store.holdUntilObserved(key, key);
+        return _store.get(key);
+    }
+
+    interface Store {
+        void hold(String key, Object item);
+
+        void holdUntilObserved(String key, Object item);
+
+        Object get(String key);
+    }
+
+    /**
+     * The original store, every operation synchronized on a single monitor.
+     */
+    static class MonitorStore implements Store {
+        private final HashMap<String, Resource> _itemStore = new HashMap<>();
+
+        @Override
+        public synchronized void hold(String key, Object item) {
+            final Resource resource = new Resource<>(key, item, RetainPolicy.TIMED);
+            _itemStore.put(key, resource);
+            Observable.timer(10, TimeUnit.SECONDS).subscribe(new Observer<Long>() {
+                public void onCompleted() {
+                    synchronized (MonitorStore.this) {
+                        if (_itemStore.get(resource._key) == resource) {
+                            _itemStore.remove(resource._key);
+                        }
+                    }
+                }
+
+                public void onError(Throwable e) {
+                }
+
+                public void onNext(Long ignored) {
+                }
+            });
+        }
+
+        @Override
+        public synchronized void holdUntilObserved(String key, Object item) {
+            _itemStore.put(key, new Resource<>(key, item, RetainPolicy.ONCE_OBSERVED));
+        }
+
+        @Override
+        public synchronized Object get(String key) {
+            Resource resource = _itemStore.get(key);
+            if (resource != null && resource._retainPolicy == RetainPolicy.ONCE_OBSERVED) {
+                _itemStore.remove(key);
+            }
+            return resource == null ? null : resource._resource;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.willkamp.ether;
+
+import org.openjdk.jmh.annotations.*;
+import rx.functions.Action1;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency from a resource being held on one thread to an observer that was waiting for it receiving it on another.
+ * Every benchmark thread has its own holder thread, so the measured time includes one thread hand-off.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WakeupBenchmark {
+
+    EtherStore _store;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        _store = new EtherStore();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        _store.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Holder {
+        final SynchronousQueue<String> _keys = new SynchronousQueue<>();
+        Thread _thread;
+        String _keyPrefix;
+        long _sequence;
+
+        @Setup(Level.Trial)
+        public void start(final WakeupBenchmark benchmark) {
+            _keyPrefix = Thread.currentThread().getName() + "-";
+            _thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        //noinspection InfiniteLoopStatement
+                        while (true) {
+                            String key = _keys.take();
+                            benchmark._store.holdUntilObserved(key, key);
+                        }
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            }, "wakeup-holder");
+            _thread.setDaemon(true);
+            _thread.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() throws InterruptedException {
+            _thread.interrupt();
+            _thread.join();
+        }
+    }
+
+    @Benchmark
+    public void holdToWaiter(Holder holder) throws InterruptedException {
+        String key = holder._keyPrefix + holder._sequence++;
+        final CountDownLatch delivered = new CountDownLatch(1);
+        _store.getResourceObservable(key).subscribe(new Action1<Object>() {
+            @Override
+            public void call(Object o) {
+                delivered.countDown();
+            }
+        });
+        holder._keys.put(key);
+        delivered.await();
+    }
+}
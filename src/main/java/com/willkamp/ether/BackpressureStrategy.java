@@ -0,0 +1,21 @@
+package com.willkamp.ether;
+
+/**
+ * What a stream does with published values while an observer is not ready to receive them.
+ */
+public enum BackpressureStrategy {
+    /**
+     * Keep every value until the observer requests it.
+     */
+    BUFFER,
+
+    /**
+     * Drop values published while the observer has no outstanding requests.
+     */
+    DROP,
+
+    /**
+     * Keep only the most recent value, conflating the ones the observer was too slow to receive.
+     */
+    LATEST
+}
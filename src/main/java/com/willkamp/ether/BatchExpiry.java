@@ -0,0 +1,56 @@
+package com.willkamp.ether;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A single expiry shared by the resources held together in a batch.
+ * <p>
+ * A member that leaves the store before the deadline, for one because its key was held again, gives up its share
+ * through {@link Resource#cancelExpiry()}, so the batch neither expires nor retains it, and the timeout is cancelled
+ * once every member has left.
+ */
+abstract class BatchExpiry implements ExpiryWheel.Expirable {
+    private final AtomicReferenceArray<Resource> _members;
+    private final AtomicInteger _remaining;
+    volatile ExpiryWheel.Timeout _timeout;
+
+    BatchExpiry(List<Resource> members) {
+        _members = new AtomicReferenceArray<>(members.size());
+        _remaining = new AtomicInteger(members.size());
+        for (int i = 0; i < members.size(); i++) {
+            Resource member = members.get(i);
+            member._batchIndex = i;
+            _members.set(i, member);
+            member._batchExpiry = this;
+        }
+    }
+
+    /**
+     * Expire a member that is still part of the batch.
+     */
+    abstract void expire(Resource member);
+
+    @Override
+    public void expire() {
+        for (int i = 0; i < _members.length(); i++) {
+            Resource member = _members.getAndSet(i, null);
+            if (member != null) {
+                expire(member);
+            }
+        }
+    }
+
+    /**
+     * Drop a member's share of the expiry, cancelling the timeout once no member is left.
+     */
+    void leave(Resource member) {
+        if (_members.compareAndSet(member._batchIndex, member, null) && _remaining.decrementAndGet() == 0) {
+            ExpiryWheel.Timeout timeout = _timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+    }
+}
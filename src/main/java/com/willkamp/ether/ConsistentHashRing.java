@@ -0,0 +1,75 @@
+package com.willkamp.ether;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Immutable consistent hash ring assigning keys to nodes. Each node is placed on the ring at many points, so keys
+ * spread evenly and adding or removing a node only moves the keys of the ring segments it gains or loses.
+ */
+class ConsistentHashRing {
+
+    private static final int POINTS_PER_NODE = 160;
+
+    private final int[] _points;
+    private final String[] _owners;
+
+    ConsistentHashRing(Collection<String> nodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("a ring needs at least one node");
+        }
+        long[] placements = new long[nodes.size() * POINTS_PER_NODE];
+        String[] names = nodes.toArray(new String[nodes.size()]);
+        // sort by name so every member builds the same ring whatever order it was given the nodes in
+        Arrays.sort(names);
+        int count = 0;
+        for (int node = 0; node < names.length; node++) {
+            for (int i = 0; i < POINTS_PER_NODE; i++) {
+                long point = hash(names[node] + "#" + i) & 0xffffffffL;
+                placements[count++] = (point << 32) | node;
+            }
+        }
+        Arrays.sort(placements);
+        _points = new int[count];
+        _owners = new String[count];
+        for (int i = 0; i < count; i++) {
+            _points[i] = (int) (placements[i] >>> 32);
+            _owners[i] = names[(int) placements[i]];
+        }
+    }
+
+    /**
+     * @return the node owning the key, the first node at or after the key's point clockwise.
+     */
+    String ownerOf(String key) {
+        long point = hash(key) & 0xffffffffL;
+        int low = 0;
+        int high = _points.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if ((_points[middle] & 0xffffffffL) < point) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return _owners[low == _points.length ? 0 : low];
+    }
+
+    /**
+     * FNV-1a over the characters followed by the murmur3 finalizer, cheap and well spread.
+     */
+    static int hash(String value) {
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
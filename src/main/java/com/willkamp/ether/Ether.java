@@ -1,20 +1,42 @@
 package com.willkamp.ether;
 
 import rx.Observable;
+import rx.Scheduler;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
- * Public API for storing resources in and fetching from the "Ether"
+ * Public API for storing resources in and fetching from the "Ether", a default {@link EtherStore} shared by the whole
+ * process. Each method acts on that store as the {@link EtherStore} method of the same name.
  */
 @SuppressWarnings("WeakerAccess")
 public class Ether {
 
     static final EtherImpl __etherImpl = new EtherImpl();
+    private static final EtherStore __etherStore = new EtherStore(__etherImpl, null, null);
 
     private Ether() {
     }
 
+    /**
+     * Get a named scope of the Ether, opening it if it is not already open. A scope is an independent
+     * {@link EtherStore} whose resources and waiting observers can all be dropped at once by closing it.
+     *
+     * @param name the scope's name.
+     * @return the scope.
+     */
+    public static EtherStore scope(String name) {
+        return __etherStore.scope(name);
+    }
+
     /**
      * Store an object that can be observed for a default (10 seconds) length of time.
      *
@@ -22,7 +44,7 @@ public class Ether {
      * @return the key to later fetch the item.
      */
     public static String hold(Object resource) {
-        return __etherImpl.hold(resource);
+        return __etherStore.hold(resource);
     }
 
     /**
@@ -32,7 +54,7 @@ public class Ether {
      * @param resource the item to store.
      */
     public static void hold(String key, Object resource) {
-        __etherImpl.hold(key, resource);
+        __etherStore.hold(key, resource);
     }
 
     /**
@@ -43,7 +65,7 @@ public class Ether {
      * @return the key to later fetch the item.
      */
     public static String holdFor(Object resource, int seconds) {
-        return __etherImpl.holdForTime(resource, TimeUnit.SECONDS, seconds);
+        return __etherStore.holdFor(resource, seconds);
     }
 
     /**
@@ -54,7 +76,44 @@ public class Ether {
      * @param seconds  the amount of time in seconds.
      */
     public static void holdFor(String key, Object resource, int seconds) {
-        __etherImpl.holdForTime(key, resource, TimeUnit.SECONDS, seconds);
+        __etherStore.holdFor(key, resource, seconds);
+    }
+
+    /**
+     * Store an object that can be observed until it goes unfetched and unobserved for a specified amount of time. Each
+     * fetch or observation extends its life.
+     *
+     * @param resource    the item to store.
+     * @param idleSeconds the amount of time in seconds since it was last accessed.
+     * @return the key to later fetch the item.
+     */
+    public static String holdWhileAccessed(Object resource, int idleSeconds) {
+        return __etherStore.holdWhileAccessed(resource, idleSeconds);
+    }
+
+    /**
+     * Store an object that can be observed until it goes unfetched and unobserved for a specified amount of time. Each
+     * fetch or observation extends its life.
+     *
+     * @param key         the key to to store the item.
+     * @param resource    the item to store.
+     * @param idleSeconds the amount of time in seconds since it was last accessed.
+     */
+    public static void holdWhileAccessed(String key, Object resource, int idleSeconds) {
+        __etherStore.holdWhileAccessed(key, resource, idleSeconds);
+    }
+
+    /**
+     * Store an object that can be observed until it goes unfetched and unobserved for a specified amount of time, or
+     * until a maximum amount of time passed however often it is accessed.
+     *
+     * @param key         the key to to store the item.
+     * @param resource    the item to store.
+     * @param idleSeconds the amount of time in seconds since it was last accessed.
+     * @param maxSeconds  the maximum amount of time in seconds since it was stored.
+     */
+    public static void holdWhileAccessed(String key, Object resource, int idleSeconds, int maxSeconds) {
+        __etherStore.holdWhileAccessed(key, resource, idleSeconds, maxSeconds);
     }
 
     /**
@@ -65,7 +124,7 @@ public class Ether {
      * @return the key to later fetch the item.
      */
     public static String holdUntilObserved(Object resource) {
-        return __etherImpl.holdUntilObserved(resource);
+        return __etherStore.holdUntilObserved(resource);
     }
 
     /**
@@ -76,7 +135,184 @@ public class Ether {
      * @param resource the item to store.
      */
     public static void holdUntilObserved(String key, Object resource) {
-        __etherImpl.holdUntilObserved(key, resource);
+        __etherStore.holdUntilObserved(key, resource);
+    }
+
+    /**
+     * Store an object that can be observed a specified number of times. Each fetch and each delivery to a waiting
+     * observer counts, the item is removed as soon as the last one happens. Observers waiting when it is held beyond
+     * that number keep waiting. The item is not removed on a timer, one that is never observed that often stays held.
+     *
+     * @param resource     the item to store.
+     * @param observations the number of observations, at least 1.
+     * @return the key to later fetch the item.
+     */
+    public static String holdForObservations(Object resource, int observations) {
+        return __etherStore.holdForObservations(resource, observations);
+    }
+
+    /**
+     * Store an object that can be observed a specified number of times. Each fetch and each delivery to a waiting
+     * observer counts, the item is removed as soon as the last one happens.
+     *
+     * @param key          the key to store the item.
+     * @param resource     the item to store.
+     * @param observations the number of observations, at least 1.
+     */
+    public static void holdForObservations(String key, Object resource, int observations) {
+        __etherStore.holdForObservations(key, resource, observations);
+    }
+
+    /**
+     * Store many objects that can be observed for a default (10 seconds) length of time. The objects are stored
+     * together, sharing a single expiry.
+     *
+     * @param resources the items to store by their keys.
+     */
+    public static void holdAll(Map<String, ?> resources) {
+        __etherStore.holdAll(resources);
+    }
+
+    /**
+     * Store many objects that can be observed for a specified amount of time. The objects are stored together,
+     * sharing a single expiry.
+     *
+     * @param resources the items to store by their keys.
+     * @param seconds   the amount of time in seconds.
+     */
+    public static void holdAllFor(Map<String, ?> resources, int seconds) {
+        __etherStore.holdAllFor(resources, seconds);
+    }
+
+    /**
+     * Store many objects that can each be observed until they are observed at least once.
+     *
+     * @param resources the items to store by their keys.
+     */
+    public static void holdAllUntilObserved(Map<String, ?> resources) {
+        __etherStore.holdAllUntilObserved(resources);
+    }
+
+    /**
+     * Store an object through a {@link java.lang.ref.SoftReference}. The object can be observed until the garbage
+     * collector reclaims it under memory pressure, after which it behaves as if it was never held.
+     *
+     * @param resource the item to store.
+     * @return the key to later fetch the item.
+     */
+    public static String holdSoftly(Object resource) {
+        return __etherStore.holdSoftly(resource);
+    }
+
+    /**
+     * Store an object through a {@link java.lang.ref.SoftReference}. The object can be observed until the garbage
+     * collector reclaims it under memory pressure, after which it behaves as if it was never held.
+     *
+     * @param key      the key to store the item.
+     * @param resource the item to store.
+     */
+    public static void holdSoftly(String key, Object resource) {
+        __etherStore.holdSoftly(key, resource);
+    }
+
+    /**
+     * Store an object through a {@link java.lang.ref.WeakReference}. The object can be observed for as long as it is
+     * strongly reachable elsewhere, after which it behaves as if it was never held.
+     *
+     * @param resource the item to store.
+     * @return the key to later fetch the item.
+     */
+    public static String holdWeakly(Object resource) {
+        return __etherStore.holdWeakly(resource);
+    }
+
+    /**
+     * Store an object through a {@link java.lang.ref.WeakReference}. The object can be observed for as long as it is
+     * strongly reachable elsewhere, after which it behaves as if it was never held.
+     *
+     * @param key      the key to store the item.
+     * @param resource the item to store.
+     */
+    public static void holdWeakly(String key, Object resource) {
+        __etherStore.holdWeakly(key, resource);
+    }
+
+    /**
+     * Store a copy of a binary payload off the Java heap for a default (10 seconds) length of time. Observers receive
+     * read-only views of the copy, so large payloads neither weigh on the garbage collector nor are copied again.
+     *
+     * @param payload the bytes between the payload's position and limit are stored.
+     * @return the key to later fetch the item.
+     */
+    public static String holdBuffer(ByteBuffer payload) {
+        return __etherStore.holdBuffer(payload);
+    }
+
+    /**
+     * Store a copy of a binary payload off the Java heap for a default (10 seconds) length of time.
+     *
+     * @param key     the key to store the item.
+     * @param payload the bytes between the payload's position and limit are stored.
+     */
+    public static void holdBuffer(String key, ByteBuffer payload) {
+        __etherStore.holdBuffer(key, payload);
+    }
+
+    /**
+     * Store a copy of a binary payload off the Java heap for a specified amount of time.
+     *
+     * @param payload the bytes between the payload's position and limit are stored.
+     * @param seconds the amount of time in seconds.
+     * @return the key to later fetch the item.
+     */
+    public static String holdBufferFor(ByteBuffer payload, int seconds) {
+        return __etherStore.holdBufferFor(payload, seconds);
+    }
+
+    /**
+     * Store a copy of a binary payload off the Java heap for a specified amount of time.
+     *
+     * @param key     the key to store the item.
+     * @param payload the bytes between the payload's position and limit are stored.
+     * @param seconds the amount of time in seconds.
+     */
+    public static void holdBufferFor(String key, ByteBuffer payload, int seconds) {
+        __etherStore.holdBufferFor(key, payload, seconds);
+    }
+
+    /**
+     * Store a copy of a binary payload off the Java heap until it is observed at least once.
+     *
+     * @param payload the bytes between the payload's position and limit are stored.
+     * @return the key to later fetch the item.
+     */
+    public static String holdBufferUntilObserved(ByteBuffer payload) {
+        return __etherStore.holdBufferUntilObserved(payload);
+    }
+
+    /**
+     * Store a copy of a binary payload off the Java heap until it is observed at least once.
+     *
+     * @param key     the key to store the item.
+     * @param payload the bytes between the payload's position and limit are stored.
+     */
+    public static void holdBufferUntilObserved(String key, ByteBuffer payload) {
+        __etherStore.holdBufferUntilObserved(key, payload);
+    }
+
+    /**
+     * Choose where binary payloads held from now on are stored. By default they are stored in 1 MiB slabs of direct
+     * buffers. Payloads already held stay where they are.
+     * <p>
+     * Slab space is used once and never returned for reuse, so the views observers were given stay valid: a slab is
+     * only let go once it is full and every payload in it was removed, and its memory is freed when the garbage
+     * collector reclaims the last view of it. A payload held for long keeps its whole slab.
+     *
+     * @param directory the directory to create memory mapped slab files in or null for direct buffers.
+     * @param slabSize  the size of a slab in bytes, larger payloads get a slab of their own.
+     */
+    public static void setOffHeapStorage(File directory, int slabSize) {
+        __etherStore.setOffHeapStorage(directory, slabSize);
     }
 
     /**
@@ -88,16 +324,400 @@ public class Ether {
      * @return an observable that emits an
      */
     public static <T> Observable<T> getResourceObservable(String key) {
-        return __etherImpl.observeResourceWithKey(key);
+        return __etherStore.getResourceObservable(key);
+    }
+
+    /**
+     * Observe a held item with a particular key on a scheduler. A single signal is guaranteed for any currently or
+     * future held resource with the specified key.
+     *
+     * @param key       the item's key.
+     * @param scheduler the scheduler the item is delivered on.
+     * @param <T>       the item's type.
+     * @return an observable that emits the item on the scheduler.
+     */
+    public static <T> Observable<T> getResourceObservable(String key, Scheduler scheduler) {
+        return __etherStore.getResourceObservable(key, scheduler);
+    }
+
+    /**
+     * Observe a held item with a particular key for a limited time. If no resource with the specified key is held
+     * before the timeout the observable fails with a {@link java.util.concurrent.TimeoutException}. Prefer this over
+     * applying {@link Observable#timeout(long, TimeUnit)} since the store expires its waiting observers in bulk.
+     *
+     * @param key      the item's key.
+     * @param timeout  the maximum time to wait for the item to be held.
+     * @param timeUnit the unit of the timeout.
+     * @param <T>      the item's type.
+     * @return an observable that emits the item or fails with a timeout.
+     */
+    public static <T> Observable<T> getResourceObservable(String key, long timeout, TimeUnit timeUnit) {
+        return __etherStore.getResourceObservable(key, timeout, timeUnit);
+    }
+
+    /**
+     * Observe a held item with a particular key, loading it if it is not held. The first observer to miss runs the
+     * loader on the load executor and holds its result for the specified amount of time, concurrent observers of the
+     * same key wait for that load rather than starting their own. If the loader fails the observers that asked for
+     * it receive its error.
+     *
+     * @param key     the item's key.
+     * @param loader  computes the item.
+     * @param seconds the amount of time in seconds the loaded item is held for.
+     * @param <T>     the item's type.
+     * @return an observable that emits the held or loaded item.
+     */
+    public static <T> Observable<T> getOrLoad(String key, Callable<? extends T> loader, int seconds) {
+        return __etherStore.getOrLoad(key, loader, seconds);
+    }
+
+    /**
+     * Observe the held items with a set of keys. A single signal is guaranteed once every key is currently or has been
+     * held.
+     *
+     * @param keys the items' keys.
+     * @param <T>  the items' type.
+     * @return an observable that emits a map of every key to its item.
+     */
+    public static <T> Observable<Map<String, T>> getResourcesObservable(Collection<String> keys) {
+        return __etherStore.getResourcesObservable(keys);
+    }
+
+    /**
+     * Observe every item held with a key starting with a prefix. The items already held are emitted first, followed
+     * by every item held afterwards. Observing a prefix does not consume items held until observed.
+     *
+     * @param prefix the start of the items' keys.
+     * @param <T>    the items' type.
+     * @return an observable of each key and its item that completes if the store is closed.
+     */
+    public static <T> Observable<Map.Entry<String, T>> getResourcesObservableWithPrefix(String prefix) {
+        return __etherStore.getResourcesObservableWithPrefix(prefix);
+    }
+
+    /**
+     * Set the scheduler items are delivered on to observers that were waiting for them to be held. By default the
+     * delivery happens on the thread holding the item, which blocks that thread until every waiting observer has
+     * received the item. With a scheduler, observers are handed off in batches and the holding thread returns
+     * immediately.
+     *
+     * @param scheduler the scheduler or null to deliver on the holding thread.
+     */
+    public static void setDeliveryScheduler(Scheduler scheduler) {
+        __etherStore.setDeliveryScheduler(scheduler);
+    }
+
+    /**
+     * Set the executor loaders passed to {@link #getOrLoad(String, Callable, int)} run on. By default they run on a
+     * shared pool of daemon threads.
+     *
+     * @param executor the executor or null to restore the default.
+     */
+    public static void setLoadExecutor(Executor executor) {
+        __etherStore.setLoadExecutor(executor);
+    }
+
+    /**
+     * Bound the number of held resources. Once the bound is exceeded the resources that were least recently observed
+     * are evicted, favouring resources that have been observed more than once.
+     *
+     * @param maximumSize the maximum number of held resources or {@link Long#MAX_VALUE} for no bound.
+     */
+    public static void setMaximumSize(long maximumSize) {
+        __etherStore.setMaximumSize(maximumSize);
+    }
+
+    /**
+     * Bound the total weight of held resources. Once the bound is exceeded the resources that were least recently
+     * observed are evicted, favouring resources that have been observed more than once.
+     *
+     * @param maximumWeight the maximum total weight or {@link Long#MAX_VALUE} for no bound.
+     * @param weigher       the weigher for resources held from now on.
+     */
+    public static void setMaximumWeight(long maximumWeight, Weigher weigher) {
+        __etherStore.setMaximumWeight(maximumWeight, weigher);
     }
 
     /**
-     * Create a unique key for storing resources.
+     * Estimate the heap retained by held resources, see {@link #getRetainedBytes()}. Resources already held are
+     * measured at once.
+     *
+     * @param sizer the sizer, {@link Sizer#OBJECT_GRAPH} to approximate any resource, or null to stop measuring
+     *              resources held from now on.
+     */
+    public static void setSizer(Sizer sizer) {
+        __etherStore.setSizer(sizer);
+    }
+
+    /**
+     * @return the estimated bytes of heap retained by held resources, 0 unless a sizer was set.
+     */
+    public static long getRetainedBytes() {
+        return __etherStore.getRetainedBytes();
+    }
+
+    /**
+     * Shrink when the JVM runs low on memory. Whenever a heap memory pool's usage crosses the threshold, as it grows
+     * or as it is left after a collection, half the estimated retained bytes are evicted. Timed resources closest to
+     * expiring go first, resources held until observed are kept for their observers. Sizes are those estimated by
+     * the sizer set with {@link #setSizer(Sizer)}, which must be chosen first. The threshold applies to the whole
+     * JVM, the one set last is used for every store, and the thresholds found before the first store watched the heap
+     * are put back once the last one stops.
+     *
+     * @param threshold the share of a pool's maximum size between 0 and 1, or 0 to stop watching the heap.
+     * @throws IllegalStateException if the heap is to be watched and no sizer was set.
+     */
+    public static void setMemoryPressureThreshold(double threshold) {
+        __etherStore.setMemoryPressureThreshold(threshold);
+    }
+
+    /**
+     * Set the listener notified when resources are evicted to stay within the maximum size or weight.
+     *
+     * @param listener the listener or null for none.
+     */
+    public static void setEvictionListener(EvictionListener listener) {
+        __etherStore.setEvictionListener(listener);
+    }
+
+    /**
+     * Set the listener notified of every resource that leaves the store, with why it left. Removals are queued and
+     * reported in batches on a shared pool of daemon threads, never under the store's locks or on its timer thread.
+     * A resource handed straight to the observers waiting for it is never stored and a resource held with a handle is
+     * not held under a key, so neither is reported.
+     *
+     * @param listener the listener or null for none.
+     */
+    public static void setRemovalListener(RemovalListener listener) {
+        __etherStore.setRemovalListener(listener);
+    }
+
+    /**
+     * Set the listener notified of every resource that leaves the store, with why it left, and the executor it is
+     * notified on. Removals are reported in the order they happened, on the removing thread once the executor rejects
+     * a task. See {@link RemovalListener} for what is not reported.
+     *
+     * @param listener the listener or null for none.
+     * @param executor the executor or null for a shared pool of daemon threads.
+     */
+    public static void setRemovalListener(RemovalListener listener, Executor executor) {
+        __etherStore.setRemovalListener(listener, executor);
+    }
+
+    /**
+     * Open a stream, a key that carries a sequence of values rather than a single resource. New observers of the
+     * stream receive its most recent values before the values published afterwards. Streams are separate from held
+     * resources, a stream and a resource can share a key.
+     *
+     * @param key        the stream's key.
+     * @param replaySize the number of most recent values replayed to new observers, 0 for none.
+     * @return false if the stream was already open, in which case its replay size is unchanged.
+     */
+    public static boolean openStream(String key, int replaySize) {
+        return __etherStore.openStream(key, replaySize);
+    }
+
+    /**
+     * Publish a value to a stream. A stream that is not open is opened with a replay of its latest value.
+     *
+     * @param key   the stream's key.
+     * @param value the value to publish.
+     */
+    public static void publish(String key, Object value) {
+        __etherStore.publish(key, value);
+    }
+
+    /**
+     * Observe a stream. Values published faster than the observer requests them are conflated to the latest one.
+     *
+     * @param key the stream's key.
+     * @param <T> the values' type.
+     * @return an observable that emits the replayed values and then each published value until the stream is closed.
+     */
+    public static <T> Observable<T> getStreamObservable(String key) {
+        return __etherStore.getStreamObservable(key);
+    }
+
+    /**
+     * Observe a stream.
+     *
+     * @param key      the stream's key.
+     * @param strategy what to do with values published faster than the observer requests them.
+     * @param <T>      the values' type.
+     * @return an observable that emits the replayed values and then each published value until the stream is closed.
+     */
+    public static <T> Observable<T> getStreamObservable(String key, BackpressureStrategy strategy) {
+        return __etherStore.getStreamObservable(key, strategy);
+    }
+
+    /**
+     * Close a stream, completing its observers and dropping its values.
+     *
+     * @param key the stream's key.
+     */
+    public static void closeStream(String key) {
+        __etherStore.closeStream(key);
+    }
+
+    /**
+     * Persist held resources to a snapshot file so they survive a restart. Resources logged to the file by a previous
+     * process are restored first, timed resources for the time they had left. From then on every resource held for a
+     * time or until observed is appended to the file as it is held or removed. Resources that can not be serialized
+     * are skipped, resources held softly or weakly are never persisted.
+     *
+     * @param file the snapshot file.
+     * @return the number of resources restored.
+     * @throws IOException if the snapshot file can not be read or written.
+     */
+    public static int enablePersistence(File file) throws IOException {
+        return __etherStore.enablePersistence(file);
+    }
+
+    /**
+     * Stop persisting held resources, leaving the snapshot file as it is.
+     */
+    public static void disablePersistence() {
+        __etherStore.disablePersistence();
+    }
+
+    /**
+     * Enable or disable collecting stats such as the hit rate, expirations and lock hold times. Stats are disabled by
+     * default and cost next to nothing while disabled. Disabling drops the counts collected so far.
+     *
+     * @param enabled true to collect stats.
+     */
+    public static void setStatsEnabled(boolean enabled) {
+        __etherStore.setStatsEnabled(enabled);
+    }
+
+    /**
+     * Get a snapshot of the stats. While stats are disabled only the current entry and waiter counts are reported.
+     *
+     * @return the stats.
+     */
+    public static EtherStats getStats() {
+        return __etherStore.getStats();
+    }
+
+    /**
+     * Observe the stats periodically, for example to report them to a metrics system.
+     *
+     * @param period   the time between snapshots.
+     * @param timeUnit the unit of the period.
+     * @return an observable that emits a snapshot of the stats every period.
+     */
+    public static Observable<EtherStats> getStatsObservable(long period, TimeUnit timeUnit) {
+        return __etherStore.getStatsObservable(period, timeUnit);
+    }
+
+    /**
+     * Create a handle for storing resources. Handles are a cheaper alternative to keys for resources handed around
+     * within the process: holding, fetching and observing with a handle never creates, hashes or compares a string.
+     * Resources held with handles are separate from those held with keys.
+     * <p>
+     * Handles only hold resources for a time or until observed, and skip the rest of the store's bookkeeping:
+     * <ul>
+     * <li>they are never evicted by {@link #setMaximumSize(long)} or {@link #setMaximumWeight(long, Weigher)}, nor
+     * counted towards either bound, and are not purged under memory pressure.</li>
+     * <li>they are not measured by the {@link Sizer}, so {@link #getRetainedBytes()} leaves them out.</li>
+     * <li>they are not counted in {@link #getStats()}.</li>
+     * <li>their removal is not reported to the {@link RemovalListener} or {@link EvictionListener}.</li>
+     * <li>they are not written to the snapshot of {@link #enablePersistence(File)}.</li>
+     * <li>they can not be held softly, weakly, off the heap, while accessed or for a number of observations.</li>
+     * </ul>
+     *
+     * @return a unique handle.
+     */
+    public static long createHandle() {
+        return __etherStore.createHandle();
+    }
+
+    /**
+     * Store an object that can be observed for a default (10 seconds) length of time.
+     * See {@link #createHandle()} for what handles do not support.
+     *
+     * @param handle   the handle to store the item with.
+     * @param resource the item to store.
+     */
+    public static void hold(long handle, Object resource) {
+        __etherStore.hold(handle, resource);
+    }
+
+    /**
+     * Store an object that can be observed for a specified amount of time.
+     * See {@link #createHandle()} for what handles do not support.
+     *
+     * @param handle   the handle to store the item with.
+     * @param resource the item to store.
+     * @param seconds  the amount of time in seconds.
+     */
+    public static void holdFor(long handle, Object resource, int seconds) {
+        __etherStore.holdFor(handle, resource, seconds);
+    }
+
+    /**
+     * Store an object that can be observed until it is observed at least once.
+     * See {@link #createHandle()} for what handles do not support.
+     *
+     * @param handle   the handle to store the item with.
+     * @param resource the item to store.
+     */
+    public static void holdUntilObserved(long handle, Object resource) {
+        __etherStore.holdUntilObserved(handle, resource);
+    }
+
+    /**
+     * Get an item held with a handle.
+     *
+     * @param handle the item's handle.
+     * @param <T>    the item's type.
+     * @return the item or null if it does not exist.
+     */
+    public static <T> T getResourceWithHandle(long handle) {
+        return __etherStore.getResourceWithHandle(handle);
+    }
+
+    /**
+     * Observe an item held with a handle.
+     *
+     * @param handle the item's handle.
+     * @param <T>    the item's type.
+     * @return an observable that emits the item.
+     */
+    public static <T> Observable<T> getResourceObservable(long handle) {
+        return __etherStore.getResourceObservable(handle);
+    }
+
+    /**
+     * Observe an item held with a handle for a limited time.
+     *
+     * @param handle   the item's handle.
+     * @param timeout  the maximum time to wait for the item to be held.
+     * @param timeUnit the unit of the timeout.
+     * @param <T>      the item's type.
+     * @return an observable that emits the item or fails with a {@link java.util.concurrent.TimeoutException}.
+     */
+    public static <T> Observable<T> getResourceObservable(long handle, long timeout, TimeUnit timeUnit) {
+        return __etherStore.getResourceObservable(handle, timeout, timeUnit);
+    }
+
+    /**
+     * Create a unique key for storing resources. Keys made by the default generator start with {@code ether:} followed
+     * by a random instance id, so they will not collide with keys chosen by users.
      *
      * @return a unique key.
      */
     public static String createUniqueKey() {
-        return __etherImpl.createUniqueKey();
+        return __etherStore.createUniqueKey();
+    }
+
+    /**
+     * Replace the strategy used to create unique keys.
+     *
+     * @param keyGenerator the generator or null to restore the default.
+     */
+    public static void setKeyGenerator(KeyGenerator keyGenerator) {
+        __etherStore.setKeyGenerator(keyGenerator);
     }
 
     /**
@@ -108,6 +728,95 @@ public class Ether {
      * @return the item or null if it does not exist.
      */
     public static <T> T getResourceWithKey(String key) {
-        return __etherImpl.getResourceWithKey(key);
+        return __etherStore.getResourceWithKey(key);
+    }
+
+    /**
+     * Get an item with a particular key without treating a miss as null.
+     *
+     * @param key          the item's key.
+     * @param defaultValue the value returned if the item is not held.
+     * @param <T>          the item's type.
+     * @return the item or the default value if it does not exist.
+     */
+    public static <T> T getResourceWithKey(String key, T defaultValue) {
+        return __etherStore.getResourceWithKey(key, defaultValue);
+    }
+
+    /**
+     * Wait for a held item with a particular key without an {@link Observable}. An item that is already held completes
+     * the future before it is returned. Cancelling the future stops waiting.
+     *
+     * @param key the item's key.
+     * @param <T> the item's type.
+     * @return a future that completes with the item, or fails with an {@link IllegalStateException} if the store
+     * closes first.
+     */
+    public static <T> Future<T> getResourceFuture(String key) {
+        return __etherStore.getResourceFuture(key);
+    }
+
+    /**
+     * Wait for a held item with a particular key for a limited time without an {@link Observable}.
+     *
+     * @param key      the item's key.
+     * @param timeout  the maximum time to wait for the item to be held.
+     * @param timeUnit the unit of the timeout.
+     * @param <T>      the item's type.
+     * @return a future that completes with the item or fails with a {@link java.util.concurrent.TimeoutException}.
+     */
+    public static <T> Future<T> getResourceFuture(String key, long timeout, TimeUnit timeUnit) {
+        return __etherStore.getResourceFuture(key, timeout, timeUnit);
+    }
+
+    /**
+     * Call back with a held item with a particular key. An item that is already held is passed to the callback on the
+     * calling thread, otherwise the callback is called on the delivery scheduler once the item is held.
+     *
+     * @param key      the item's key.
+     * @param callback the callback.
+     * @param <T>      the item's type.
+     * @return a future that can be cancelled to stop waiting.
+     */
+    public static <T> Future<T> awaitResource(String key, ResourceCallback<? super T> callback) {
+        return __etherStore.awaitResource(key, callback);
+    }
+
+    /**
+     * Call back with a held item with a particular key, or with a {@link java.util.concurrent.TimeoutException} if it
+     * is not held in time.
+     *
+     * @param key      the item's key.
+     * @param timeout  the maximum time to wait for the item to be held.
+     * @param timeUnit the unit of the timeout.
+     * @param callback the callback.
+     * @param <T>      the item's type.
+     * @return a future that can be cancelled to stop waiting.
+     */
+    public static <T> Future<T> awaitResource(String key, long timeout, TimeUnit timeUnit,
+                                             ResourceCallback<? super T> callback) {
+        return __etherStore.awaitResource(key, timeout, timeUnit, callback);
+    }
+
+    /**
+     * Get the items with a set of keys.
+     *
+     * @param keys the items' keys.
+     * @param <T>  the items' type.
+     * @return a map of each key to its item, keys that are not held are left out.
+     */
+    public static <T> Map<String, T> getResourcesWithKeys(Collection<String> keys) {
+        return __etherStore.getResourcesWithKeys(keys);
+    }
+
+    /**
+     * Get the items held with a key starting with a prefix.
+     *
+     * @param prefix the start of the items' keys.
+     * @param <T>    the items' type.
+     * @return a map of each key to its item.
+     */
+    public static <T> Map<String, T> getResourcesWithPrefix(String prefix) {
+        return __etherStore.getResourcesWithPrefix(prefix);
     }
 }
@@ -1,94 +1,895 @@
 package com.willkamp.ether;
 
 import rx.Observable;
-import rx.Observer;
+import rx.Scheduler;
 import rx.Subscriber;
+import rx.functions.Action0;
 import rx.functions.Func1;
+import rx.observers.SerializedSubscriber;
+import rx.subscriptions.Subscriptions;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class EtherImpl {
 
-    private static final int DEFAULT_RETAIN_TIME_SECONDS = 10;
-    HashMap<String, Resource> _itemStore = new HashMap<>();
-    HashMap<String, List<Subscriber<? super Resource>>> _subscriberHashMap = new HashMap<>();
+    static final int DEFAULT_RETAIN_TIME_SECONDS = 10;
+    private static final int DEFAULT_LOCK_STRIPES = 64;
+    private static final int DELIVERY_BATCH_SIZE = 256;
+    private static final int DEFAULT_STREAM_REPLAY_SIZE = 1;
+    private static final int DEFAULT_SLAB_SIZE = 1 << 20;
+    private static final long EXPIRY_TICK_MILLIS = 100;
+    private static final int EXPIRY_TICKS_PER_WHEEL = 512;
+    // the share of the estimated retained bytes freed when the heap crosses its threshold
+    private static final double MEMORY_PRESSURE_PURGE_RATIO = 0.5;
+    private static final ExpiryWheel __expiryWheel =
+            new ExpiryWheel("ether-expiry", EXPIRY_TICK_MILLIS, TimeUnit.MILLISECONDS, EXPIRY_TICKS_PER_WHEEL);
+
+    /**
+     * Returned by {@link #getItem(String)} when no item is held, since null is a valid item.
+     */
+    private static final Object NOT_HELD = new Object();
+    final ConcurrentHashMap<String, Resource> _itemStore = new ConcurrentHashMap<>();
+    final ConcurrentHashMap<String, Set<Waiter>> _subscriberHashMap = new ConcurrentHashMap<>();
+    final ConcurrentHashMap<String, Stream> _streams = new ConcurrentHashMap<>();
+    final ConcurrentHashMap<String, Load> _loads = new ConcurrentHashMap<>();
+    final HandleTable _handles = new HandleTable(this);
+
+    /**
+     * Writes and subscriber hand-offs for a key are serialized on the stripe the key hashes to, so operations on
+     * unrelated keys do not contend with each other. Reads of retained items do not lock at all.
+     */
+    private final Object[] _locks;
+    final ExpiryWheel _expiryWheel;
+    private volatile KeyGenerator _keyGenerator = new SequentialKeyGenerator();
+    private volatile Scheduler _deliveryScheduler;
+    private volatile Executor _loadExecutor;
+    private volatile SegmentedLru _evictionPolicy;
+    private volatile Weigher _weigher;
+    private volatile EvictionListener _evictionListener;
+    private volatile RemovalFeed _removalFeed;
+    private final ReferenceQueue<Object> _referenceQueue = new ReferenceQueue<>();
+    private volatile boolean _closed;
+    private volatile StatsCounter _stats;
+    volatile OffHeapArena _arena;
+    volatile KeyIndex _keyIndex;
+    private volatile Sizer _sizer;
+    private final StripedCounter _retainedBytes = new StripedCounter();
+    private volatile boolean _purgeOnMemoryPressure;
+    volatile SnapshotLog _snapshotLog;
 
     EtherImpl() {
+        this(DEFAULT_LOCK_STRIPES, __expiryWheel);
+    }
+
+    /**
+     * @param lockStripes the number of locks keys are spread across (rounded up to a power of two).
+     */
+    EtherImpl(int lockStripes) {
+        this(lockStripes, __expiryWheel);
+    }
+
+    /**
+     * @param scheduler the scheduler that drives expiry and whose {@link Scheduler#now()} all retention decisions are
+     *                  made against.
+     */
+    EtherImpl(Scheduler scheduler) {
+        this(DEFAULT_LOCK_STRIPES,
+                new ExpiryWheel(scheduler, EXPIRY_TICK_MILLIS, TimeUnit.MILLISECONDS, EXPIRY_TICKS_PER_WHEEL));
+    }
+
+    /**
+     * @param expiryWheel the wheel timed items and observer deadlines are scheduled on, shared with other stores on
+     *                    the same clock.
+     */
+    EtherImpl(ExpiryWheel expiryWheel) {
+        this(DEFAULT_LOCK_STRIPES, expiryWheel);
     }
 
-    private synchronized void removeItem(String key) {
-        _itemStore.remove(key);
-        _subscriberHashMap.remove(key);
+    private EtherImpl(int lockStripes, ExpiryWheel expiryWheel) {
+        _expiryWheel = expiryWheel;
+        int stripes = 1;
+        while (stripes < lockStripes) {
+            stripes <<= 1;
+        }
+        _locks = new Object[stripes];
+        for (int i = 0; i < stripes; i++) {
+            _locks[i] = new Object();
+        }
     }
 
-    synchronized void flush() {
-        _itemStore.clear();
-        _subscriberHashMap.clear();
+    private int stripeFor(String key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return hash & (_locks.length - 1);
     }
 
-    private synchronized Resource addItem(String key, Object item, RetainPolicy policy) {
-        Resource<Object> resource = new Resource<>(key, item, policy);
-        boolean storeItem = true;
-        List<Subscriber<? super Resource>> subscribers = _subscriberHashMap.get(key);
-        if (subscribers != null) {
-            Iterator<Subscriber<? super Resource>> iterator = subscribers.iterator();
-            while (iterator.hasNext()) {
-                Subscriber<? super Resource> subscriber = iterator.next();
-                if (!subscriber.isUnsubscribed()) {
-                    if (policy == RetainPolicy.ONCE_OBSERVED) {
-                        storeItem = false;
+    private Object lockFor(String key) {
+        return _locks[stripeFor(key)];
+    }
+
+    void flush() {
+        for (Map.Entry<String, Resource> entry : _itemStore.entrySet()) {
+            if (_itemStore.remove(entry.getKey(), entry.getValue())) {
+                removed(entry.getValue(), RemovalCause.FLUSHED);
+            }
+        }
+        endWaiters(new IllegalStateException("the store was flushed"));
+        _handles.clear(false);
+    }
+
+    /**
+     * Drop every held item and complete the waiting observers. Holding or observing afterwards fails with an
+     * {@link IllegalStateException}.
+     */
+    void close() {
+        _closed = true;
+        // what is still held when the store closes is what a restart restores
+        disablePersistence();
+        if (_purgeOnMemoryPressure) {
+            setMemoryPressureThreshold(0);
+        }
+        endWaiters(null);
+        for (String key : _streams.keySet()) {
+            closeStream(key);
+        }
+        KeyIndex keyIndex = _keyIndex;
+        if (keyIndex != null) {
+            for (KeyIndex.Watcher watcher : keyIndex.clearWatchers()) {
+                watcher.complete();
+            }
+        }
+        _handles.clear(true);
+        flush();
+    }
+
+    /**
+     * Unpark every waiter, each key's waiters are taken under its lock so none is added or removed meanwhile.
+     *
+     * @param error what the waiters fail with or null to complete them.
+     */
+    private void endWaiters(Throwable error) {
+        for (String key : _subscriberHashMap.keySet()) {
+            Set<Waiter> waiters;
+            synchronized (lockFor(key)) {
+                waiters = _subscriberHashMap.remove(key);
+            }
+            if (waiters != null) {
+                for (Waiter waiter : waiters) {
+                    waiter.cancelExpiry();
+                    if (error == null) {
+                        waiter.complete();
+                    } else {
+                        waiter.fail(error);
                     }
-                    subscriber.onNext(resource);
-                    subscriber.onCompleted();
                 }
-                iterator.remove();
             }
-            _subscriberHashMap.remove(key);
         }
-        if (storeItem) {
-            _itemStore.put(key, resource);
+    }
+
+    boolean isClosed() {
+        return _closed;
+    }
+
+    private void checkOpen() {
+        if (_closed) {
+            throw new IllegalStateException("the store is closed");
         }
+    }
 
-        return resource;
+    /**
+     * Release what the store keeps for a resource that was just removed from {@link #_itemStore}.
+     */
+    private void removed(Resource resource, RemovalCause cause) {
+        resource.cancelExpiry();
+        resource.releaseStorage();
+        logRemoval(resource);
+        unindex(resource);
+        releaseSize(resource);
+        SegmentedLru evictionPolicy = _evictionPolicy;
+        if (evictionPolicy != null) {
+            evict(evictionPolicy.remove(resource));
+        }
+        reportRemoval(resource, cause);
     }
 
-    private synchronized Resource getItem(String key) {
-        Resource resource = _itemStore.get(key);
-        if (resource != null && resource._retainPolicy == RetainPolicy.ONCE_OBSERVED) {
-            removeItem(key);
+    private void evict(List<Resource> victims) {
+        if (victims == null) {
+            return;
+        }
+        EvictionListener listener = _evictionListener;
+        StatsCounter stats = _stats;
+        for (Resource victim : victims) {
+            // a victim that already left the store was only dead weight
+            if (_itemStore.remove(victim._key, victim)) {
+                victim.cancelExpiry();
+                victim.releaseStorage();
+                logRemoval(victim);
+                unindex(victim);
+                releaseSize(victim);
+                reportRemoval(victim, RemovalCause.EVICTED);
+                if (stats != null) {
+                    stats._evictions.increment();
+                }
+                if (listener != null) {
+                    listener.onEvicted(victim._key, OffHeapArena.expose(victim.value()));
+                }
+            }
         }
-        return resource;
     }
 
-    private synchronized void addSubscriber(String key, Subscriber<? super Resource> subscriber) {
-        List<Subscriber<? super  Resource>> subscriberList = _subscriberHashMap.get(key);
-        if (subscriberList == null) {
-            subscriberList = new ArrayList<>();
-            _subscriberHashMap.put(key, subscriberList);
+    /**
+     * Sweep out resources whose softly or weakly held items have been collected. Called by every hold and read.
+     */
+    private void purgeCollected() {
+        Reference<?> reference;
+        while ((reference = _referenceQueue.poll()) != null) {
+            Resource resource = ((Resource.ResourceReference) reference).owner();
+            if (_itemStore.remove(resource._key, resource)) {
+                removed(resource, RemovalCause.COLLECTED);
+                recordCollection();
+            }
         }
-        subscriberList.add(subscriber);
     }
 
-    private void scheduleRemoval(final Resource resource, TimeUnit timeUnit, long time) {
-        Observable.timer(time, timeUnit).subscribe(new Observer<Long>() {
-            public void onCompleted() {
-                synchronized (EtherImpl.this) {
-                    Resource store = _itemStore.get(resource._key);
-                    if (store == resource) {
-                        removeItem(store._key);
+    private void reportRemoval(Resource resource, RemovalCause cause) {
+        RemovalFeed feed = _removalFeed;
+        if (feed != null) {
+            // the views of an off-heap payload stay valid after its block is released
+            feed.add(resource._key, OffHeapArena.expose(resource.value()), cause);
+        }
+    }
+
+    private void releaseSize(Resource resource) {
+        long size = resource.releaseSize();
+        if (size > 0) {
+            _retainedBytes.add(-size);
+        }
+    }
+
+    private void unindex(Resource resource) {
+        KeyIndex keyIndex = _keyIndex;
+        if (keyIndex != null) {
+            keyIndex.remove(resource);
+        }
+    }
+
+    /**
+     * @return the snapshot log or null if persistence is disabled or the log failed and closed itself.
+     */
+    private SnapshotLog snapshotLog() {
+        SnapshotLog log = _snapshotLog;
+        return log == null || log.isClosed() ? null : log;
+    }
+
+    private void logRemoval(Resource resource) {
+        SnapshotLog log = snapshotLog();
+        if (log != null && resource._logId != 0) {
+            log.appendRemove(resource._key, resource._logId);
+        }
+    }
+
+    /**
+     * Do the work an addition needs before the key's lock is taken: stamp a timed resource's deadline, estimate the
+     * item's size if sizes are tracked and serialize it for the snapshot log if persistence is enabled and the resource
+     * is one that is restored.
+     */
+    private void prepareAddition(Addition addition, TimeUnit timeUnit, long retainTime) {
+        Resource resource = addition._resource;
+        RetainPolicy policy = resource._retainPolicy;
+        if (policy == RetainPolicy.TIMED && timeUnit != null) {
+            resource._expiresAt = _expiryWheel.now() + timeUnit.toMillis(retainTime);
+        }
+        Sizer sizer = _sizer;
+        if (sizer != null) {
+            addition._size = measure(sizer, resource._key, addition._item);
+        }
+        // weighed before it is stored, so a weigher that fails leaves the store as it was
+        Weigher weigher = _weigher;
+        if (weigher != null) {
+            resource._weight = weigh(weigher, resource._key, addition._item);
+        }
+        if (snapshotLog() == null || (policy != RetainPolicy.TIMED && policy != RetainPolicy.ONCE_OBSERVED)) {
+            return;
+        }
+        addition._entry = SnapshotLog.serialize(addition._item);
+    }
+
+    private static long measure(Sizer sizer, String key, Object item) {
+        // the object graph sizer knows an off-heap block's payload is not on the heap
+        return sizer.sizeOf(key, sizer == Sizer.OBJECT_GRAPH ? item : OffHeapArena.expose(item));
+    }
+
+    private void recordCollection() {
+        StatsCounter stats = _stats;
+        if (stats != null) {
+            stats._collections.increment();
+        }
+    }
+
+    private void recordExpiration() {
+        StatsCounter stats = _stats;
+        if (stats != null) {
+            stats._expirations.increment();
+        }
+    }
+
+    private void recordLookup(boolean hit) {
+        StatsCounter stats = _stats;
+        if (stats != null) {
+            stats.recordLookup(hit);
+        }
+    }
+
+    private static int weigh(Weigher weigher, String key, Object item) {
+        int weight = weigher.weigh(key, OffHeapArena.expose(item));
+        if (weight < 0) {
+            throw new IllegalArgumentException("the weigher returned a negative weight for " + key);
+        }
+        return weight;
+    }
+
+    /**
+     * @param retainTime the time a {@link RetainPolicy#TIMED} item is retained for.
+     */
+    private Resource addItem(String key, Object item, RetainPolicy policy, TimeUnit timeUnit, long retainTime) {
+        return addItem(key, item, policy, timeUnit, retainTime, 0, 0, false);
+    }
+
+    /**
+     * @param retainTime    the time a {@link RetainPolicy#TIMED} item is retained for, or the time a
+     *                      {@link RetainPolicy#SLIDING} item is retained for after it was last accessed.
+     * @param maxRetainTime the longest a {@link RetainPolicy#SLIDING} item is retained for however often it is
+     *                      accessed, 0 for no limit.
+     * @param observations  the budget of a {@link RetainPolicy#COUNTED} item.
+     * @param ifAbsent      true to leave a resource held with the key alone, checked under the key's lock.
+     * @return the resource or null if one was already held with the key.
+     */
+    private Resource addItem(String key, Object item, RetainPolicy policy, TimeUnit timeUnit, long retainTime,
+                             long maxRetainTime, int observations, boolean ifAbsent) {
+        checkOpen();
+        purgeCollected();
+        Addition addition = new Addition(newResource(key, item, policy), item);
+        if (policy == RetainPolicy.SLIDING) {
+            Resource resource = addition._resource;
+            long now = _expiryWheel.now();
+            resource._idleMillis = timeUnit.toMillis(retainTime);
+            resource._maxExpiresAt = maxRetainTime > 0 ? now + timeUnit.toMillis(maxRetainTime) : 0;
+            resource.recordAccess(now);
+        }
+        addition._resource._remainingObservations = observations;
+        prepareAddition(addition, timeUnit, retainTime);
+        StatsCounter stats = _stats;
+        long heldAt = stats == null ? 0 : System.nanoTime();
+        long lockHold = 0;
+        synchronized (lockFor(key)) {
+            if (ifAbsent && _itemStore.containsKey(key)) {
+                return null;
+            }
+            // timed once the lock is taken, waiting for it is not holding it
+            long locked = stats == null ? 0 : System.nanoTime();
+            addLocked(addition, timeUnit, retainTime);
+            if (stats != null) {
+                lockHold = System.nanoTime() - locked;
+            }
+        }
+        if (stats != null) {
+            stats._lockHold.record(lockHold);
+            stats._holds.increment();
+        }
+        completeAddition(addition, stats, heldAt);
+        return addition._resource;
+    }
+
+    /**
+     * Add many items taking each lock stripe once and sharing a single expiry between them.
+     *
+     * @param timeUnit the unit of the retain time or null if the items are not {@link RetainPolicy#TIMED}.
+     */
+    private void addItems(Map<String, ?> items, RetainPolicy policy, TimeUnit timeUnit, long retainTime) {
+        checkOpen();
+        purgeCollected();
+        Addition[] additions = new Addition[items.size()];
+        int count = 0;
+        for (Map.Entry<String, ?> entry : items.entrySet()) {
+            Addition addition = new Addition(newResource(entry.getKey(), entry.getValue(), policy), entry.getValue());
+            addition._stripe = stripeFor(entry.getKey());
+            prepareAddition(addition, timeUnit, retainTime);
+            additions[count++] = addition;
+        }
+        Arrays.sort(additions, 0, count, new Comparator<Addition>() {
+            @Override
+            public int compare(Addition lhs, Addition rhs) {
+                return lhs._stripe < rhs._stripe ? -1 : (lhs._stripe == rhs._stripe ? 0 : 1);
+            }
+        });
+        List<Resource> stored = new ArrayList<>(count);
+        StatsCounter stats = _stats;
+        long heldAt = stats == null ? 0 : System.nanoTime();
+        int start = 0;
+        while (start < count) {
+            int stripe = additions[start]._stripe;
+            int end = start;
+            long lockHold = 0;
+            synchronized (_locks[stripe]) {
+                long locked = stats == null ? 0 : System.nanoTime();
+                while (end < count && additions[end]._stripe == stripe) {
+                    addLocked(additions[end], null, 0);
+                    if (additions[end]._stored) {
+                        stored.add(additions[end]._resource);
                     }
+                    end++;
                 }
+                if (stats != null) {
+                    lockHold = System.nanoTime() - locked;
+                }
+            }
+            if (stats != null) {
+                stats._lockHold.record(lockHold);
             }
+            start = end;
+        }
+        if (stats != null) {
+            stats._holds.add(count);
+        }
+        if (timeUnit != null && !stored.isEmpty()) {
+            // a member removed or re-held before it joins the batch is left to the identity check
+            BatchExpiry batchExpiry = new BatchExpiry(stored) {
+                @Override
+                void expire(Resource member) {
+                    if (_itemStore.remove(member._key, member)) {
+                        removed(member, RemovalCause.EXPIRED);
+                        recordExpiration();
+                    }
+                }
+            };
+            batchExpiry._timeout = _expiryWheel.schedule(batchExpiry, timeUnit, retainTime);
+        }
+        for (int i = 0; i < count; i++) {
+            completeAddition(additions[i], stats, heldAt);
+        }
+    }
+
+    private Resource<Object> newResource(String key, Object item, RetainPolicy policy) {
+        if (policy == RetainPolicy.SOFT || policy == RetainPolicy.WEAK) {
+            return new Resource<>(key, item, policy, _referenceQueue);
+        }
+        return new Resource<>(key, item, policy);
+    }
 
-            public void onError(Throwable e) {
+    /**
+     * Store a resource or hand it to the waiters parked on its key. Must hold the key's lock.
+     *
+     * @param timeUnit the unit of the retain time or null to not schedule an expiry.
+     */
+    private void addLocked(Addition addition, TimeUnit timeUnit, long retainTime) {
+        Resource resource = addition._resource;
+        addition._waiters = _subscriberHashMap.remove(resource._key);
+        addition._stored = true;
+        if (addition._waiters != null && resource._retainPolicy == RetainPolicy.COUNTED) {
+            handOffCounted(addition);
+        } else if (addition._waiters != null) {
+            for (Waiter waiter : addition._waiters) {
+                waiter.cancelExpiry();
+                if (resource._retainPolicy == RetainPolicy.ONCE_OBSERVED && !waiter.isUnsubscribed()) {
+                    addition._stored = false;
+                }
+            }
+        }
+        if (addition._stored) {
+            SnapshotLog log = snapshotLog();
+            if (log != null && addition._entry != null) {
+                // the id is taken before the resource can be seen so its removal names it, the put is appended once
+                // the lock is released
+                resource._logId = log.reserveId();
+                addition._log = log;
             }
+            if (resource.countSize(addition._size)) {
+                _retainedBytes.add(addition._size);
+            }
+            addition._previous = _itemStore.put(resource._key, resource);
+            if (resource._retainPolicy == RetainPolicy.TIMED && timeUnit != null) {
+                scheduleRemoval(resource, timeUnit, retainTime);
+            } else if (resource._retainPolicy == RetainPolicy.SLIDING) {
+                scheduleRemoval(resource, TimeUnit.MILLISECONDS,
+                        resource.slidingExpiresAt() - _expiryWheel.now());
+            }
+        }
+    }
 
-            public void onNext(Long ignored) {
+    /**
+     * Hand a counted resource to as many of the waiters parked on its key as its budget allows, the rest stay parked.
+     * Must hold the key's lock.
+     */
+    private void handOffCounted(Addition addition) {
+        Resource resource = addition._resource;
+        Set<Waiter> served = new LinkedHashSet<>();
+        Set<Waiter> parked = null;
+        for (Waiter waiter : addition._waiters) {
+            if (waiter.isUnsubscribed()) {
+                continue;
+            }
+            if (resource._remainingObservations > 0) {
+                // not visible to any other thread yet
+                resource._remainingObservations--;
+                waiter.cancelExpiry();
+                served.add(waiter);
+            } else {
+                if (parked == null) {
+                    parked = new LinkedHashSet<>();
+                }
+                parked.add(waiter);
+            }
+        }
+        if (parked != null) {
+            _subscriberHashMap.put(resource._key, parked);
+        }
+        addition._waiters = served;
+        addition._stored = resource._remainingObservations > 0;
+    }
+
+    /**
+     * Finish an addition once the key's lock is released.
+     *
+     * @param stats  the stats to record the delivery latency in or null.
+     * @param heldAt when the hold started in {@link System#nanoTime()}.
+     */
+    private void completeAddition(Addition addition, StatsCounter stats, long heldAt) {
+        if (addition._log != null) {
+            Resource resource = addition._resource;
+            addition._log.appendPut(resource._logId, resource._key, resource._retainPolicy, resource._expiresAt,
+                    addition._entry);
+        }
+        if (addition._previous != null) {
+            // the re-held key supersedes the previous deadline
+            removed(addition._previous, RemovalCause.REPLACED);
+        }
+        // indexed outside the key's lock, the index only takes a resource that is still stored
+        KeyIndex keyIndex = _keyIndex;
+        List<KeyIndex.Watcher> watchers = null;
+        if (keyIndex != null) {
+            // handed straight to the waiters, prefix watchers still see the hold
+            watchers = addition._stored ? keyIndex.add(addition._resource)
+                    : keyIndex.watchersOf(addition._resource._key);
+        }
+        if (addition._waiters != null && !addition._waiters.isEmpty()) {
+            deliver(addition._item, addition._waiters, stats, heldAt, handOff(addition));
+        } else if (!addition._stored) {
+            addition._resource.releaseStorage();
+        }
+        if (watchers != null && !addition._reheld) {
+            for (KeyIndex.Watcher watcher : watchers) {
+                watcher.deliver(addition._resource._key, addition._item);
+            }
+        }
+        SegmentedLru evictionPolicy = _evictionPolicy;
+        Resource resource = addition._resource;
+        // a resource removed again since is never tracked
+        if (addition._stored && evictionPolicy != null && _itemStore.get(resource._key) == resource) {
+            evict(evictionPolicy.add(resource));
+        }
+    }
+
+    /**
+     * Track the delivery of a resource whose observers use it up, so that the observations of the waiters that stop
+     * waiting before it reaches them are not lost.
+     *
+     * @return the hand-off or null if the resource is stored whatever the waiters do.
+     */
+    private HandOff handOff(final Addition addition) {
+        final Resource resource = addition._resource;
+        if (resource._retainPolicy == RetainPolicy.ONCE_OBSERVED && !addition._stored) {
+            return new HandOff(addition._waiters.size()) {
+                @Override
+                void finish(int accepted, int refused) {
+                    if (accepted > 0 || !rehold(resource, addition._item, 0)) {
+                        // the views delivered keep the payload's memory alive
+                        resource.releaseStorage();
+                    }
+                }
+            };
+        }
+        if (resource._retainPolicy == RetainPolicy.COUNTED) {
+            return new HandOff(addition._waiters.size()) {
+                @Override
+                void finish(int accepted, int refused) {
+                    boolean reheld = refused > 0 && restore(resource, addition._item, refused);
+                    if (!addition._stored && !reheld) {
+                        resource.releaseStorage();
+                    }
+                }
+            };
+        }
+        return null;
+    }
+
+    /**
+     * @return a hand-off giving a resource that was used up by a read back to the store if its waiter refuses it.
+     */
+    private HandOff restoreIfRefused(final Resource resource, final Object item) {
+        return new HandOff(1) {
+            @Override
+            void finish(int accepted, int refused) {
+                if (refused > 0) {
+                    restore(resource, item, refused);
+                }
+            }
+        };
+    }
+
+    /**
+     * Give back the observations of waiters that refused a resource, to a counted resource's budget if it is still
+     * held or else by holding the item again.
+     *
+     * @return true if the item was held again, its storage now belongs to the new resource.
+     */
+    private boolean restore(Resource resource, Object item, int observations) {
+        if (resource._retainPolicy == RetainPolicy.COUNTED) {
+            return !resource.returnObservations(observations) && rehold(resource, item, observations);
+        }
+        return rehold(resource, item, 0);
+    }
+
+    /**
+     * Hold an item again that was handed to waiters that all refused it, unless a newer resource was held with its key
+     * meanwhile. The item is handed to the waiters parked since or stored.
+     *
+     * @param observations the budget of a {@link RetainPolicy#COUNTED} item.
+     * @return true if the item was held again, its storage now belongs to the new resource.
+     */
+    private boolean rehold(Resource resource, Object item, int observations) {
+        String key = resource._key;
+        Addition addition = new Addition(newResource(key, item, resource._retainPolicy), item);
+        addition._resource._remainingObservations = observations;
+        prepareAddition(addition, null, 0);
+        boolean spent = false;
+        synchronized (lockFor(key)) {
+            Resource current = _itemStore.get(key);
+            if (_closed || (current != null && current != resource)) {
+                return false;
+            }
+            // a spent counted resource whose last observer has yet to remove it
+            spent = current != null && _itemStore.remove(key, current);
+            addLocked(addition, null, 0);
+        }
+        if (spent) {
+            removed(resource, RemovalCause.CONSUMED);
+        }
+        // prefix watchers already saw the hold
+        addition._reheld = true;
+        completeAddition(addition, _stats, System.nanoTime());
+        return true;
+    }
+
+    /**
+     * Deliver an item to the waiters that were parked on its key. Waiters without a scheduler are delivered to on
+     * the calling thread, the rest are handed to their scheduler in batches so that a large fan-out only costs the
+     * caller one scheduled action per batch.
+     *
+     * @param handOff told whether each waiter took the item or null.
+     */
+    void deliver(Object item, Collection<Waiter> waiters, StatsCounter stats, long heldAt, HandOff handOff) {
+        Scheduler defaultScheduler = _deliveryScheduler;
+        Scheduler batchScheduler = null;
+        List<Waiter> batch = null;
+        for (Waiter waiter : waiters) {
+            Scheduler scheduler = waiter._scheduler != null ? waiter._scheduler : defaultScheduler;
+            if (scheduler == null) {
+                deliver(waiter, item, handOff);
+                if (stats != null) {
+                    stats._delivery.record(System.nanoTime() - heldAt);
+                }
+                continue;
+            }
+            if (batch != null && (scheduler != batchScheduler || batch.size() == DELIVERY_BATCH_SIZE)) {
+                scheduleDelivery(batchScheduler, item, batch, stats, heldAt, handOff);
+                batch = null;
+            }
+            if (batch == null) {
+                batch = new ArrayList<>(Math.min(DELIVERY_BATCH_SIZE, waiters.size()));
+                batchScheduler = scheduler;
+            }
+            batch.add(waiter);
+        }
+        if (batch != null) {
+            scheduleDelivery(batchScheduler, item, batch, stats, heldAt, handOff);
+        }
+    }
+
+    private static void deliver(Waiter waiter, Object item, HandOff handOff) {
+        boolean accepted = true;
+        try {
+            accepted = waiter.deliver(item);
+        } finally {
+            if (handOff != null) {
+                handOff.delivered(accepted);
+            }
+        }
+    }
+
+    private static void scheduleDelivery(Scheduler scheduler, final Object item, final List<Waiter> batch,
+                                         final StatsCounter stats, final long heldAt, final HandOff handOff) {
+        final Scheduler.Worker worker = scheduler.createWorker();
+        worker.schedule(new Action0() {
+            @Override
+            public void call() {
+                try {
+                    for (Waiter waiter : batch) {
+                        deliver(waiter, item, handOff);
+                        if (stats != null) {
+                            stats._delivery.record(System.nanoTime() - heldAt);
+                        }
+                    }
+                } finally {
+                    worker.unsubscribe();
+                }
             }
         });
     }
 
+    /**
+     * @return the item or {@link #NOT_HELD}.
+     */
+    private Object getItem(String key) {
+        return getItem(key, null);
+    }
+
+    /**
+     * @param used set to the resource if the read used it up or took one of its observations, may be null.
+     * @return the item or {@link #NOT_HELD}.
+     */
+    private Object getItem(String key, Resource[] used) {
+        // a store that is only read still sweeps, polling an empty queue takes no lock
+        purgeCollected();
+        while (true) {
+            Resource resource = _itemStore.get(key);
+            if (resource == null) {
+                return NOT_HELD;
+            }
+            Object item = resource.value();
+            if (item == null && resource._reference != null) {
+                // a collected item is a miss
+                if (_itemStore.remove(key, resource)) {
+                    removed(resource, RemovalCause.COLLECTED);
+                    recordCollection();
+                }
+                continue;
+            }
+            if (resource._retainPolicy == RetainPolicy.COUNTED) {
+                int remaining = resource.observe();
+                if (remaining < 0) {
+                    // spent by a concurrent observer that is about to remove it, it may already be replaced
+                    if (_itemStore.remove(key, resource)) {
+                        removed(resource, RemovalCause.CONSUMED);
+                    }
+                    continue;
+                }
+                if (remaining == 0 && _itemStore.remove(key, resource)) {
+                    removed(resource, RemovalCause.CONSUMED);
+                }
+                if (used != null) {
+                    used[0] = resource;
+                }
+                return item;
+            }
+            if (resource._retainPolicy != RetainPolicy.ONCE_OBSERVED) {
+                if (resource._retainPolicy == RetainPolicy.SLIDING) {
+                    resource.recordAccess(_expiryWheel.now());
+                }
+                SegmentedLru evictionPolicy = _evictionPolicy;
+                if (evictionPolicy != null) {
+                    evict(evictionPolicy.recordAccess(resource));
+                }
+                return item;
+            }
+            // only the observer that wins the removal receives a once observed item
+            if (_itemStore.remove(key, resource)) {
+                removed(resource, RemovalCause.CONSUMED);
+                if (used != null) {
+                    used[0] = resource;
+                }
+                return item;
+            }
+        }
+    }
+
+    /**
+     * Get the item with the waiter's key or if it is not held park the waiter until it is. Both happen under the
+     * key's lock so that a concurrent {@link #addItem(String, Object, RetainPolicy, TimeUnit, long)} can not slip in
+     * between.
+     *
+     * @param used set to the resource if the read used it up or took one of its observations, may be null.
+     * @return the item or {@link #NOT_HELD} if the waiter was parked.
+     */
+    private Object getItemOrAddWaiter(Waiter waiter, Resource[] used) {
+        synchronized (lockFor(waiter._key)) {
+            Object item = getItem(waiter._key, used);
+            if (item == NOT_HELD && !_closed) {
+                Set<Waiter> waiters = _subscriberHashMap.get(waiter._key);
+                if (waiters == null) {
+                    waiters = new LinkedHashSet<>();
+                    _subscriberHashMap.put(waiter._key, waiters);
+                }
+                waiters.add(waiter);
+            }
+            return item;
+        }
+    }
+
+    /**
+     * Unpark a waiter, dropping its key's entry once no waiters remain.
+     *
+     * @return true if the waiter was still parked.
+     */
+    boolean removeWaiter(Waiter waiter) {
+        synchronized (lockFor(waiter._key)) {
+            Set<Waiter> waiters = _subscriberHashMap.get(waiter._key);
+            if (waiters == null || !waiters.remove(waiter)) {
+                return false;
+            }
+            if (waiters.isEmpty()) {
+                _subscriberHashMap.remove(waiter._key);
+            }
+        }
+        waiter.cancelExpiry();
+        return true;
+    }
+
+    /**
+     * Fail a parked waiter with a {@link TimeoutException} once its deadline passes.
+     */
+    private void scheduleWaiterRemoval(final Waiter waiter, TimeUnit timeUnit, long time) {
+        waiter._expiry = _expiryWheel.schedule(new ExpiryWheel.Expirable() {
+            @Override
+            public void expire() {
+                if (removeWaiter(waiter)) {
+                    StatsCounter stats = _stats;
+                    if (stats != null) {
+                        stats._waiterTimeouts.increment();
+                    }
+                    waiter.fail(new TimeoutException());
+                }
+            }
+        }, timeUnit, time);
+    }
+
+    private void scheduleRemoval(final Resource resource, TimeUnit timeUnit, long time) {
+        resource._expiry = _expiryWheel.schedule(new ExpiryWheel.Expirable() {
+            @Override
+            public void expire() {
+                if (resource._retainPolicy == RetainPolicy.SLIDING) {
+                    // accesses only move the timestamp, the expiry catches up with it here
+                    long remaining = resource.slidingExpiresAt() - _expiryWheel.now();
+                    if (remaining > 0) {
+                        if (_itemStore.get(resource._key) == resource) {
+                            scheduleRemoval(resource, TimeUnit.MILLISECONDS, remaining);
+                        }
+                        return;
+                    }
+                }
+                // a newer resource held with the same key is left alone
+                if (_itemStore.remove(resource._key, resource)) {
+                    removed(resource, RemovalCause.EXPIRED);
+                    recordExpiration();
+                }
+            }
+        }, timeUnit, time);
+    }
+
     //endregion
 
     String holdForTime(Object item, TimeUnit timeUnit, long time) {
@@ -98,7 +899,19 @@ class EtherImpl {
     }
 
     void holdForTime(final String key, Object item, TimeUnit timeUnit, long time) {
-        scheduleRemoval(addItem(key, item, RetainPolicy.TIMED), timeUnit, time);
+        addItem(key, item, RetainPolicy.TIMED, timeUnit, time);
+    }
+
+    void holdAllForTime(Map<String, ?> items, TimeUnit timeUnit, long time) {
+        addItems(items, RetainPolicy.TIMED, timeUnit, time);
+    }
+
+    void holdAll(Map<String, ?> items) {
+        holdAllForTime(items, TimeUnit.SECONDS, DEFAULT_RETAIN_TIME_SECONDS);
+    }
+
+    void holdAllUntilObserved(Map<String, ?> items) {
+        addItems(items, RetainPolicy.ONCE_OBSERVED, null, 0);
     }
 
     String hold(Object item) {
@@ -111,6 +924,36 @@ class EtherImpl {
         holdForTime(key, item, TimeUnit.SECONDS, DEFAULT_RETAIN_TIME_SECONDS);
     }
 
+    String holdWhileAccessed(Object item, TimeUnit timeUnit, long idleTime, long maxTime) {
+        String key = createUniqueKey();
+        holdWhileAccessed(key, item, timeUnit, idleTime, maxTime);
+        return key;
+    }
+
+    /**
+     * @param idleTime the time the item is retained for after it was last fetched or observed.
+     * @param maxTime  the longest the item is retained for, 0 for no limit.
+     */
+    void holdWhileAccessed(String key, Object item, TimeUnit timeUnit, long idleTime, long maxTime) {
+        addItem(key, item, RetainPolicy.SLIDING, timeUnit, idleTime, maxTime, 0, false);
+    }
+
+    String holdForObservations(Object item, int observations) {
+        String key = createUniqueKey();
+        holdForObservations(key, item, observations);
+        return key;
+    }
+
+    /**
+     * @param observations the number of fetches and deliveries to waiters after which the item is removed.
+     */
+    void holdForObservations(String key, Object item, int observations) {
+        if (observations <= 0) {
+            throw new IllegalArgumentException("observations must be positive");
+        }
+        addItem(key, item, RetainPolicy.COUNTED, null, 0, 0, observations, false);
+    }
+
     String holdUntilObserved(Object item) {
         String key = createUniqueKey();
         holdUntilObserved(key, item);
@@ -118,36 +961,825 @@ class EtherImpl {
     }
 
     void holdUntilObserved(String key, Object item) {
-        addItem(key, item, RetainPolicy.ONCE_OBSERVED);
+        addItem(key, item, RetainPolicy.ONCE_OBSERVED, TimeUnit.SECONDS, 0);
+    }
+
+    /**
+     * @param policy {@link RetainPolicy#SOFT} or {@link RetainPolicy#WEAK}.
+     */
+    String holdReferenced(Object item, RetainPolicy policy) {
+        String key = createUniqueKey();
+        holdReferenced(key, item, policy);
+        return key;
     }
 
-    <T> Observable<T> observeResourceWithKey(final String key) {
-        return Observable.create(new Observable.OnSubscribe<Resource>() {
+    /**
+     * @param policy {@link RetainPolicy#SOFT} or {@link RetainPolicy#WEAK}.
+     */
+    void holdReferenced(String key, Object item, RetainPolicy policy) {
+        addItem(key, item, policy, TimeUnit.SECONDS, 0);
+    }
+
+    /**
+     * Hold a copy of a binary payload in the store's off-heap arena. Observers receive read-only views of the copy.
+     *
+     * @param policy {@link RetainPolicy#TIMED} or {@link RetainPolicy#ONCE_OBSERVED}.
+     */
+    String holdBuffer(ByteBuffer payload, RetainPolicy policy, TimeUnit timeUnit, long time) {
+        String key = createUniqueKey();
+        holdBuffer(key, payload, policy, timeUnit, time);
+        return key;
+    }
+
+    /**
+     * @param policy {@link RetainPolicy#TIMED} or {@link RetainPolicy#ONCE_OBSERVED}.
+     */
+    void holdBuffer(String key, ByteBuffer payload, RetainPolicy policy, TimeUnit timeUnit, long time) {
+        checkOpen();
+        OffHeapArena.Block block = arena().allocate(payload);
+        try {
+            addItem(key, block, policy, timeUnit, time);
+        } catch (RuntimeException e) {
+            block.release();
+            throw e;
+        }
+    }
+
+    private OffHeapArena arena() {
+        OffHeapArena arena = _arena;
+        if (arena == null) {
+            synchronized (this) {
+                if (_arena == null) {
+                    _arena = new OffHeapArena(null, DEFAULT_SLAB_SIZE);
+                }
+                arena = _arena;
+            }
+        }
+        return arena;
+    }
+
+    /**
+     * Store binary payloads held from now on in slabs of direct buffers or of files mapped in a directory. Payloads
+     * already held stay where they are.
+     *
+     * @param directory the directory to map slab files in or null for direct buffers.
+     */
+    void setOffHeapStorage(File directory, int slabSize) {
+        _arena = new OffHeapArena(directory, slabSize);
+    }
+
+    /**
+     * Restore the resources logged to a snapshot file and log every resource held from now on to it. Timed resources
+     * are restored for the time they had left, resources that can not be serialized are neither logged nor restored.
+     *
+     * @return the number of resources restored.
+     * @throws IOException if the snapshot file can not be read or written.
+     */
+    synchronized int enablePersistence(File file) throws IOException {
+        checkOpen();
+        // a log that failed can be replaced
+        if (snapshotLog() != null) {
+            throw new IllegalStateException("persistence is already enabled");
+        }
+        List<SnapshotLog.Record> records = file.exists()
+                ? SnapshotLog.read(file) : Collections.<SnapshotLog.Record>emptyList();
+        // the restored resources are logged again, compacting the log, before it replaces the old one
+        File written = new File(file.getPath() + ".tmp");
+        _snapshotLog = SnapshotLog.create(written);
+        int restored = 0;
+        long now = _expiryWheel.now();
+        for (SnapshotLog.Record record : records) {
+            Object item;
+            try {
+                item = record.item();
+            } catch (IOException | ClassNotFoundException e) {
+                continue;
+            }
+            long retainTime = 0;
+            if (record._policy == RetainPolicy.TIMED) {
+                retainTime = record._expiresAt - now;
+                if (retainTime <= 0) {
+                    continue;
+                }
+            }
+            if (record._buffer) {
+                holdBuffer(record._key, (ByteBuffer) item, record._policy, TimeUnit.MILLISECONDS, retainTime);
+            } else {
+                addItem(record._key, item, record._policy, TimeUnit.MILLISECONDS, retainTime);
+            }
+            restored++;
+        }
+        _snapshotLog.commit(file);
+        return restored;
+    }
+
+    /**
+     * Stop logging to the snapshot file, leaving it as it is.
+     */
+    synchronized void disablePersistence() {
+        SnapshotLog log = _snapshotLog;
+        _snapshotLog = null;
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    <T> Observable<T> observeResourceWithKey(String key) {
+        return observeResourceWithKey(key, null, null, 0);
+    }
+
+    <T> Observable<T> observeResourceWithKey(String key, Scheduler scheduler) {
+        return observeResourceWithKey(key, scheduler, null, 0);
+    }
+
+    /**
+     * @param scheduler the scheduler the resource is delivered on or null to deliver on the subscribing thread when
+     *                  the resource is already held, or on the store's delivery scheduler once it is.
+     * @param timeUnit  the unit of the timeout or null to wait until the subscriber unsubscribes.
+     * @param timeout   the time to wait for the resource to be held before failing with a {@link TimeoutException}.
+     */
+    <T> Observable<T> observeResourceWithKey(String key, Scheduler scheduler, TimeUnit timeUnit, long timeout) {
+        return observeResourceWithKey(key, scheduler, timeUnit, timeout, null, null, 0);
+    }
+
+    /**
+     * Observe a key, loading its item if it is not held. Concurrent misses on the same key share a single load.
+     *
+     * @param loader     computes the item on the load executor.
+     * @param retainTime the time the loaded item is retained for.
+     */
+    <T> Observable<T> observeResourceWithKeyOrLoad(String key, Callable<? extends T> loader, TimeUnit retainUnit,
+                                                   long retainTime) {
+        return observeResourceWithKey(key, null, null, 0, loader, retainUnit, retainTime);
+    }
+
+    private <T> Observable<T> observeResourceWithKey(final String key, final Scheduler scheduler,
+                                                     final TimeUnit timeUnit, final long timeout,
+                                                     final Callable<?> loader, final TimeUnit retainUnit,
+                                                     final long retainTime) {
+        Observable<Object> observable = Observable.create(new Observable.OnSubscribe<Object>() {
             @Override
-            public void call(Subscriber<? super Resource> subscriber) {
-                Resource resource = getItem(key);
-                if (resource != null) {
-                    subscriber.onNext(resource);
-                    subscriber.onCompleted();
+            public void call(Subscriber<? super Object> subscriber) {
+                if (_closed) {
+                    subscriber.onError(new IllegalStateException("the store is closed"));
+                    return;
+                }
+                final Waiter waiter = new SubscriberWaiter(key, subscriber, scheduler);
+                Resource[] used = new Resource[1];
+                Object item = getItem(key, used);
+                if (item == NOT_HELD) {
+                    item = getItemOrAddWaiter(waiter, used);
+                }
+                recordLookup(item != NOT_HELD);
+                if (item == NOT_HELD && _closed) {
+                    // closed while subscribing
+                    waiter.complete();
+                } else if (item == NOT_HELD) {
+                    if (timeUnit != null) {
+                        scheduleWaiterRemoval(waiter, timeUnit, timeout);
+                    }
+                    // an abandoned waiter is reclaimed as soon as it unsubscribes
+                    subscriber.add(Subscriptions.create(new Action0() {
+                        @Override
+                        public void call() {
+                            removeWaiter(waiter);
+                        }
+                    }));
+                    if (loader != null) {
+                        joinLoad(key, waiter, loader, retainUnit, retainTime);
+                    }
+                } else if (scheduler == null) {
+                    waiter.deliver(item);
                 } else {
-                    addSubscriber(key, subscriber);
+                    // the subscriber may unsubscribe before the scheduler gets to it
+                    scheduleDelivery(scheduler, item, Collections.<Waiter>singletonList(waiter), null, 0,
+                            used[0] == null ? null : restoreIfRefused(used[0], item));
+                }
+            }
+        });
+        //noinspection unchecked
+        return (Observable<T>) (Observable) observable;
+    }
+
+    /**
+     * Join the in-flight load of a key or start one. The waiter must already be parked, so that it is handed the
+     * loaded item like any other waiter.
+     */
+    private void joinLoad(String key, Waiter waiter, Callable<?> loader, TimeUnit retainUnit, long retainTime) {
+        while (true) {
+            Load load = _loads.get(key);
+            boolean started = false;
+            if (load == null) {
+                load = new Load();
+                if (_loads.putIfAbsent(key, load) != null) {
+                    continue;
                 }
+                started = true;
             }
-        }).map(new Func1<Resource, T>() {
+            synchronized (load) {
+                if (load._done) {
+                    // finished while joining, its item is already held or it failed
+                    _loads.remove(key, load);
+                    continue;
+                }
+                load._waiters.add(waiter);
+            }
+            if (started) {
+                startLoad(key, load, loader, retainUnit, retainTime);
+            }
+            return;
+        }
+    }
+
+    private void startLoad(final String key, final Load load, final Callable<?> loader, final TimeUnit retainUnit,
+                           final long retainTime) {
+        Executor executor = _loadExecutor;
+        try {
+            (executor == null ? DefaultLoadExecutor.INSTANCE : executor).execute(new Runnable() {
+                @Override
+                public void run() {
+                    Exception error = null;
+                    try {
+                        // a resource held while loading was handed to the load's waiters, it is not overwritten
+                        addItem(key, loader.call(), RetainPolicy.TIMED, retainUnit, retainTime, 0, 0, true);
+                    } catch (Exception e) {
+                        error = e;
+                    }
+                    finishLoad(key, load, error);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            finishLoad(key, load, e);
+        }
+    }
+
+    /**
+     * @param error why the load failed or null if its item was held.
+     */
+    private void finishLoad(String key, Load load, Exception error) {
+        List<Waiter> joined;
+        synchronized (load) {
+            load._done = true;
+            joined = load._waiters;
+        }
+        _loads.remove(key, load);
+        if (error != null) {
+            // only the waiters that asked for the load fail, plain observers keep waiting for a hold
+            for (Waiter waiter : joined) {
+                if (removeWaiter(waiter)) {
+                    waiter.fail(error);
+                }
+            }
+        }
+    }
+
+    /**
+     * Observe many keys at once.
+     *
+     * @return an observable emitting a map of every key to its item once all of them are held.
+     */
+    <T> Observable<Map<String, T>> observeResourcesWithKeys(Collection<String> keys) {
+        List<Observable<Map.Entry<String, T>>> observables = new ArrayList<>(keys.size());
+        for (final String key : keys) {
+            observables.add(this.<T>observeResourceWithKey(key).map(new Func1<T, Map.Entry<String, T>>() {
+                @Override
+                public Map.Entry<String, T> call(T item) {
+                    return new AbstractMap.SimpleImmutableEntry<>(key, item);
+                }
+            }));
+        }
+        return Observable.merge(observables).toMap(new Func1<Map.Entry<String, T>, String>() {
             @Override
-            public T call(Resource resource) {
-                //noinspection unchecked
-                return (T) resource._resource;
+            public String call(Map.Entry<String, T> entry) {
+                return entry.getKey();
+            }
+        }, new Func1<Map.Entry<String, T>, T>() {
+            @Override
+            public T call(Map.Entry<String, T> entry) {
+                return entry.getValue();
             }
         });
     }
 
+    /**
+     * @return a map of each key to its item, keys that are not held are left out.
+     */
+    <T> Map<String, T> getResourcesWithKeys(Collection<String> keys) {
+        Map<String, T> items = new HashMap<>();
+        for (String key : keys) {
+            Object item = getItem(key);
+            recordLookup(item != NOT_HELD);
+            if (item != NOT_HELD) {
+                //noinspection unchecked
+                items.put(key, (T) OffHeapArena.expose(item));
+            }
+        }
+        return items;
+    }
+
+    /**
+     * @return the index of held keys, built from the store on first use.
+     */
+    private KeyIndex keyIndex() {
+        KeyIndex keyIndex = _keyIndex;
+        return keyIndex != null ? keyIndex : buildKeyIndex();
+    }
+
+    private synchronized KeyIndex buildKeyIndex() {
+        if (_keyIndex == null) {
+            KeyIndex keyIndex = new KeyIndex(_itemStore);
+            // published first so that no resource stored while the index is built is missed
+            _keyIndex = keyIndex;
+            for (Resource resource : _itemStore.values()) {
+                keyIndex.addIfStored(resource);
+            }
+        }
+        return _keyIndex;
+    }
+
+    /**
+     * @return the indexed resources with the prefix that are still held, stale ones are dropped from the index.
+     */
+    private List<Resource> resourcesWithPrefix(KeyIndex keyIndex, List<Resource> indexed) {
+        List<Resource> held = new ArrayList<>(indexed.size());
+        for (Resource resource : indexed) {
+            if (_itemStore.get(resource._key) == resource) {
+                held.add(resource);
+            } else {
+                keyIndex.remove(resource);
+            }
+        }
+        return held;
+    }
+
+    /**
+     * Fetch every held item whose key starts with the prefix, consuming once observed items like
+     * {@link #getResourcesWithKeys(Collection)}.
+     */
+    <T> Map<String, T> getResourcesWithPrefix(String prefix) {
+        KeyIndex keyIndex = keyIndex();
+        Map<String, T> items = new HashMap<>();
+        for (Resource resource : resourcesWithPrefix(keyIndex, keyIndex.resourcesWithPrefix(prefix))) {
+            Object item = getItem(resource._key);
+            recordLookup(item != NOT_HELD);
+            if (item != NOT_HELD) {
+                //noinspection unchecked
+                items.put(resource._key, (T) OffHeapArena.expose(item));
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Watch every key starting with the prefix. The items already held are emitted first, then every item held
+     * afterwards. Watching consumes nothing, once observed items are still there for their own observers.
+     *
+     * @return an observable of key and item pairs that completes when the store closes.
+     */
+    <T> Observable<Map.Entry<String, T>> observeResourcesWithPrefix(final String prefix) {
+        Observable<Map.Entry<String, Object>> observable = Observable.create(
+                new Observable.OnSubscribe<Map.Entry<String, Object>>() {
+                    @Override
+                    public void call(Subscriber<? super Map.Entry<String, Object>> subscriber) {
+                        if (_closed) {
+                            subscriber.onError(new IllegalStateException("the store is closed"));
+                            return;
+                        }
+                        final KeyIndex keyIndex = keyIndex();
+                        // holds on other threads may signal the watcher while the current items are emitted
+                        final KeyIndex.Watcher watcher = new KeyIndex.Watcher(prefix,
+                                new SerializedSubscriber<>(subscriber));
+                        List<Resource> current = keyIndex.watch(watcher);
+                        subscriber.add(Subscriptions.create(new Action0() {
+                            @Override
+                            public void call() {
+                                keyIndex.unwatch(watcher);
+                            }
+                        }));
+                        for (Resource resource : resourcesWithPrefix(keyIndex, current)) {
+                            Object item = resource.value();
+                            if (item != null || resource._reference == null) {
+                                watcher.deliver(resource._key, item);
+                            }
+                        }
+                        if (_closed) {
+                            // closed while subscribing
+                            keyIndex.unwatch(watcher);
+                            watcher.complete();
+                        }
+                    }
+                });
+        //noinspection unchecked
+        return (Observable<Map.Entry<String, T>>) (Observable) observable;
+    }
+
     <T> T getResourceWithKey(String key) {
+        Object item = getItem(key);
+        recordLookup(item != NOT_HELD);
         //noinspection unchecked
-        return (T) getItem(key)._resource;
+        return item == NOT_HELD ? null : (T) OffHeapArena.expose(item);
+    }
+
+    /**
+     * @return the item or the default value if it is not held, which unlike null can not be mistaken for a held null.
+     */
+    <T> T getResourceWithKey(String key, T defaultValue) {
+        Object item = getItem(key);
+        recordLookup(item != NOT_HELD);
+        //noinspection unchecked
+        return item == NOT_HELD ? defaultValue : (T) OffHeapArena.expose(item);
+    }
+
+    /**
+     * Wait for a resource without an observable. A held resource completes the future on the calling thread, otherwise
+     * the future is parked with the key's observers and completed on the store's delivery scheduler.
+     *
+     * @param callback the callback completed along with the future or null.
+     * @param timeUnit the unit of the timeout or null to wait until the future is cancelled.
+     * @param timeout  the time to wait for the resource to be held before failing with a {@link TimeoutException}.
+     */
+    <T> Future<T> awaitResourceWithKey(String key, ResourceCallback<? super T> callback, TimeUnit timeUnit,
+                                       long timeout) {
+        ResourceFuture<T> future = new ResourceFuture<>(this, key, callback);
+        if (_closed) {
+            future.complete();
+            return future;
+        }
+        Object item = getItem(key);
+        if (item == NOT_HELD) {
+            item = getItemOrAddWaiter(future, null);
+        }
+        recordLookup(item != NOT_HELD);
+        if (item == NOT_HELD && _closed) {
+            // closed while parking
+            future.complete();
+        } else if (item == NOT_HELD) {
+            if (timeUnit != null) {
+                scheduleWaiterRemoval(future, timeUnit, timeout);
+            }
+        } else {
+            future.deliver(item);
+        }
+        return future;
+    }
+
+    private Stream streamFor(String key, int replaySize) {
+        Stream stream = _streams.get(key);
+        if (stream == null) {
+            Stream created = new Stream(replaySize);
+            stream = _streams.putIfAbsent(key, created);
+            if (stream == null) {
+                stream = created;
+                if (_closed && _streams.remove(key, created)) {
+                    // closed while opening
+                    created.complete();
+                }
+            }
+        }
+        return stream;
+    }
+
+    /**
+     * Open a stream that replays a number of its most recent values to new observers.
+     *
+     * @return false if the stream was already open, its replay size is left as it was.
+     */
+    boolean openStream(String key, int replaySize) {
+        checkOpen();
+        if (replaySize < 0) {
+            throw new IllegalArgumentException("replaySize must not be negative");
+        }
+        Stream created = new Stream(replaySize);
+        if (_streams.putIfAbsent(key, created) != null) {
+            return false;
+        }
+        if (_closed && _streams.remove(key, created)) {
+            created.complete();
+        }
+        return true;
+    }
+
+    /**
+     * Publish a value to a stream, opening it with a replay of the latest value if it is not open.
+     */
+    void publish(String key, Object value) {
+        checkOpen();
+        streamFor(key, DEFAULT_STREAM_REPLAY_SIZE).publish(value);
+    }
+
+    /**
+     * Complete a stream's observers and forget its values.
+     */
+    void closeStream(String key) {
+        Stream stream = _streams.remove(key);
+        if (stream != null) {
+            stream.complete();
+        }
+    }
+
+    /**
+     * Observe a stream, opening it with a replay of the latest value if it is not open.
+     *
+     * @return an observable emitting the replayed values and then every value published until the stream is closed.
+     */
+    <T> Observable<T> observeStream(final String key, final BackpressureStrategy strategy) {
+        Observable<Object> observable = Observable.create(new Observable.OnSubscribe<Object>() {
+            @Override
+            public void call(Subscriber<? super Object> subscriber) {
+                if (_closed) {
+                    subscriber.onError(new IllegalStateException("the store is closed"));
+                    return;
+                }
+                streamFor(key, DEFAULT_STREAM_REPLAY_SIZE).observe(strategy).unsafeSubscribe(subscriber);
+            }
+        });
+        //noinspection unchecked
+        return (Observable<T>) (Observable) observable;
+    }
+
+    long createHandle() {
+        return _handles.createHandle();
+    }
+
+    /**
+     * @param policy {@link RetainPolicy#TIMED} or {@link RetainPolicy#ONCE_OBSERVED}.
+     */
+    void holdWithHandle(long handle, Object item, RetainPolicy policy, TimeUnit timeUnit, long time) {
+        _handles.hold(handle, item, policy, timeUnit, time);
+    }
+
+    <T> T getResourceWithHandle(long handle) {
+        //noinspection unchecked
+        return (T) _handles.get(handle);
+    }
+
+    /**
+     * @param timeUnit the unit of the timeout or null to wait until the subscriber unsubscribes.
+     */
+    <T> Observable<T> observeResourceWithHandle(long handle, TimeUnit timeUnit, long timeout) {
+        //noinspection unchecked
+        return (Observable<T>) (Observable) _handles.observe(handle, null, timeUnit, timeout);
     }
 
     String createUniqueKey() {
-        return UUID.randomUUID().toString();
+        return _keyGenerator.createUniqueKey();
+    }
+
+    /**
+     * Bound the total weight of held resources, evicting the least recently read ones to stay within it. The weigher
+     * applies to resources held from now on.
+     *
+     * @param maximumWeight the maximum total weight.
+     * @param weigher       the weigher or null to weigh every resource as 1.
+     */
+    synchronized void setMaximumWeight(long maximumWeight, Weigher weigher) {
+        _weigher = weigher;
+        SegmentedLru evictionPolicy = _evictionPolicy;
+        if (evictionPolicy == null) {
+            evictionPolicy = new SegmentedLru(Long.MAX_VALUE);
+            _evictionPolicy = evictionPolicy;
+            for (Resource resource : _itemStore.values()) {
+                if (weigher != null) {
+                    resource._weight = weigh(weigher, resource._key, resource.value());
+                }
+                evictionPolicy.add(resource);
+            }
+        }
+        evict(evictionPolicy.setMaximumWeight(maximumWeight));
+    }
+
+    /**
+     * Estimate the heap retained by held resources. Resources already held are measured at once.
+     *
+     * @param sizer the sizer or null to stop measuring resources held from now on.
+     */
+    synchronized void setSizer(Sizer sizer) {
+        _sizer = sizer;
+        if (sizer != null) {
+            for (Resource resource : _itemStore.values()) {
+                if (resource.size() == 0) {
+                    long size = measure(sizer, resource._key, resource.value());
+                    // a resource removed meanwhile refuses the size
+                    if (resource.countSize(size)) {
+                        _retainedBytes.add(size);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the estimated bytes retained by held resources, 0 if no sizer was set.
+     */
+    long retainedBytes() {
+        return _retainedBytes.sum();
+    }
+
+    /**
+     * Evict timed and sliding resources, those closest to expiring first, until the estimated bytes freed reach the
+     * target. Resources held until observed or for a number of observations are left for their observers.
+     *
+     * @return the estimated bytes freed.
+     */
+    long purge(long bytesToFree) {
+        List<PurgeCandidate> candidates = new ArrayList<>();
+        for (Resource resource : _itemStore.values()) {
+            if (resource._retainPolicy == RetainPolicy.TIMED) {
+                candidates.add(new PurgeCandidate(resource, resource._expiresAt));
+            } else if (resource._retainPolicy == RetainPolicy.SLIDING) {
+                candidates.add(new PurgeCandidate(resource, resource.slidingExpiresAt()));
+            }
+        }
+        Collections.sort(candidates);
+        EvictionListener listener = _evictionListener;
+        StatsCounter stats = _stats;
+        long freed = 0;
+        for (int i = 0; i < candidates.size() && freed < bytesToFree; i++) {
+            Resource resource = candidates.get(i)._resource;
+            long size = resource.size();
+            if (_itemStore.remove(resource._key, resource)) {
+                removed(resource, RemovalCause.EVICTED);
+                freed += size;
+                if (stats != null) {
+                    stats._evictions.increment();
+                }
+                if (listener != null) {
+                    listener.onEvicted(resource._key, OffHeapArena.expose(resource.value()));
+                }
+            }
+        }
+        return freed;
+    }
+
+    /**
+     * Purge part of the store when the heap crosses its usage threshold.
+     */
+    void purgeForMemoryPressure() {
+        purge((long) (retainedBytes() * MEMORY_PRESSURE_PURGE_RATIO));
+    }
+
+    /**
+     * Purge the store whenever a heap pool's usage crosses a share of its maximum. Purges free the sizes estimated by
+     * the sizer that was set.
+     *
+     * @param threshold the share of a pool's maximum between 0 and 1, 0 to stop watching the heap.
+     * @throws IllegalStateException if the heap is to be watched and no sizer was set.
+     */
+    synchronized void setMemoryPressureThreshold(double threshold) {
+        if (threshold > 0) {
+            if (_sizer == null) {
+                throw new IllegalStateException("a sizer must be set to watch the heap");
+            }
+            MemoryPressureMonitor.instance().watch(this, threshold);
+            _purgeOnMemoryPressure = true;
+        } else if (_purgeOnMemoryPressure) {
+            // only a store that watched the heap loads the monitor
+            MemoryPressureMonitor.instance().unwatch(this);
+            _purgeOnMemoryPressure = false;
+        }
+    }
+
+    /**
+     * Enable or disable collecting stats. Disabling drops the counts collected so far, a disabled store only pays a
+     * null check at each point it would record.
+     */
+    synchronized void setStatsEnabled(boolean enabled) {
+        if (!enabled) {
+            _stats = null;
+        } else if (_stats == null) {
+            _stats = new StatsCounter();
+        }
+    }
+
+    /**
+     * @return a snapshot of the store's stats, only the current entry and waiter counts if stats are disabled.
+     */
+    EtherStats stats() {
+        long waiterCount = 0;
+        for (Set<Waiter> waiters : _subscriberHashMap.values()) {
+            waiterCount += waiters.size();
+        }
+        StatsCounter stats = _stats;
+        if (stats == null) {
+            stats = new StatsCounter();
+        }
+        return stats.snapshot(_itemStore.size(), _subscriberHashMap.size(), waiterCount);
+    }
+
+    /**
+     * @return an observable emitting a snapshot of the store's stats every period.
+     */
+    Observable<EtherStats> observeStats(long period, TimeUnit timeUnit) {
+        return Observable.interval(period, timeUnit).map(new Func1<Long, EtherStats>() {
+            @Override
+            public EtherStats call(Long ignored) {
+                return stats();
+            }
+        });
+    }
+
+    void setEvictionListener(EvictionListener listener) {
+        _evictionListener = listener;
+    }
+
+    /**
+     * @param executor the executor removals are reported on or null for a shared pool of daemon threads.
+     */
+    void setRemovalListener(RemovalListener listener, Executor executor) {
+        _removalFeed = listener == null
+                ? null : new RemovalFeed(listener, executor == null ? DefaultRemovalExecutor.INSTANCE : executor);
+    }
+
+    void setDeliveryScheduler(Scheduler scheduler) {
+        _deliveryScheduler = scheduler;
+    }
+
+    void setLoadExecutor(Executor executor) {
+        _loadExecutor = executor;
+    }
+
+    void setKeyGenerator(KeyGenerator keyGenerator) {
+        _keyGenerator = keyGenerator == null ? new SequentialKeyGenerator() : keyGenerator;
+    }
+
+    /**
+     * A resource ordered by the deadline it had when the purge started, which for a sliding resource keeps moving.
+     */
+    private static final class PurgeCandidate implements Comparable<PurgeCandidate> {
+        final Resource _resource;
+        final long _expiresAt;
+
+        PurgeCandidate(Resource resource, long expiresAt) {
+            _resource = resource;
+            _expiresAt = expiresAt;
+        }
+
+        @Override
+        public int compareTo(PurgeCandidate other) {
+            return _expiresAt < other._expiresAt ? -1 : (_expiresAt == other._expiresAt ? 0 : 1);
+        }
+    }
+
+    /**
+     * A load in flight and the waiters that joined it.
+     */
+    static final class Load {
+        // guarded by this
+        final List<Waiter> _waiters = new ArrayList<>();
+        boolean _done;
+    }
+
+    /**
+     * @return a pool of daemon threads named with the prefix.
+     */
+    private static Executor newDaemonPool(final String name) {
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger _count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + _count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Runs loads when no executor is set, created on first use so stores that never load start no threads.
+     */
+    private static final class DefaultLoadExecutor {
+        static final Executor INSTANCE = newDaemonPool("ether-loader");
+    }
+
+    /**
+     * Reports removals when no executor is set, created on first use like the {@link DefaultLoadExecutor}.
+     */
+    private static final class DefaultRemovalExecutor {
+        static final Executor INSTANCE = newDaemonPool("ether-removal");
+    }
+
+    /**
+     * The outcome of adding a resource under its key's lock, acted on once the lock is released.
+     */
+    private static final class Addition {
+        final Resource _resource;
+        final Object _item;
+        int _stripe;
+        boolean _stored;
+        Resource _previous;
+        Set<Waiter> _waiters;
+        boolean _reheld;
+        SnapshotLog.Entry _entry;
+        SnapshotLog _log;
+        long _size;
+
+        Addition(Resource resource, Object item) {
+            _resource = resource;
+            _item = item;
+        }
     }
 }
@@ -0,0 +1,461 @@
+package com.willkamp.ether;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.subscriptions.Subscriptions;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A member of a cluster of stores sharing resources across processes.
+ * <p>
+ * Keys are partitioned over the members with consistent hashing. Holding a resource sends it to the member that owns
+ * its key and observing a key registers a waiter with that member, which sends the resource back once it is held
+ * there. Resources held or observed with a key the local member owns never leave the process, resources handed to
+ * another member must be serializable and are received as copies.
+ * <p>
+ * Every member must be given the same members. Observations waiting when the members change stay with the member
+ * that owned the key before. Frames from nodes that are not members are dropped, and the observations a member waits
+ * for with another are dropped once its transport reports it disconnected.
+ * <p>
+ * Resources are only deserialized if their classes, and the classes of everything they reference, are allowed.
+ * Strings, boxed primitives, arrays of them and the common {@code java.util} collections are allowed by default, other
+ * classes must be allowed with {@link #allowClass(Class)} or {@link #allowPackage(String)} on every member.
+ */
+@SuppressWarnings("WeakerAccess")
+public class EtherNode implements Closeable {
+
+    private static final byte HOLD = 1;
+    private static final byte OBSERVE = 2;
+    private static final byte CANCEL = 3;
+    private static final byte DELIVER = 4;
+    private static final byte COMPLETE = 5;
+    private static final byte FAIL = 6;
+    private static final Set<String> DEFAULT_ALLOWED_CLASSES = new HashSet<>(Arrays.asList(
+            "java.lang.String", "java.lang.Number", "java.lang.Boolean", "java.lang.Character", "java.lang.Byte",
+            "java.lang.Short", "java.lang.Integer", "java.lang.Long", "java.lang.Float", "java.lang.Double",
+            "java.lang.Enum", "java.math.BigInteger", "java.math.BigDecimal", "java.util.Date", "java.util.UUID",
+            "java.util.ArrayList", "java.util.LinkedList", "java.util.ArrayDeque", "java.util.HashMap",
+            "java.util.LinkedHashMap", "java.util.TreeMap", "java.util.HashSet", "java.util.LinkedHashSet",
+            "java.util.TreeSet"));
+
+    private final String _nodeId;
+    private final EtherStore _store;
+    private final Transport _transport;
+    private volatile ConsistentHashRing _ring;
+    private volatile Set<String> _members;
+    private final Set<String> _allowedClasses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> _allowedPackages = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicLong _nextObservation = new AtomicLong();
+    // observations this member sent to owners, by id
+    private final ConcurrentHashMap<Long, Subscriber<? super Object>> _pendingObservations = new ConcurrentHashMap<>();
+    // observations of the keys this member owns sent by other members, by member and id
+    private final ConcurrentHashMap<String, RemoteObservation> _remoteObservations = new ConcurrentHashMap<>();
+
+    /**
+     * Start a member that is the only member until {@link #setMembers(Collection)} is called.
+     *
+     * @param nodeId    the member's id, unique within the cluster.
+     * @param store     the store holding the resources of the keys this member owns.
+     * @param transport the transport to reach the other members through.
+     * @throws IOException if the transport can not start.
+     */
+    public EtherNode(String nodeId, EtherStore store, Transport transport) throws IOException {
+        _nodeId = nodeId;
+        _store = store;
+        _transport = transport;
+        _ring = new ConsistentHashRing(Collections.singleton(nodeId));
+        _members = Collections.singleton(nodeId);
+        transport.start(nodeId, new Transport.Receiver() {
+            @Override
+            public void receive(String fromNode, byte[] frame) {
+                try {
+                    EtherNode.this.receive(fromNode, frame);
+                } catch (IOException e) {
+                    Thread currentThread = Thread.currentThread();
+                    currentThread.getUncaughtExceptionHandler().uncaughtException(currentThread, e);
+                }
+            }
+
+            @Override
+            public void disconnected(String fromNode) {
+                dropRemoteObservations(fromNode);
+            }
+        });
+    }
+
+    /**
+     * Set the members keys are partitioned over. Frames are only accepted from members.
+     *
+     * @param nodeIds the ids of every member, including this one.
+     */
+    public void setMembers(Collection<String> nodeIds) {
+        _members = Collections.unmodifiableSet(new HashSet<>(nodeIds));
+        _ring = new ConsistentHashRing(nodeIds);
+    }
+
+    /**
+     * Allow resources of a class to be received from other members.
+     *
+     * @param type the class, its serializable superclasses must be allowed as well.
+     */
+    public void allowClass(Class<?> type) {
+        _allowedClasses.add(type.getName());
+    }
+
+    /**
+     * Allow resources of every class in a package, not including its subpackages, to be received from other members.
+     *
+     * @param packageName the package's name.
+     */
+    public void allowPackage(String packageName) {
+        _allowedPackages.add(packageName);
+    }
+
+    /**
+     * @param key a key.
+     * @return the id of the member that owns the key.
+     */
+    public String getOwner(String key) {
+        return _ring.ownerOf(key);
+    }
+
+    /**
+     * Store an object with the member owning its key for a default (10 seconds) length of time.
+     *
+     * @param key      the key to store the item.
+     * @param resource the item to store.
+     */
+    public void hold(String key, Object resource) {
+        holdFor(key, resource, EtherImpl.DEFAULT_RETAIN_TIME_SECONDS);
+    }
+
+    /**
+     * Store an object with the member owning its key for a specified amount of time.
+     *
+     * @param key      the key to store the item.
+     * @param resource the item to store.
+     * @param seconds  the amount of time in seconds.
+     */
+    public void holdFor(String key, Object resource, int seconds) {
+        String owner = getOwner(key);
+        if (owner.equals(_nodeId)) {
+            _store.holdFor(key, resource, seconds);
+        } else {
+            sendHold(owner, key, RetainPolicy.TIMED, seconds, resource);
+        }
+    }
+
+    /**
+     * Store an object with the member owning its key until it is observed at least once.
+     *
+     * @param key      the key to store the item.
+     * @param resource the item to store.
+     */
+    public void holdUntilObserved(String key, Object resource) {
+        String owner = getOwner(key);
+        if (owner.equals(_nodeId)) {
+            _store.holdUntilObserved(key, resource);
+        } else {
+            sendHold(owner, key, RetainPolicy.ONCE_OBSERVED, 0, resource);
+        }
+    }
+
+    /**
+     * Observe a held item with a particular key, wherever in the cluster it is held.
+     *
+     * @param key the item's key.
+     * @param <T> the item's type.
+     * @return an observable that emits the item.
+     */
+    public <T> Observable<T> getResourceObservable(final String key) {
+        Observable<Object> observable = Observable.create(new Observable.OnSubscribe<Object>() {
+            @Override
+            public void call(Subscriber<? super Object> subscriber) {
+                final String owner = getOwner(key);
+                if (owner.equals(_nodeId)) {
+                    _store.getResourceObservable(key).unsafeSubscribe(subscriber);
+                    return;
+                }
+                final long id = _nextObservation.incrementAndGet();
+                _pendingObservations.put(id, subscriber);
+                // the owner drops its waiter once this one unsubscribes
+                subscriber.add(Subscriptions.create(new Action0() {
+                    @Override
+                    public void call() {
+                        if (_pendingObservations.remove(id) != null) {
+                            send(owner, frame(CANCEL, id));
+                        }
+                    }
+                }));
+                send(owner, frame(OBSERVE, id, key));
+            }
+        });
+        //noinspection unchecked
+        return (Observable<T>) (Observable) observable;
+    }
+
+    /**
+     * Leave the cluster. Observations waiting on other members complete without an item and the waiters other members
+     * registered here are dropped. The store is left open.
+     *
+     * @throws IOException if the transport fails to close.
+     */
+    @Override
+    public void close() throws IOException {
+        _transport.close();
+        for (Long id : _pendingObservations.keySet()) {
+            Subscriber<? super Object> subscriber = _pendingObservations.remove(id);
+            if (subscriber != null) {
+                subscriber.onCompleted();
+            }
+        }
+        for (String observation : _remoteObservations.keySet()) {
+            Subscriber<Object> subscriber = _remoteObservations.remove(observation);
+            if (subscriber != null) {
+                subscriber.unsubscribe();
+            }
+        }
+    }
+
+    /**
+     * Drop the waiters a member that went away registered here. Should it still be waiting its observations fail.
+     */
+    private void dropRemoteObservations(String fromNode) {
+        for (RemoteObservation observation : _remoteObservations.values()) {
+            if (observation._fromNode.equals(fromNode)
+                    && _remoteObservations.remove(observation._observation, observation)) {
+                observation.unsubscribe();
+                send(fromNode, frame(FAIL, observation._id, "the connection from " + fromNode + " closed"));
+            }
+        }
+    }
+
+    private void sendHold(String owner, String key, RetainPolicy policy, int seconds, Object resource) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(HOLD);
+            out.writeUTF(key);
+            out.writeByte(policy.ordinal());
+            out.writeInt(seconds);
+            out.write(serialize(resource));
+            send(owner, bytes.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("the resource can not be serialized", e);
+        }
+    }
+
+    private void send(String node, byte[] frame) {
+        _transport.send(node, frame);
+    }
+
+    private void receive(final String fromNode, byte[] frame) throws IOException {
+        if (!_members.contains(fromNode)) {
+            throw new IOException("dropped a frame from " + fromNode + ", which is not a member");
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+        byte type = in.readByte();
+        switch (type) {
+            case HOLD: {
+                String key = in.readUTF();
+                byte ordinal = in.readByte();
+                if (ordinal != RetainPolicy.TIMED.ordinal() && ordinal != RetainPolicy.ONCE_OBSERVED.ordinal()) {
+                    throw new IOException("unknown retain policy " + ordinal + " from " + fromNode);
+                }
+                RetainPolicy policy = RetainPolicy.values()[ordinal];
+                int seconds = in.readInt();
+                Object resource = deserialize(in);
+                if (policy == RetainPolicy.ONCE_OBSERVED) {
+                    _store.holdUntilObserved(key, resource);
+                } else {
+                    _store.holdFor(key, resource, seconds);
+                }
+                break;
+            }
+            case OBSERVE: {
+                final long id = in.readLong();
+                String key = in.readUTF();
+                observeForRemote(fromNode, id, key);
+                break;
+            }
+            case CANCEL: {
+                Subscriber<Object> subscriber = _remoteObservations.remove(fromNode + ":" + in.readLong());
+                if (subscriber != null) {
+                    subscriber.unsubscribe();
+                }
+                break;
+            }
+            case DELIVER: {
+                Subscriber<? super Object> subscriber = _pendingObservations.remove(in.readLong());
+                if (subscriber != null) {
+                    Object resource;
+                    try {
+                        resource = deserialize(in);
+                    } catch (IOException e) {
+                        subscriber.onError(e);
+                        break;
+                    }
+                    subscriber.onNext(resource);
+                    subscriber.onCompleted();
+                }
+                break;
+            }
+            case COMPLETE: {
+                Subscriber<? super Object> subscriber = _pendingObservations.remove(in.readLong());
+                if (subscriber != null) {
+                    subscriber.onCompleted();
+                }
+                break;
+            }
+            case FAIL: {
+                Subscriber<? super Object> subscriber = _pendingObservations.remove(in.readLong());
+                if (subscriber != null) {
+                    subscriber.onError(new IllegalStateException(in.readUTF()));
+                }
+                break;
+            }
+            default:
+                throw new IOException("unknown frame type " + type + " from " + fromNode);
+        }
+    }
+
+    /**
+     * Wait for a key this member owns on behalf of another member and send it the item once it is held.
+     */
+    private void observeForRemote(String fromNode, long id, String key) {
+        RemoteObservation observation = new RemoteObservation(fromNode, id);
+        // registered before subscribing, an item that is already held is sent during the subscribe
+        _remoteObservations.put(observation._observation, observation);
+        _store.getResourceObservable(key).subscribe(observation);
+    }
+
+    /**
+     * An observation of a key this member owns, on behalf of another member.
+     */
+    private final class RemoteObservation extends Subscriber<Object> {
+        final String _fromNode;
+        final long _id;
+        final String _observation;
+        private boolean _delivered;
+
+        RemoteObservation(String fromNode, long id) {
+            _fromNode = fromNode;
+            _id = id;
+            _observation = fromNode + ":" + id;
+        }
+
+        @Override
+        public void onCompleted() {
+            if (_remoteObservations.remove(_observation, this) && !_delivered) {
+                send(_fromNode, frame(COMPLETE, _id));
+            }
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            if (_remoteObservations.remove(_observation, this)) {
+                send(_fromNode, frame(FAIL, _id, String.valueOf(e.getMessage())));
+            }
+        }
+
+        @Override
+        public void onNext(Object resource) {
+            _delivered = true;
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeByte(DELIVER);
+                out.writeLong(_id);
+                out.write(serialize(resource));
+                send(_fromNode, bytes.toByteArray());
+            } catch (IOException e) {
+                send(_fromNode, frame(FAIL, _id, "the resource can not be serialized: " + e));
+            }
+        }
+    }
+
+    private static byte[] frame(byte type, long id) {
+        return frame(type, id, null);
+    }
+
+    private static byte[] frame(byte type, long id, String text) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(type);
+            out.writeLong(id);
+            if (text != null) {
+                out.writeUTF(text);
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // a byte array stream does not fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] serialize(Object resource) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(resource);
+        }
+        return bytes.toByteArray();
+    }
+
+    private Object deserialize(InputStream in) throws IOException {
+        try (ObjectInputStream objectIn = new AllowListObjectInputStream(in)) {
+            return objectIn.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private boolean isAllowed(String className) {
+        int dot = className.lastIndexOf('.');
+        return DEFAULT_ALLOWED_CLASSES.contains(className) || _allowedClasses.contains(className)
+                || (dot > 0 && _allowedPackages.contains(className.substring(0, dot)));
+    }
+
+    /**
+     * Refuses to resolve any class that is not allowed, before any of its code can run.
+     */
+    private final class AllowListObjectInputStream extends ObjectInputStream {
+
+        AllowListObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass description) throws IOException, ClassNotFoundException {
+            String name = description.getName();
+            // an array is allowed if its element type is, "[[Ljava.lang.String;" or "[I"
+            String elementName = name.replaceFirst("^\\[+", "");
+            boolean allowed;
+            if (elementName.length() == name.length()) {
+                allowed = isAllowed(name);
+            } else if (elementName.startsWith("L") && elementName.endsWith(";")) {
+                allowed = isAllowed(elementName.substring(1, elementName.length() - 1));
+            } else {
+                allowed = elementName.length() == 1;
+            }
+            if (!allowed) {
+                throw new InvalidClassException(name, "not allowed to be received from another member");
+            }
+            return super.resolveClass(description);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+            throw new InvalidClassException("proxies are not allowed to be received from another member");
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.willkamp.ether;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time snapshot of a store's statistics. Counts accumulate from the moment stats were enabled.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class EtherStats {
+
+    private final long _holdCount;
+    private final long _hitCount;
+    private final long _missCount;
+    private final long _expirationCount;
+    private final long _evictionCount;
+    private final long _collectionCount;
+    private final long _waiterTimeoutCount;
+    private final long _entryCount;
+    private final long _waitingKeyCount;
+    private final long _waiterCount;
+    private final Latency _lockHoldLatency;
+    private final Latency _deliveryLatency;
+
+    EtherStats(long holdCount, long hitCount, long missCount, long expirationCount, long evictionCount,
+               long collectionCount, long waiterTimeoutCount, long entryCount, long waitingKeyCount, long waiterCount,
+               Latency lockHoldLatency, Latency deliveryLatency) {
+        _holdCount = holdCount;
+        _hitCount = hitCount;
+        _missCount = missCount;
+        _expirationCount = expirationCount;
+        _evictionCount = evictionCount;
+        _collectionCount = collectionCount;
+        _waiterTimeoutCount = waiterTimeoutCount;
+        _entryCount = entryCount;
+        _waitingKeyCount = waitingKeyCount;
+        _waiterCount = waiterCount;
+        _lockHoldLatency = lockHoldLatency;
+        _deliveryLatency = deliveryLatency;
+    }
+
+    /**
+     * @return the number of resources held.
+     */
+    public long getHoldCount() {
+        return _holdCount;
+    }
+
+    /**
+     * @return the number of fetches and observations that found their resource held.
+     */
+    public long getHitCount() {
+        return _hitCount;
+    }
+
+    /**
+     * @return the number of fetches and observations that did not find their resource held.
+     */
+    public long getMissCount() {
+        return _missCount;
+    }
+
+    /**
+     * @return the ratio of hits to lookups or 1 if there were no lookups.
+     */
+    public double getHitRate() {
+        long lookups = _hitCount + _missCount;
+        return lookups == 0 ? 1.0 : (double) _hitCount / lookups;
+    }
+
+    /**
+     * @return the number of timed resources removed because their time expired.
+     */
+    public long getExpirationCount() {
+        return _expirationCount;
+    }
+
+    /**
+     * @return the number of resources evicted to stay within the maximum size or weight.
+     */
+    public long getEvictionCount() {
+        return _evictionCount;
+    }
+
+    /**
+     * @return the number of softly or weakly held resources removed after the garbage collector reclaimed them.
+     */
+    public long getCollectionCount() {
+        return _collectionCount;
+    }
+
+    /**
+     * @return the number of waiting observers that timed out.
+     */
+    public long getWaiterTimeoutCount() {
+        return _waiterTimeoutCount;
+    }
+
+    /**
+     * @return the number of resources currently held.
+     */
+    public long getEntryCount() {
+        return _entryCount;
+    }
+
+    /**
+     * @return the number of keys that currently have observers waiting for them.
+     */
+    public long getWaitingKeyCount() {
+        return _waitingKeyCount;
+    }
+
+    /**
+     * @return the number of observers currently waiting for a resource.
+     */
+    public long getWaiterCount() {
+        return _waiterCount;
+    }
+
+    /**
+     * @return how long holds keep their key's lock, from taking it to releasing it, not counting the wait for it.
+     */
+    public Latency getLockHoldLatency() {
+        return _lockHoldLatency;
+    }
+
+    /**
+     * @return the time from a hold until a waiting observer receives the resource.
+     */
+    public Latency getDeliveryLatency() {
+        return _deliveryLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "EtherStats{holds=" + _holdCount + ", hits=" + _hitCount + ", misses=" + _missCount
+                + ", expirations=" + _expirationCount + ", evictions=" + _evictionCount
+                + ", collections=" + _collectionCount + ", waiterTimeouts=" + _waiterTimeoutCount
+                + ", entries=" + _entryCount + ", waitingKeys=" + _waitingKeyCount + ", waiters=" + _waiterCount
+                + ", lockHold=" + _lockHoldLatency + ", delivery=" + _deliveryLatency + "}";
+    }
+
+    /**
+     * A distribution of durations recorded in power of two buckets, so percentiles are accurate to within a factor
+     * of two.
+     */
+    public static final class Latency {
+        private final long[] _bucketCounts;
+        private final long _count;
+        private final long _totalNanos;
+        private final long _maxNanos;
+
+        Latency(long[] bucketCounts, long totalNanos, long maxNanos) {
+            long count = 0;
+            for (long bucketCount : bucketCounts) {
+                count += bucketCount;
+            }
+            _bucketCounts = bucketCounts;
+            _count = count;
+            _totalNanos = totalNanos;
+            _maxNanos = maxNanos;
+        }
+
+        /**
+         * @return the number of recorded durations.
+         */
+        public long getCount() {
+            return _count;
+        }
+
+        /**
+         * @param unit the unit of the result.
+         * @return the mean duration.
+         */
+        public double getMean(TimeUnit unit) {
+            return _count == 0 ? 0 : (double) _totalNanos / _count / unit.toNanos(1);
+        }
+
+        /**
+         * @param unit the unit of the result.
+         * @return the longest duration.
+         */
+        public double getMax(TimeUnit unit) {
+            return (double) _maxNanos / unit.toNanos(1);
+        }
+
+        /**
+         * @param percentile the percentile between 0 and 100.
+         * @param unit       the unit of the result.
+         * @return the upper bound of the bucket the percentile falls in.
+         */
+        public double getPercentile(double percentile, TimeUnit unit) {
+            long rank = (long) Math.ceil(percentile / 100.0 * _count);
+            long seen = 0;
+            for (int bucket = 0; bucket < _bucketCounts.length; bucket++) {
+                seen += _bucketCounts[bucket];
+                if (seen >= rank && seen > 0) {
+                    long upperBound = bucket == 0 ? 0 : (1L << bucket) - 1;
+                    return (double) Math.min(upperBound, _maxNanos) / unit.toNanos(1);
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "{count=" + _count + ", meanMicros=" + getMean(TimeUnit.MICROSECONDS)
+                    + ", p99Micros=" + getPercentile(99, TimeUnit.MICROSECONDS)
+                    + ", maxMicros=" + getMax(TimeUnit.MICROSECONDS) + "}";
+        }
+    }
+}
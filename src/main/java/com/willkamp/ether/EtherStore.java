@@ -0,0 +1,874 @@
+package com.willkamp.ether;
+
+import rx.Observable;
+import rx.Scheduler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An independent store of resources with the same API as {@link Ether}. Stores do not share entries, waiting
+ * observers or locks with each other or with {@link Ether}.
+ * <p>
+ * A store can open named scopes, which are stores of their own. Closing a scope drops everything held in it and
+ * completes its waiting observers at once, without touching the entries of its parent.
+ */
+@SuppressWarnings("WeakerAccess")
+public class EtherStore {
+
+    final EtherImpl _impl;
+    private final EtherStore _parent;
+    private final String _name;
+    private final ConcurrentHashMap<String, EtherStore> _scopes = new ConcurrentHashMap<>();
+
+    /**
+     * Create a new empty store.
+     */
+    public EtherStore() {
+        this(new EtherImpl(), null, null);
+    }
+
+    /**
+     * Create a new empty store that keeps time with a scheduler. Timed resources and observer timeouts expire on the
+     * scheduler as its {@link Scheduler#now()} advances, so a {@link rx.schedulers.TestScheduler} runs them in
+     * virtual time. Scopes of the store share its scheduler.
+     *
+     * @param scheduler the scheduler that drives expiry.
+     */
+    public EtherStore(Scheduler scheduler) {
+        this(new EtherImpl(scheduler), null, null);
+    }
+
+    EtherStore(EtherImpl impl, EtherStore parent, String name) {
+        _impl = impl;
+        _parent = parent;
+        _name = name;
+    }
+
+    /**
+     * Get the scope with a name, opening it if it is not already open.
+     *
+     * @param name the scope's name.
+     * @return the scope.
+     * @throws IllegalStateException if this store is closed.
+     */
+    public EtherStore scope(String name) {
+        EtherStore scope = _scopes.get(name);
+        if (scope == null) {
+            if (_impl.isClosed()) {
+                throw new IllegalStateException("the store is closed");
+            }
+            EtherStore created = new EtherStore(new EtherImpl(_impl._expiryWheel), this, name);
+            scope = _scopes.putIfAbsent(name, created);
+            if (scope == null) {
+                scope = created;
+            }
+        }
+        return scope;
+    }
+
+    /**
+     * Close this store and all of its scopes. Every held resource is dropped, observers still waiting for a
+     * resource complete without receiving one and streams are closed. Holding or observing resources afterwards fails
+     * with an {@link IllegalStateException}.
+     */
+    public void close() {
+        if (_parent != null) {
+            _parent._scopes.remove(_name, this);
+        }
+        _impl.close();
+        for (EtherStore scope : _scopes.values()) {
+            scope.close();
+        }
+    }
+
+    /**
+     * @return true if this store has been closed.
+     */
+    public boolean isClosed() {
+        return _impl.isClosed();
+    }
+
+    /**
+     * Drop every held resource while keeping the store open. Observers and futures still waiting for a resource fail
+     * with an {@link IllegalStateException}.
+     */
+    public void flush() {
+        _impl.flush();
+    }
+
+    /**
+     * Store an object that can be observed for a default (10 seconds) length of time.
+     *
+     * @param resource the item to store.
+     * @return the key to later fetch the item.
+     */
+    public String hold(Object resource) {
+        return _impl.hold(resource);
+    }
+
+    /**
+     * Store an object that can be observed for a default (10 seconds) length of time.
+     *
+     * @param key      the key to to store the item.
+     * @param resource the item to store.
+     */
+    public void hold(String key, Object resource) {
+        _impl.hold(key, resource);
+    }
+
+    /**
+     * Store an object that can be observed for a specified amount of time.
+     *
+     * @param resource the item to store.
+     * @param seconds  the amount of time in seconds.
+     * @return the key to later fetch the item.
+     */
+    public String holdFor(Object resource, int seconds) {
+        return _impl.holdForTime(resource, TimeUnit.SECONDS, seconds);
+    }
+
+    /**
+     * Store an object that can be observed for a specified amount of time.
+     *
+     * @param key      the key to to store the item.
+     * @param resource the item to store.
+     * @param seconds  the amount of time in seconds.
+     */
+    public void holdFor(String key, Object resource, int seconds) {
+        _impl.holdForTime(key, resource, TimeUnit.SECONDS, seconds);
+    }
+
+    /**
+     * Store an object that can be observed until it goes unfetched and unobserved for a specified amount of time. Each
+     * fetch or observation extends its life.
+     *
+     * @param resource    the item to store.
+     * @param idleSeconds the amount of time in seconds since it was last accessed.
+     * @return the key to later fetch the item.
+     */
+    public String holdWhileAccessed(Object resource, int idleSeconds) {
+        return _impl.holdWhileAccessed(resource, TimeUnit.SECONDS, idleSeconds, 0);
+    }
+
+    /**
+     * Store an object that can be observed until it goes unfetched and unobserved for a specified amount of time. Each
+     * fetch or observation extends its life.
+     *
+     * @param key         the key to to store the item.
+     * @param resource    the item to store.
+     * @param idleSeconds the amount of time in seconds since it was last accessed.
+     */
+    public void holdWhileAccessed(String key, Object resource, int idleSeconds) {
+        _impl.holdWhileAccessed(key, resource, TimeUnit.SECONDS, idleSeconds, 0);
+    }
+
+    /**
+     * Store an object that can be observed until it goes unfetched and unobserved for a specified amount of time, or
+     * until a maximum amount of time passed however often it is accessed.
+     *
+     * @param key         the key to to store the item.
+     * @param resource    the item to store.
+     * @param idleSeconds the amount of time in seconds since it was last accessed.
+     * @param maxSeconds  the maximum amount of time in seconds since it was stored.
+     */
+    public void holdWhileAccessed(String key, Object resource, int idleSeconds, int maxSeconds) {
+        _impl.holdWhileAccessed(key, resource, TimeUnit.SECONDS, idleSeconds, maxSeconds);
+    }
+
+    /**
+     * Store an object that can be observed until it is observed at least once.
+     *
+     * @param resource the item to store.
+     * @return the key to later fetch the item.
+     */
+    public String holdUntilObserved(Object resource) {
+        return _impl.holdUntilObserved(resource);
+    }
+
+    /**
+     * Store an object that can be observed until it is observed at least once.
+     *
+     * @param key      the key to store the item.
+     * @param resource the item to store.
+     */
+    public void holdUntilObserved(String key, Object resource) {
+        _impl.holdUntilObserved(key, resource);
+    }
+
+    /**
+     * Store an object that can be observed a specified number of times. Each fetch and each delivery to a waiting
+     * observer counts, the item is removed as soon as the last one happens. Observers waiting when it is held beyond
+     * that number keep waiting. The item is not removed on a timer, one that is never observed that often stays held.
+     *
+     * @param resource     the item to store.
+     * @param observations the number of observations, at least 1.
+     * @return the key to later fetch the item.
+     */
+    public String holdForObservations(Object resource, int observations) {
+        return _impl.holdForObservations(resource, observations);
+    }
+
+    /**
+     * Store an object that can be observed a specified number of times. Each fetch and each delivery to a waiting
+     * observer counts, the item is removed as soon as the last one happens.
+     *
+     * @param key          the key to store the item.
+     * @param resource     the item to store.
+     * @param observations the number of observations, at least 1.
+     */
+    public void holdForObservations(String key, Object resource, int observations) {
+        _impl.holdForObservations(key, resource, observations);
+    }
+
+    /**
+     * Store many objects that can be observed for a default (10 seconds) length of time.
+     *
+     * @param resources the items to store by their keys.
+     */
+    public void holdAll(Map<String, ?> resources) {
+        _impl.holdAll(resources);
+    }
+
+    /**
+     * Store many objects that can be observed for a specified amount of time.
+     *
+     * @param resources the items to store by their keys.
+     * @param seconds   the amount of time in seconds.
+     */
+    public void holdAllFor(Map<String, ?> resources, int seconds) {
+        _impl.holdAllForTime(resources, TimeUnit.SECONDS, seconds);
+    }
+
+    /**
+     * Store many objects that can each be observed until they are observed at least once.
+     *
+     * @param resources the items to store by their keys.
+     */
+    public void holdAllUntilObserved(Map<String, ?> resources) {
+        _impl.holdAllUntilObserved(resources);
+    }
+
+    /**
+     * Store an object through a {@link java.lang.ref.SoftReference}.
+     *
+     * @param resource the item to store.
+     * @return the key to later fetch the item.
+     */
+    public String holdSoftly(Object resource) {
+        return _impl.holdReferenced(resource, RetainPolicy.SOFT);
+    }
+
+    /**
+     * Store an object through a {@link java.lang.ref.SoftReference}.
+     *
+     * @param key      the key to store the item.
+     * @param resource the item to store.
+     */
+    public void holdSoftly(String key, Object resource) {
+        _impl.holdReferenced(key, resource, RetainPolicy.SOFT);
+    }
+
+    /**
+     * Store an object through a {@link java.lang.ref.WeakReference}.
+     *
+     * @param resource the item to store.
+     * @return the key to later fetch the item.
+     */
+    public String holdWeakly(Object resource) {
+        return _impl.holdReferenced(resource, RetainPolicy.WEAK);
+    }
+
+    /**
+     * Store an object through a {@link java.lang.ref.WeakReference}.
+     *
+     * @param key      the key to store the item.
+     * @param resource the item to store.
+     */
+    public void holdWeakly(String key, Object resource) {
+        _impl.holdReferenced(key, resource, RetainPolicy.WEAK);
+    }
+
+    /**
+     * Store a copy of a binary payload off the Java heap for a default (10 seconds) length of time. Observers receive
+     * read-only views of the copy, so large payloads neither weigh on the garbage collector nor are copied again.
+     *
+     * @param payload the bytes between the payload's position and limit are stored.
+     * @return the key to later fetch the item.
+     */
+    public String holdBuffer(ByteBuffer payload) {
+        return _impl.holdBuffer(payload, RetainPolicy.TIMED, TimeUnit.SECONDS,
+                EtherImpl.DEFAULT_RETAIN_TIME_SECONDS);
+    }
+
+    /**
+     * Store a copy of a binary payload off the Java heap for a default (10 seconds) length of time.
+     *
+     * @param key     the key to store the item.
+     * @param payload the bytes between the payload's position and limit are stored.
+     */
+    public void holdBuffer(String key, ByteBuffer payload) {
+        _impl.holdBuffer(key, payload, RetainPolicy.TIMED, TimeUnit.SECONDS,
+                EtherImpl.DEFAULT_RETAIN_TIME_SECONDS);
+    }
+
+    /**
+     * Store a copy of a binary payload off the Java heap for a specified amount of time.
+     *
+     * @param payload the bytes between the payload's position and limit are stored.
+     * @param seconds the amount of time in seconds.
+     * @return the key to later fetch the item.
+     */
+    public String holdBufferFor(ByteBuffer payload, int seconds) {
+        return _impl.holdBuffer(payload, RetainPolicy.TIMED, TimeUnit.SECONDS, seconds);
+    }
+
+    /**
+     * Store a copy of a binary payload off the Java heap for a specified amount of time.
+     *
+     * @param key     the key to store the item.
+     * @param payload the bytes between the payload's position and limit are stored.
+     * @param seconds the amount of time in seconds.
+     */
+    public void holdBufferFor(String key, ByteBuffer payload, int seconds) {
+        _impl.holdBuffer(key, payload, RetainPolicy.TIMED, TimeUnit.SECONDS, seconds);
+    }
+
+    /**
+     * Store a copy of a binary payload off the Java heap until it is observed at least once.
+     *
+     * @param payload the bytes between the payload's position and limit are stored.
+     * @return the key to later fetch the item.
+     */
+    public String holdBufferUntilObserved(ByteBuffer payload) {
+        return _impl.holdBuffer(payload, RetainPolicy.ONCE_OBSERVED, TimeUnit.SECONDS, 0);
+    }
+
+    /**
+     * Store a copy of a binary payload off the Java heap until it is observed at least once.
+     *
+     * @param key     the key to store the item.
+     * @param payload the bytes between the payload's position and limit are stored.
+     */
+    public void holdBufferUntilObserved(String key, ByteBuffer payload) {
+        _impl.holdBuffer(key, payload, RetainPolicy.ONCE_OBSERVED, TimeUnit.SECONDS, 0);
+    }
+
+    /**
+     * Choose where binary payloads held from now on are stored. By default they are stored in 1 MiB slabs of direct
+     * buffers. Payloads already held stay where they are.
+     * <p>
+     * Slab space is used once and never returned for reuse, so the views observers were given stay valid: a slab is
+     * only let go once it is full and every payload in it was removed, and its memory is freed when the garbage
+     * collector reclaims the last view of it. A payload held for long keeps its whole slab.
+     *
+     * @param directory the directory to create memory mapped slab files in or null for direct buffers.
+     * @param slabSize  the size of a slab in bytes, larger payloads get a slab of their own.
+     */
+    public void setOffHeapStorage(File directory, int slabSize) {
+        _impl.setOffHeapStorage(directory, slabSize);
+    }
+
+    /**
+     * Observe a held item with a particular key.
+     *
+     * @param key the item's key.
+     * @param <T> the item's type.
+     * @return an observable that emits the item.
+     */
+    public <T> Observable<T> getResourceObservable(String key) {
+        return _impl.observeResourceWithKey(key);
+    }
+
+    /**
+     * Observe a held item with a particular key on a scheduler.
+     *
+     * @param key       the item's key.
+     * @param scheduler the scheduler the item is delivered on.
+     * @param <T>       the item's type.
+     * @return an observable that emits the item on the scheduler.
+     */
+    public <T> Observable<T> getResourceObservable(String key, Scheduler scheduler) {
+        return _impl.observeResourceWithKey(key, scheduler);
+    }
+
+    /**
+     * Observe a held item with a particular key for a limited time.
+     *
+     * @param key      the item's key.
+     * @param timeout  the maximum time to wait for the item to be held.
+     * @param timeUnit the unit of the timeout.
+     * @param <T>      the item's type.
+     * @return an observable that emits the item or fails with a {@link java.util.concurrent.TimeoutException}.
+     */
+    public <T> Observable<T> getResourceObservable(String key, long timeout, TimeUnit timeUnit) {
+        return _impl.observeResourceWithKey(key, null, timeUnit, timeout);
+    }
+
+    /**
+     * Observe a held item with a particular key, loading it if it is not held. The first observer to miss runs the
+     * loader on the load executor and holds its result for the specified amount of time, concurrent observers of the
+     * same key wait for that load rather than starting their own. If the loader fails the observers that asked for
+     * it receive its error.
+     *
+     * @param key     the item's key.
+     * @param loader  computes the item.
+     * @param seconds the amount of time in seconds the loaded item is held for.
+     * @param <T>     the item's type.
+     * @return an observable that emits the held or loaded item.
+     */
+    public <T> Observable<T> getOrLoad(String key, Callable<? extends T> loader, int seconds) {
+        return _impl.observeResourceWithKeyOrLoad(key, loader, TimeUnit.SECONDS, seconds);
+    }
+
+    /**
+     * Observe the held items with a set of keys.
+     *
+     * @param keys the items' keys.
+     * @param <T>  the items' type.
+     * @return an observable that emits a map of every key to its item once all of them are held.
+     */
+    public <T> Observable<Map<String, T>> getResourcesObservable(Collection<String> keys) {
+        return _impl.observeResourcesWithKeys(keys);
+    }
+
+    /**
+     * Observe every item held with a key starting with a prefix. The items already held are emitted first, followed
+     * by every item held afterwards. Observing a prefix does not consume items held until observed.
+     *
+     * @param prefix the start of the items' keys.
+     * @param <T>    the items' type.
+     * @return an observable of each key and its item that completes if the store is closed.
+     */
+    public <T> Observable<Map.Entry<String, T>> getResourcesObservableWithPrefix(String prefix) {
+        return _impl.observeResourcesWithPrefix(prefix);
+    }
+
+    /**
+     * Get an item with a particular key.
+     *
+     * @param key the item's key.
+     * @param <T> the item's type.
+     * @return the item or null if it does not exist.
+     */
+    public <T> T getResourceWithKey(String key) {
+        return _impl.getResourceWithKey(key);
+    }
+
+    /**
+     * Get an item with a particular key without treating a miss as null.
+     *
+     * @param key          the item's key.
+     * @param defaultValue the value returned if the item is not held.
+     * @param <T>          the item's type.
+     * @return the item or the default value if it does not exist.
+     */
+    public <T> T getResourceWithKey(String key, T defaultValue) {
+        return _impl.getResourceWithKey(key, defaultValue);
+    }
+
+    /**
+     * Wait for a held item with a particular key without an {@link Observable}. An item that is already held completes
+     * the future before it is returned. Cancelling the future stops waiting.
+     *
+     * @param key the item's key.
+     * @param <T> the item's type.
+     * @return a future that completes with the item, or fails with an {@link IllegalStateException} if the store
+     * closes first.
+     */
+    public <T> Future<T> getResourceFuture(String key) {
+        return _impl.awaitResourceWithKey(key, null, null, 0);
+    }
+
+    /**
+     * Wait for a held item with a particular key for a limited time without an {@link Observable}.
+     *
+     * @param key      the item's key.
+     * @param timeout  the maximum time to wait for the item to be held.
+     * @param timeUnit the unit of the timeout.
+     * @param <T>      the item's type.
+     * @return a future that completes with the item or fails with a {@link java.util.concurrent.TimeoutException}.
+     */
+    public <T> Future<T> getResourceFuture(String key, long timeout, TimeUnit timeUnit) {
+        return _impl.awaitResourceWithKey(key, null, timeUnit, timeout);
+    }
+
+    /**
+     * Call back with a held item with a particular key. An item that is already held is passed to the callback on the
+     * calling thread, otherwise the callback is called on the delivery scheduler once the item is held.
+     *
+     * @param key      the item's key.
+     * @param callback the callback.
+     * @param <T>      the item's type.
+     * @return a future that can be cancelled to stop waiting.
+     */
+    public <T> Future<T> awaitResource(String key, ResourceCallback<? super T> callback) {
+        return _impl.awaitResourceWithKey(key, callback, null, 0);
+    }
+
+    /**
+     * Call back with a held item with a particular key, or with a {@link java.util.concurrent.TimeoutException} if it
+     * is not held in time.
+     *
+     * @param key      the item's key.
+     * @param timeout  the maximum time to wait for the item to be held.
+     * @param timeUnit the unit of the timeout.
+     * @param callback the callback.
+     * @param <T>      the item's type.
+     * @return a future that can be cancelled to stop waiting.
+     */
+    public <T> Future<T> awaitResource(String key, long timeout, TimeUnit timeUnit,
+                                      ResourceCallback<? super T> callback) {
+        return _impl.awaitResourceWithKey(key, callback, timeUnit, timeout);
+    }
+
+    /**
+     * Get the items with a set of keys.
+     *
+     * @param keys the items' keys.
+     * @param <T>  the items' type.
+     * @return a map of each key to its item, keys that are not held are left out.
+     */
+    public <T> Map<String, T> getResourcesWithKeys(Collection<String> keys) {
+        return _impl.getResourcesWithKeys(keys);
+    }
+
+    /**
+     * Get the items held with a key starting with a prefix.
+     *
+     * @param prefix the start of the items' keys.
+     * @param <T>    the items' type.
+     * @return a map of each key to its item.
+     */
+    public <T> Map<String, T> getResourcesWithPrefix(String prefix) {
+        return _impl.getResourcesWithPrefix(prefix);
+    }
+
+    /**
+     * Open a stream, a key that carries a sequence of values rather than a single resource. New observers of the
+     * stream receive its most recent values before the values published afterwards. Streams are separate from held
+     * resources, a stream and a resource can share a key.
+     *
+     * @param key        the stream's key.
+     * @param replaySize the number of most recent values replayed to new observers, 0 for none.
+     * @return false if the stream was already open, in which case its replay size is unchanged.
+     */
+    public boolean openStream(String key, int replaySize) {
+        return _impl.openStream(key, replaySize);
+    }
+
+    /**
+     * Publish a value to a stream. A stream that is not open is opened with a replay of its latest value.
+     *
+     * @param key   the stream's key.
+     * @param value the value to publish.
+     */
+    public void publish(String key, Object value) {
+        _impl.publish(key, value);
+    }
+
+    /**
+     * Observe a stream. Values published faster than the observer requests them are conflated to the latest one.
+     *
+     * @param key the stream's key.
+     * @param <T> the values' type.
+     * @return an observable that emits the replayed values and then each published value until the stream is closed.
+     */
+    public <T> Observable<T> getStreamObservable(String key) {
+        return _impl.observeStream(key, BackpressureStrategy.LATEST);
+    }
+
+    /**
+     * Observe a stream.
+     *
+     * @param key      the stream's key.
+     * @param strategy what to do with values published faster than the observer requests them.
+     * @param <T>      the values' type.
+     * @return an observable that emits the replayed values and then each published value until the stream is closed.
+     */
+    public <T> Observable<T> getStreamObservable(String key, BackpressureStrategy strategy) {
+        return _impl.observeStream(key, strategy);
+    }
+
+    /**
+     * Close a stream, completing its observers and dropping its values.
+     *
+     * @param key the stream's key.
+     */
+    public void closeStream(String key) {
+        _impl.closeStream(key);
+    }
+
+    /**
+     * Persist held resources to a snapshot file so they survive a restart. Resources logged to the file by a previous
+     * process are restored first, timed resources for the time they had left. From then on every resource held for a
+     * time or until observed is appended to the file as it is held or removed. Resources that can not be serialized
+     * are skipped, resources held softly or weakly are never persisted.
+     *
+     * @param file the snapshot file.
+     * @return the number of resources restored.
+     * @throws IOException if the snapshot file can not be read or written.
+     */
+    public int enablePersistence(File file) throws IOException {
+        return _impl.enablePersistence(file);
+    }
+
+    /**
+     * Stop persisting held resources, leaving the snapshot file as it is.
+     */
+    public void disablePersistence() {
+        _impl.disablePersistence();
+    }
+
+    /**
+     * Enable or disable collecting stats such as the hit rate, expirations and lock hold times. Disabling drops the counts
+     * collected so far.
+     *
+     * @param enabled true to collect stats.
+     */
+    public void setStatsEnabled(boolean enabled) {
+        _impl.setStatsEnabled(enabled);
+    }
+
+    /**
+     * Get a snapshot of the stats. While stats are disabled only the current entry and waiter counts are reported.
+     *
+     * @return the stats.
+     */
+    public EtherStats getStats() {
+        return _impl.stats();
+    }
+
+    /**
+     * Observe the stats periodically, for example to report them to a metrics system.
+     *
+     * @param period   the time between snapshots.
+     * @param timeUnit the unit of the period.
+     * @return an observable that emits a snapshot of the stats every period.
+     */
+    public Observable<EtherStats> getStatsObservable(long period, TimeUnit timeUnit) {
+        return _impl.observeStats(period, timeUnit);
+    }
+
+    /**
+     * Create a handle for storing resources. Handles are a cheaper alternative to keys for resources handed around
+     * within the process: holding, fetching and observing with a handle never creates, hashes or compares a string.
+     * Resources held with handles are separate from those held with keys.
+     * <p>
+     * Handles only hold resources for a time or until observed, and skip the rest of the store's bookkeeping:
+     * <ul>
+     * <li>they are never evicted by {@link #setMaximumSize(long)} or {@link #setMaximumWeight(long, Weigher)}, nor
+     * counted towards either bound, and are not purged under memory pressure.</li>
+     * <li>they are not measured by the {@link Sizer}, so {@link #getRetainedBytes()} leaves them out.</li>
+     * <li>they are not counted in {@link #getStats()}.</li>
+     * <li>their removal is not reported to the {@link RemovalListener} or {@link EvictionListener}.</li>
+     * <li>they are not written to the snapshot of {@link #enablePersistence(File)}.</li>
+     * <li>they can not be held softly, weakly, off the heap, while accessed or for a number of observations.</li>
+     * </ul>
+     *
+     * @return a unique handle.
+     */
+    public long createHandle() {
+        return _impl.createHandle();
+    }
+
+    /**
+     * Store an object that can be observed for a default (10 seconds) length of time.
+     * See {@link #createHandle()} for what handles do not support.
+     *
+     * @param handle   the handle to store the item with.
+     * @param resource the item to store.
+     */
+    public void hold(long handle, Object resource) {
+        _impl.holdWithHandle(handle, resource, RetainPolicy.TIMED, TimeUnit.SECONDS,
+                EtherImpl.DEFAULT_RETAIN_TIME_SECONDS);
+    }
+
+    /**
+     * Store an object that can be observed for a specified amount of time.
+     * See {@link #createHandle()} for what handles do not support.
+     *
+     * @param handle   the handle to store the item with.
+     * @param resource the item to store.
+     * @param seconds  the amount of time in seconds.
+     */
+    public void holdFor(long handle, Object resource, int seconds) {
+        _impl.holdWithHandle(handle, resource, RetainPolicy.TIMED, TimeUnit.SECONDS, seconds);
+    }
+
+    /**
+     * Store an object that can be observed until it is observed at least once.
+     * See {@link #createHandle()} for what handles do not support.
+     *
+     * @param handle   the handle to store the item with.
+     * @param resource the item to store.
+     */
+    public void holdUntilObserved(long handle, Object resource) {
+        _impl.holdWithHandle(handle, resource, RetainPolicy.ONCE_OBSERVED, TimeUnit.SECONDS, 0);
+    }
+
+    /**
+     * Get an item held with a handle.
+     *
+     * @param handle the item's handle.
+     * @param <T>    the item's type.
+     * @return the item or null if it does not exist.
+     */
+    public <T> T getResourceWithHandle(long handle) {
+        return _impl.getResourceWithHandle(handle);
+    }
+
+    /**
+     * Observe an item held with a handle.
+     *
+     * @param handle the item's handle.
+     * @param <T>    the item's type.
+     * @return an observable that emits the item.
+     */
+    public <T> Observable<T> getResourceObservable(long handle) {
+        return _impl.observeResourceWithHandle(handle, null, 0);
+    }
+
+    /**
+     * Observe an item held with a handle for a limited time.
+     *
+     * @param handle   the item's handle.
+     * @param timeout  the maximum time to wait for the item to be held.
+     * @param timeUnit the unit of the timeout.
+     * @param <T>      the item's type.
+     * @return an observable that emits the item or fails with a {@link java.util.concurrent.TimeoutException}.
+     */
+    public <T> Observable<T> getResourceObservable(long handle, long timeout, TimeUnit timeUnit) {
+        return _impl.observeResourceWithHandle(handle, timeUnit, timeout);
+    }
+
+    /**
+     * Create a unique key for storing resources.
+     *
+     * @return a unique key.
+     */
+    public String createUniqueKey() {
+        return _impl.createUniqueKey();
+    }
+
+    /**
+     * Replace the strategy used to create unique keys.
+     *
+     * @param keyGenerator the generator or null to restore the default.
+     */
+    public void setKeyGenerator(KeyGenerator keyGenerator) {
+        _impl.setKeyGenerator(keyGenerator);
+    }
+
+    /**
+     * Set the scheduler items are delivered on to observers that were waiting for them to be held.
+     *
+     * @param scheduler the scheduler or null to deliver on the holding thread.
+     */
+    public void setDeliveryScheduler(Scheduler scheduler) {
+        _impl.setDeliveryScheduler(scheduler);
+    }
+
+    /**
+     * Set the executor loaders passed to {@link #getOrLoad(String, Callable, int)} run on. By default they run on a
+     * shared pool of daemon threads.
+     *
+     * @param executor the executor or null to restore the default.
+     */
+    public void setLoadExecutor(Executor executor) {
+        _impl.setLoadExecutor(executor);
+    }
+
+    /**
+     * Bound the number of held resources.
+     *
+     * @param maximumSize the maximum number of held resources or {@link Long#MAX_VALUE} for no bound.
+     */
+    public void setMaximumSize(long maximumSize) {
+        _impl.setMaximumWeight(maximumSize, null);
+    }
+
+    /**
+     * Bound the total weight of held resources.
+     *
+     * @param maximumWeight the maximum total weight or {@link Long#MAX_VALUE} for no bound.
+     * @param weigher       the weigher for resources held from now on.
+     */
+    public void setMaximumWeight(long maximumWeight, Weigher weigher) {
+        _impl.setMaximumWeight(maximumWeight, weigher);
+    }
+
+    /**
+     * Estimate the heap retained by held resources, see {@link #getRetainedBytes()}. Resources already held are
+     * measured at once.
+     *
+     * @param sizer the sizer, {@link Sizer#OBJECT_GRAPH} to approximate any resource, or null to stop measuring
+     *              resources held from now on.
+     */
+    public void setSizer(Sizer sizer) {
+        _impl.setSizer(sizer);
+    }
+
+    /**
+     * @return the estimated bytes of heap retained by held resources, 0 unless a sizer was set.
+     */
+    public long getRetainedBytes() {
+        return _impl.retainedBytes();
+    }
+
+    /**
+     * Shrink when the JVM runs low on memory. Whenever a heap memory pool's usage crosses the threshold, as it grows
+     * or as it is left after a collection, half the estimated retained bytes are evicted. Timed resources closest to
+     * expiring go first, resources held until observed are kept for their observers. Sizes are those estimated by
+     * the sizer set with {@link #setSizer(Sizer)}, which must be chosen first. The threshold applies to the whole
+     * JVM, the one set last is used for every store, and the thresholds found before the first store watched the heap
+     * are put back once the last one stops.
+     *
+     * @param threshold the share of a pool's maximum size between 0 and 1, or 0 to stop watching the heap.
+     * @throws IllegalStateException if the heap is to be watched and no sizer was set.
+     */
+    public void setMemoryPressureThreshold(double threshold) {
+        _impl.setMemoryPressureThreshold(threshold);
+    }
+
+    /**
+     * Set the listener notified when resources are evicted to stay within the maximum size or weight.
+     *
+     * @param listener the listener or null for none.
+     */
+    public void setEvictionListener(EvictionListener listener) {
+        _impl.setEvictionListener(listener);
+    }
+
+    /**
+     * Set the listener notified of every resource that leaves the store, with why it left. Removals are queued and
+     * reported in batches on a shared pool of daemon threads, never under the store's locks or on its timer thread.
+     * A resource handed straight to the observers waiting for it is never stored and a resource held with a handle is
+     * not held under a key, so neither is reported.
+     *
+     * @param listener the listener or null for none.
+     */
+    public void setRemovalListener(RemovalListener listener) {
+        _impl.setRemovalListener(listener, null);
+    }
+
+    /**
+     * Set the listener notified of every resource that leaves the store, with why it left, and the executor it is
+     * notified on. Removals are reported in the order they happened, on the removing thread once the executor rejects
+     * a task. See {@link RemovalListener} for what is not reported.
+     *
+     * @param listener the listener or null for none.
+     * @param executor the executor or null for a shared pool of daemon threads.
+     */
+    public void setRemovalListener(RemovalListener listener, Executor executor) {
+        _impl.setRemovalListener(listener, executor);
+    }
+}
@@ -0,0 +1,15 @@
+package com.willkamp.ether;
+
+/**
+ * Notified when a resource is evicted to keep a bounded store within its maximum size or weight.
+ */
+public interface EvictionListener {
+
+    /**
+     * Called on the thread whose hold caused the eviction, after the store has released its locks.
+     *
+     * @param key      the evicted resource's key.
+     * @param resource the evicted resource.
+     */
+    void onEvicted(String key, Object resource);
+}
@@ -0,0 +1,305 @@
+package com.willkamp.ether;
+
+import rx.Scheduler;
+import rx.Subscription;
+import rx.functions.Action0;
+import rx.schedulers.Schedulers;
+
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Hashed timing wheel that expires scheduled items in batches from a single ticker.
+ * <p>
+ * Scheduling and cancelling only enqueue work for the ticker, so neither takes a lock nor allocates more than a
+ * {@link Timeout}. Deadlines are rounded up to the next tick. The ticker is a periodic action on a {@link Scheduler}
+ * and time is read from {@link Scheduler#now()}, so a {@link rx.schedulers.TestScheduler} drives the wheel in virtual
+ * time. The ticker stops while nothing is scheduled.
+ */
+class ExpiryWheel {
+
+    interface Expirable {
+        void expire();
+    }
+
+    private static final int STATE_SCHEDULED = 0;
+    private static final int STATE_CANCELLED = 1;
+    private static final int STATE_EXPIRED = 2;
+
+    private final Scheduler _scheduler;
+    private final Scheduler.Worker _worker;
+    private final long _tickNanos;
+    private final Bucket[] _wheel;
+    private final int _mask;
+    private final Queue<Timeout> _pendingTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> _cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger _outstanding = new AtomicInteger();
+    private final long _startTime;
+    private Subscription _ticker;
+    private volatile boolean _resumed;
+
+    // owned by the ticker
+    private final ArrayList<Timeout> _expired = new ArrayList<>();
+    private long _tick;
+
+    /**
+     * Create a wheel ticking on a dedicated daemon thread.
+     */
+    ExpiryWheel(final String threadName, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        this(Schedulers.from(Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        })), tickDuration, unit, ticksPerWheel);
+    }
+
+    /**
+     * Create a wheel ticking on a scheduler and reading the time from it.
+     */
+    ExpiryWheel(Scheduler scheduler, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        _wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            _wheel[i] = new Bucket();
+        }
+        _mask = size - 1;
+        _tickNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(1), unit.toNanos(tickDuration));
+        _scheduler = scheduler;
+        _worker = scheduler.createWorker();
+        _startTime = scheduler.now();
+    }
+
+    /**
+     * @return the scheduler's current time in milliseconds.
+     */
+    long now() {
+        return _scheduler.now();
+    }
+
+    /**
+     * @return the time elapsed since the wheel was created.
+     */
+    private long elapsedNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(_scheduler.now() - _startTime);
+    }
+
+    /**
+     * Schedule an item to expire after the specified delay.
+     *
+     * @return a handle that can cancel the expiry.
+     */
+    Timeout schedule(Expirable expirable, TimeUnit unit, long delay) {
+        Timeout timeout = new Timeout(this, expirable, elapsedNanos() + unit.toNanos(delay));
+        _pendingTimeouts.add(timeout);
+        if (_outstanding.getAndIncrement() == 0) {
+            startTicker();
+        }
+        return timeout;
+    }
+
+    /**
+     * @return the number of scheduled timeouts that have neither expired nor been cancelled.
+     */
+    int outstanding() {
+        return _outstanding.get();
+    }
+
+    private synchronized void startTicker() {
+        if (_ticker == null) {
+            // nothing was scheduled while stopped so the ticks missed can be skipped
+            _resumed = true;
+            _ticker = _worker.schedulePeriodically(new Action0() {
+                @Override
+                public void call() {
+                    tick();
+                }
+            }, _tickNanos, _tickNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private synchronized void stopTickerIfIdle() {
+        if (_ticker != null && _outstanding.get() == 0) {
+            _ticker.unsubscribe();
+            _ticker = null;
+        }
+    }
+
+    private void tick() {
+        long elapsed = elapsedNanos();
+        removeCancelledTimeouts();
+        if (_resumed) {
+            _resumed = false;
+            resume(elapsed / _tickNanos);
+        }
+        transferPendingTimeouts();
+        // a tick is only expired once the clock has moved past its end, the clock may be coarser than a deadline
+        long deadline;
+        while ((deadline = (_tick + 1) * _tickNanos) < elapsed) {
+            _wheel[(int) (_tick & _mask)].collectExpired(deadline, _expired);
+            _tick++;
+        }
+        expireBatch(_expired);
+        stopTickerIfIdle();
+    }
+
+    /**
+     * Skip the ticks missed while the ticker was stopped. A timeout transferred just before the ticker stopped, by a
+     * schedule that had yet to count it as outstanding, may sit in one of the skipped buckets, so each is swept once,
+     * at most a whole revolution, for the timeouts whose deadline passed. The rest are found when their bucket's tick
+     * comes round, as a timeout only expires once its deadline has passed.
+     */
+    private void resume(long currentTick) {
+        if (currentTick <= _tick) {
+            return;
+        }
+        long deadline = currentTick * _tickNanos;
+        long skipped = Math.min(currentTick - _tick, _wheel.length);
+        for (long i = 0; i < skipped; i++) {
+            _wheel[(int) ((_tick + i) & _mask)].collectExpired(deadline, _expired);
+        }
+        _tick = currentTick;
+    }
+
+    private void expireBatch(ArrayList<Timeout> expired) {
+        for (int i = 0; i < expired.size(); i++) {
+            Timeout timeout = expired.get(i);
+            if (Timeout.STATE_UPDATER.compareAndSet(timeout, STATE_SCHEDULED, STATE_EXPIRED)) {
+                _outstanding.decrementAndGet();
+                try {
+                    timeout._expirable.expire();
+                } catch (Throwable t) {
+                    Thread currentThread = Thread.currentThread();
+                    currentThread.getUncaughtExceptionHandler().uncaughtException(currentThread, t);
+                }
+            }
+        }
+        expired.clear();
+    }
+
+    private void transferPendingTimeouts() {
+        Timeout timeout;
+        while ((timeout = _pendingTimeouts.poll()) != null) {
+            if (timeout._state == STATE_CANCELLED) {
+                continue;
+            }
+            long ticks = Math.max(timeout._deadline / _tickNanos, _tick);
+            _wheel[(int) (ticks & _mask)].add(timeout);
+        }
+    }
+
+    private void removeCancelledTimeouts() {
+        Timeout timeout;
+        while ((timeout = _cancelledTimeouts.poll()) != null) {
+            if (timeout._bucket != null) {
+                timeout._bucket.remove(timeout);
+            }
+        }
+    }
+
+    /**
+     * A scheduled expiry.
+     */
+    static final class Timeout {
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE_UPDATER =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "_state");
+
+        private final ExpiryWheel _wheel;
+        private final Expirable _expirable;
+        private final long _deadline;
+        private volatile int _state = STATE_SCHEDULED;
+
+        // owned by the ticker thread
+        private Timeout _next;
+        private Timeout _prev;
+        private Bucket _bucket;
+
+        private Timeout(ExpiryWheel wheel, Expirable expirable, long deadline) {
+            _wheel = wheel;
+            _expirable = expirable;
+            _deadline = deadline;
+        }
+
+        /**
+         * Cancel the expiry if it has not already happened.
+         *
+         * @return true if this call cancelled the expiry.
+         */
+        boolean cancel() {
+            if (STATE_UPDATER.compareAndSet(this, STATE_SCHEDULED, STATE_CANCELLED)) {
+                _wheel._outstanding.decrementAndGet();
+                _wheel._cancelledTimeouts.add(this);
+                return true;
+            }
+            return false;
+        }
+
+        boolean isExpired() {
+            return _state == STATE_EXPIRED;
+        }
+    }
+
+    /**
+     * Doubly linked list of timeouts, only ever touched by the ticker thread.
+     */
+    private static final class Bucket {
+        private Timeout _head;
+        private Timeout _tail;
+
+        void add(Timeout timeout) {
+            timeout._bucket = this;
+            if (_head == null) {
+                _head = _tail = timeout;
+            } else {
+                _tail._next = timeout;
+                timeout._prev = _tail;
+                _tail = timeout;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            Timeout next = timeout._next;
+            if (timeout._prev != null) {
+                timeout._prev._next = next;
+            }
+            if (next != null) {
+                next._prev = timeout._prev;
+            }
+            if (timeout == _head) {
+                _head = next;
+            }
+            if (timeout == _tail) {
+                _tail = timeout._prev;
+            }
+            timeout._prev = null;
+            timeout._next = null;
+            timeout._bucket = null;
+        }
+
+        void collectExpired(long deadline, ArrayList<Timeout> expired) {
+            Timeout timeout = _head;
+            while (timeout != null) {
+                Timeout next = timeout._next;
+                if (timeout._state == STATE_CANCELLED) {
+                    remove(timeout);
+                } else if (timeout._deadline <= deadline) {
+                    // rounds are not counted, a bucket swept out of turn must not bring a later round forward
+                    remove(timeout);
+                    expired.add(timeout);
+                }
+                timeout = next;
+            }
+        }
+    }
+}
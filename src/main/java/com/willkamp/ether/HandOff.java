@@ -0,0 +1,43 @@
+package com.willkamp.ether;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A resource handed to the waiters parked on its key instead of being stored. A waiter that stops waiting before a
+ * delivery scheduler reaches it refuses the resource, so the hand-off only finishes once every waiter took or refused
+ * it, and a resource that no waiter took can be held again rather than lost.
+ */
+abstract class HandOff {
+    private final int _waiters;
+    private final AtomicInteger _pending;
+    private final AtomicInteger _refused = new AtomicInteger();
+
+    /**
+     * @param waiters the number of waiters the resource is handed to, at least one.
+     */
+    HandOff(int waiters) {
+        _waiters = waiters;
+        _pending = new AtomicInteger(waiters);
+    }
+
+    /**
+     * @param accepted true if the waiter took the resource.
+     */
+    void delivered(boolean accepted) {
+        if (!accepted) {
+            _refused.incrementAndGet();
+        }
+        if (_pending.decrementAndGet() == 0) {
+            int refused = _refused.get();
+            finish(_waiters - refused, refused);
+        }
+    }
+
+    /**
+     * Called once, on the thread of the last delivery.
+     *
+     * @param accepted the number of waiters that took the resource.
+     * @param refused  the number of waiters that refused it.
+     */
+    abstract void finish(int accepted, int refused);
+}
@@ -0,0 +1,308 @@
+package com.willkamp.ether;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.subscriptions.Subscriptions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The resources of a store held with {@code long} handles instead of keys.
+ * <p>
+ * Handles are spread over segments, each a pair of {@link LongObjectMap}s guarded by the segment's monitor, so no
+ * handle is ever boxed or hashed as a string. The timed and once observed retain policies and observe semantics match
+ * the keyed resources, the two never see each other. Held items skip the store's bookkeeping: they are never evicted,
+ * weighed, sized, counted in stats, reported to removal or eviction listeners, persisted or held off the heap.
+ */
+class HandleTable {
+
+    private static final int SEGMENTS = 64;
+    private static final int BLOCK_SIZE = 1024;
+
+    private final EtherImpl _store;
+    private final Segment[] _segments = new Segment[SEGMENTS];
+    private final AtomicLong _nextBlock = new AtomicLong();
+    private final ThreadLocal<long[]> _threadBlock = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            // {next, limit}
+            return new long[2];
+        }
+    };
+
+    HandleTable(EtherImpl store) {
+        _store = store;
+        for (int i = 0; i < SEGMENTS; i++) {
+            _segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * @return a handle unique within the store, never 0.
+     */
+    long createHandle() {
+        long[] block = _threadBlock.get();
+        if (block[0] == block[1]) {
+            block[0] = _nextBlock.getAndIncrement() * BLOCK_SIZE + 1;
+            block[1] = block[0] + BLOCK_SIZE;
+        }
+        return block[0]++;
+    }
+
+    private Segment segmentFor(long handle) {
+        return _segments[(int) (handle ^ (handle >>> 32)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * @param policy   {@link RetainPolicy#TIMED} or {@link RetainPolicy#ONCE_OBSERVED}.
+     * @param timeUnit the unit of a timed item's retain time.
+     * @throws IllegalArgumentException if the policy is not supported or a timed item has no time unit, checked before
+     *                                  the waiters on the handle are touched.
+     */
+    void hold(long handle, Object item, RetainPolicy policy, TimeUnit timeUnit, long retainTime) {
+        if (_store.isClosed()) {
+            throw new IllegalStateException("the store is closed");
+        }
+        if (policy != RetainPolicy.TIMED && policy != RetainPolicy.ONCE_OBSERVED) {
+            throw new IllegalArgumentException(policy + " is not supported with handles");
+        }
+        if (policy == RetainPolicy.TIMED && timeUnit == null) {
+            throw new IllegalArgumentException("a timed item needs a time unit");
+        }
+        hold(handle, item, policy, timeUnit, retainTime, false);
+    }
+
+    /**
+     * @param ifAbsent true to leave a newer item held with the handle alone.
+     */
+    private void hold(long handle, Object item, RetainPolicy policy, TimeUnit timeUnit, long retainTime,
+                      boolean ifAbsent) {
+        Segment segment = segmentFor(handle);
+        Held held = new Held(segment, handle, item, policy);
+        List<Waiter> waiters;
+        Held previous = null;
+        boolean stored = true;
+        synchronized (segment) {
+            if (ifAbsent && (_store.isClosed() || segment._items.get(handle) != null)) {
+                return;
+            }
+            waiters = segment._waiters.remove(handle);
+            if (waiters != null) {
+                for (Waiter waiter : waiters) {
+                    waiter.cancelExpiry();
+                    if (policy == RetainPolicy.ONCE_OBSERVED && !waiter.isUnsubscribed()) {
+                        stored = false;
+                    }
+                }
+            }
+            if (stored) {
+                previous = segment._items.put(handle, held);
+                if (policy == RetainPolicy.TIMED) {
+                    held._expiry = _store._expiryWheel.schedule(held, timeUnit, retainTime);
+                }
+            }
+        }
+        if (previous != null) {
+            previous.cancelExpiry();
+        }
+        if (waiters != null) {
+            _store.deliver(item, waiters, null, 0, stored ? null : restoreIfRefused(handle, item, waiters.size()));
+        }
+    }
+
+    /**
+     * @return a hand-off holding a once observed item again if every waiter it was handed to refuses it.
+     */
+    private HandOff restoreIfRefused(final long handle, final Object item, int waiters) {
+        return new HandOff(waiters) {
+            @Override
+            void finish(int accepted, int refused) {
+                if (accepted == 0) {
+                    hold(handle, item, RetainPolicy.ONCE_OBSERVED, null, 0, true);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return the held item or null, a once observed item is removed.
+     */
+    private Held take(Segment segment, long handle) {
+        Held held = segment._items.get(handle);
+        if (held != null && held._policy == RetainPolicy.ONCE_OBSERVED) {
+            segment._items.remove(handle);
+        }
+        return held;
+    }
+
+    /**
+     * @return the item or null if it is not held.
+     */
+    Object get(long handle) {
+        Segment segment = segmentFor(handle);
+        Held held;
+        synchronized (segment) {
+            held = take(segment, handle);
+        }
+        return held == null ? null : held._item;
+    }
+
+    /**
+     * @param scheduler the scheduler the item is delivered on, see
+     *                  {@link EtherImpl#observeResourceWithKey(String, Scheduler, TimeUnit, long)}.
+     * @param timeUnit  the unit of the timeout or null to wait until the subscriber unsubscribes.
+     */
+    Observable<Object> observe(final long handle, final Scheduler scheduler, final TimeUnit timeUnit,
+                               final long timeout) {
+        return Observable.create(new Observable.OnSubscribe<Object>() {
+            @Override
+            public void call(Subscriber<? super Object> subscriber) {
+                if (_store.isClosed()) {
+                    subscriber.onError(new IllegalStateException("the store is closed"));
+                    return;
+                }
+                final Segment segment = segmentFor(handle);
+                final Waiter waiter = new SubscriberWaiter(null, subscriber, scheduler);
+                Held held;
+                synchronized (segment) {
+                    held = take(segment, handle);
+                    if (held == null) {
+                        List<Waiter> waiters = segment._waiters.get(handle);
+                        if (waiters == null) {
+                            waiters = new ArrayList<>(2);
+                            segment._waiters.put(handle, waiters);
+                        }
+                        waiters.add(waiter);
+                    }
+                }
+                if (held != null) {
+                    if (scheduler == null) {
+                        waiter.deliver(held._item);
+                    } else {
+                        // the subscriber may unsubscribe before the scheduler gets to it
+                        _store.deliver(held._item, Collections.singletonList(waiter), null, 0,
+                                held._policy == RetainPolicy.ONCE_OBSERVED
+                                        ? restoreIfRefused(handle, held._item, 1) : null);
+                    }
+                    return;
+                }
+                if (timeUnit != null) {
+                    waiter._expiry = _store._expiryWheel.schedule(new ExpiryWheel.Expirable() {
+                        @Override
+                        public void expire() {
+                            if (removeWaiter(segment, handle, waiter)) {
+                                waiter.fail(new TimeoutException());
+                            }
+                        }
+                    }, timeUnit, timeout);
+                }
+                subscriber.add(Subscriptions.create(new Action0() {
+                    @Override
+                    public void call() {
+                        removeWaiter(segment, handle, waiter);
+                    }
+                }));
+            }
+        });
+    }
+
+    private boolean removeWaiter(Segment segment, long handle, Waiter waiter) {
+        synchronized (segment) {
+            List<Waiter> waiters = segment._waiters.get(handle);
+            if (waiters == null || !waiters.remove(waiter)) {
+                return false;
+            }
+            if (waiters.isEmpty()) {
+                segment._waiters.remove(handle);
+            }
+        }
+        waiter.cancelExpiry();
+        return true;
+    }
+
+    /**
+     * Drop every held item and waiter.
+     *
+     * @param completeWaiters true to complete the dropped waiters.
+     */
+    void clear(boolean completeWaiters) {
+        List<Held> items = new ArrayList<>();
+        List<List<Waiter>> waiters = new ArrayList<>();
+        for (Segment segment : _segments) {
+            synchronized (segment) {
+                segment._items.clear(items);
+                segment._waiters.clear(waiters);
+            }
+        }
+        for (Held held : items) {
+            held.cancelExpiry();
+        }
+        for (List<Waiter> handleWaiters : waiters) {
+            for (Waiter waiter : handleWaiters) {
+                waiter.cancelExpiry();
+                if (completeWaiters) {
+                    waiter.complete();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of held items.
+     */
+    int size() {
+        int size = 0;
+        for (Segment segment : _segments) {
+            synchronized (segment) {
+                size += segment._items.size();
+            }
+        }
+        return size;
+    }
+
+    private static final class Segment {
+        final LongObjectMap<Held> _items = new LongObjectMap<>();
+        final LongObjectMap<List<Waiter>> _waiters = new LongObjectMap<>();
+    }
+
+    /**
+     * An item held with a handle, expiring itself if it is timed.
+     */
+    private static final class Held implements ExpiryWheel.Expirable {
+        final Segment _segment;
+        final long _handle;
+        final Object _item;
+        final RetainPolicy _policy;
+        volatile ExpiryWheel.Timeout _expiry;
+
+        Held(Segment segment, long handle, Object item, RetainPolicy policy) {
+            _segment = segment;
+            _handle = handle;
+            _item = item;
+            _policy = policy;
+        }
+
+        @Override
+        public void expire() {
+            synchronized (_segment) {
+                // a newer item held with the same handle is left alone
+                if (_segment._items.get(_handle) == this) {
+                    _segment._items.remove(_handle);
+                }
+            }
+        }
+
+        void cancelExpiry() {
+            if (_expiry != null) {
+                _expiry.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.willkamp.ether;
+
+/**
+ * Strategy for creating the keys of resources held without a key.
+ */
+public interface KeyGenerator {
+
+    /**
+     * Create a key that is unique within the process. Implementations are called concurrently from many threads.
+     *
+     * @return a unique key.
+     */
+    String createUniqueKey();
+}
@@ -0,0 +1,382 @@
+package com.willkamp.ether;
+
+import rx.Subscriber;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Radix tree over the keys of held resources and the prefixes observers watch. Each edge is labelled with the run of
+ * characters its keys share, so a key costs at most one new node and one split, and finding a key's resource or the
+ * watchers of every prefix of a key walks one node per branch point, however many keys are held.
+ * <p>
+ * The index is updated after a resource is stored, outside the key's lock, so holds on different keys only meet on
+ * the index's monitor for the length of a tree walk. A resource is only indexed while it is still the one stored with
+ * its key, and its removal from the store happens before it is dropped from the index, so updates racing for a key
+ * leave the index holding the resource that is stored. The index is built from the store the first time a prefix is
+ * queried, readers confirm each resource against the store and {@link #remove(Resource)} any stale one. Every method
+ * synchronizes on the index.
+ */
+class KeyIndex {
+    private static final char[] NO_LABELS = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private final Map<String, Resource> _store;
+    private final Node _root = new Node("");
+
+    /**
+     * @param store the resources held by key, the index only holds resources that are still stored.
+     */
+    KeyIndex(Map<String, Resource> store) {
+        _store = store;
+    }
+
+    /**
+     * Index a resource that was just stored, replacing the one previously indexed with its key, unless it was
+     * removed or replaced since.
+     *
+     * @return the watchers whose prefix matches the key or null.
+     */
+    synchronized List<Watcher> add(Resource resource) {
+        addIfStored(resource);
+        return collectWatchers(resource._key);
+    }
+
+    /**
+     * Index a resource found while building the index, unless it was removed or replaced since.
+     */
+    synchronized void addIfStored(Resource resource) {
+        if (_store.get(resource._key) == resource) {
+            nodeFor(resource._key)._resource = resource;
+        }
+    }
+
+    /**
+     * @return the watchers whose prefix matches a key that was handed off without being stored, or null.
+     */
+    synchronized List<Watcher> watchersOf(String key) {
+        return collectWatchers(key);
+    }
+
+    /**
+     * Drop a resource if it is still the one indexed with its key.
+     */
+    synchronized void remove(Resource resource) {
+        List<Node> path = path(resource._key);
+        if (path != null && path.get(path.size() - 1)._resource == resource) {
+            path.get(path.size() - 1)._resource = null;
+            prune(path);
+        }
+    }
+
+    /**
+     * @return the indexed resources whose key starts with the prefix.
+     */
+    synchronized List<Resource> resourcesWithPrefix(String prefix) {
+        List<Resource> resources = new ArrayList<>();
+        Node node = subtree(prefix);
+        if (node != null) {
+            node.collectResources(resources);
+        }
+        return resources;
+    }
+
+    /**
+     * Start notifying a watcher of resources added with its prefix.
+     *
+     * @return the resources already indexed with the prefix, those added afterwards are returned by {@link #add}.
+     */
+    synchronized List<Resource> watch(Watcher watcher) {
+        Node node = nodeFor(watcher._prefix);
+        if (node._watchers == null) {
+            node._watchers = new ArrayList<>(1);
+        }
+        node._watchers.add(watcher);
+        List<Resource> resources = new ArrayList<>();
+        node.collectResources(resources);
+        return resources;
+    }
+
+    synchronized void unwatch(Watcher watcher) {
+        List<Node> path = path(watcher._prefix);
+        if (path == null) {
+            return;
+        }
+        Node node = path.get(path.size() - 1);
+        if (node._watchers != null && node._watchers.remove(watcher)) {
+            if (node._watchers.isEmpty()) {
+                node._watchers = null;
+            }
+            prune(path);
+        }
+    }
+
+    /**
+     * Stop notifying every watcher.
+     *
+     * @return the watchers that were removed.
+     */
+    synchronized List<Watcher> clearWatchers() {
+        List<Watcher> watchers = new ArrayList<>();
+        ArrayDeque<Node> pending = new ArrayDeque<>();
+        pending.push(_root);
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            if (node._watchers != null) {
+                watchers.addAll(node._watchers);
+                node._watchers = null;
+            }
+            node.pushChildren(pending);
+        }
+        return watchers;
+    }
+
+    /**
+     * @return the node whose path spells the key, created along with a split of the edge it ends in if needed.
+     */
+    private Node nodeFor(String key) {
+        Node node = _root;
+        int depth = 0;
+        while (depth < key.length()) {
+            Node child = node.child(key.charAt(depth));
+            if (child == null) {
+                return node.addChild(new Node(key.substring(depth)));
+            }
+            int common = commonLength(child._label, key, depth);
+            if (common < child._label.length()) {
+                child = node.split(child, common);
+            }
+            node = child;
+            depth += common;
+        }
+        return node;
+    }
+
+    /**
+     * @return the nodes from the root to the one whose path spells the key, or null if there is none.
+     */
+    private List<Node> path(String key) {
+        List<Node> path = new ArrayList<>();
+        Node node = _root;
+        path.add(node);
+        int depth = 0;
+        while (depth < key.length()) {
+            node = node.child(key.charAt(depth));
+            if (node == null || !key.startsWith(node._label, depth)) {
+                return null;
+            }
+            path.add(node);
+            depth += node._label.length();
+        }
+        return path;
+    }
+
+    /**
+     * @return the topmost node whose path starts with the prefix, or null if no key starts with it.
+     */
+    private Node subtree(String prefix) {
+        Node node = _root;
+        int depth = 0;
+        while (depth < prefix.length()) {
+            node = node.child(prefix.charAt(depth));
+            if (node == null) {
+                return null;
+            }
+            int common = commonLength(node._label, prefix, depth);
+            if (common < node._label.length() && depth + common < prefix.length()) {
+                // the prefix leaves the edge
+                return null;
+            }
+            depth += common;
+        }
+        return node;
+    }
+
+    private List<Watcher> collectWatchers(String key) {
+        Node node = _root;
+        List<Watcher> watchers = collect(node, null);
+        int depth = 0;
+        while (depth < key.length()) {
+            node = node.child(key.charAt(depth));
+            if (node == null || !key.startsWith(node._label, depth)) {
+                break;
+            }
+            watchers = collect(node, watchers);
+            depth += node._label.length();
+        }
+        return watchers;
+    }
+
+    /**
+     * Unlink the nodes along a path that no longer hold anything, deepest first, and merge a node left with a single
+     * child into it.
+     */
+    private static void prune(List<Node> path) {
+        for (int i = path.size() - 1; i > 0; i--) {
+            Node node = path.get(i);
+            Node parent = path.get(i - 1);
+            if (node.isEmpty()) {
+                parent.removeChild(node);
+            } else {
+                if (node._childCount == 1 && node._resource == null && node._watchers == null) {
+                    parent.replaceChild(node, node.mergeWithChild());
+                }
+                return;
+            }
+        }
+    }
+
+    private static int commonLength(String label, String key, int offset) {
+        int max = Math.min(label.length(), key.length() - offset);
+        int i = 0;
+        while (i < max && label.charAt(i) == key.charAt(offset + i)) {
+            i++;
+        }
+        return i;
+    }
+
+    private static List<Watcher> collect(Node node, List<Watcher> watchers) {
+        if (node._watchers == null) {
+            return watchers;
+        }
+        if (watchers == null) {
+            watchers = new ArrayList<>(node._watchers.size());
+        }
+        watchers.addAll(node._watchers);
+        return watchers;
+    }
+
+    /**
+     * An observer of every resource held with a key starting with its prefix.
+     */
+    static final class Watcher {
+        final String _prefix;
+        private final Subscriber<? super Map.Entry<String, Object>> _subscriber;
+
+        /**
+         * @param subscriber a subscriber that is safe to signal from many threads at once.
+         */
+        Watcher(String prefix, Subscriber<? super Map.Entry<String, Object>> subscriber) {
+            _prefix = prefix;
+            _subscriber = subscriber;
+        }
+
+        void deliver(String key, Object item) {
+            if (!_subscriber.isUnsubscribed()) {
+                _subscriber.onNext(new AbstractMap.SimpleImmutableEntry<>(key, OffHeapArena.expose(item)));
+            }
+        }
+
+        void complete() {
+            if (!_subscriber.isUnsubscribed()) {
+                _subscriber.onCompleted();
+            }
+        }
+    }
+
+    /**
+     * A radix tree node, its children are kept sorted by the first character of their label.
+     */
+    private static final class Node {
+        String _label;
+        private char[] _firsts = NO_LABELS;
+        private Node[] _children = NO_CHILDREN;
+        int _childCount;
+        Resource _resource;
+        List<Watcher> _watchers;
+
+        Node(String label) {
+            _label = label;
+        }
+
+        Node child(char first) {
+            int index = Arrays.binarySearch(_firsts, 0, _childCount, first);
+            return index < 0 ? null : _children[index];
+        }
+
+        Node addChild(Node child) {
+            int index = -Arrays.binarySearch(_firsts, 0, _childCount, child._label.charAt(0)) - 1;
+            if (_childCount == _firsts.length) {
+                int capacity = Math.max(2, _childCount * 2);
+                _firsts = Arrays.copyOf(_firsts, capacity);
+                _children = Arrays.copyOf(_children, capacity);
+            }
+            System.arraycopy(_firsts, index, _firsts, index + 1, _childCount - index);
+            System.arraycopy(_children, index, _children, index + 1, _childCount - index);
+            _firsts[index] = child._label.charAt(0);
+            _children[index] = child;
+            _childCount++;
+            return child;
+        }
+
+        void removeChild(Node child) {
+            int index = Arrays.binarySearch(_firsts, 0, _childCount, child._label.charAt(0));
+            if (index >= 0) {
+                _childCount--;
+                System.arraycopy(_firsts, index + 1, _firsts, index, _childCount - index);
+                System.arraycopy(_children, index + 1, _children, index, _childCount - index);
+                _children[_childCount] = null;
+            }
+        }
+
+        /**
+         * Swap a child for one whose label starts with the same character.
+         */
+        void replaceChild(Node child, Node replacement) {
+            _children[Arrays.binarySearch(_firsts, 0, _childCount, child._label.charAt(0))] = replacement;
+        }
+
+        /**
+         * Split a child's edge, inserting a node after the first characters of its label.
+         *
+         * @return the inserted node.
+         */
+        Node split(Node child, int length) {
+            int index = Arrays.binarySearch(_firsts, 0, _childCount, child._label.charAt(0));
+            Node middle = new Node(child._label.substring(0, length));
+            child._label = child._label.substring(length);
+            middle.addChild(child);
+            _children[index] = middle;
+            return middle;
+        }
+
+        /**
+         * @return the only child, its label extended with this node's.
+         */
+        Node mergeWithChild() {
+            Node child = _children[0];
+            child._label = _label + child._label;
+            return child;
+        }
+
+        boolean isEmpty() {
+            return _childCount == 0 && _resource == null && _watchers == null;
+        }
+
+        void pushChildren(ArrayDeque<Node> pending) {
+            for (int i = 0; i < _childCount; i++) {
+                pending.push(_children[i]);
+            }
+        }
+
+        /**
+         * Collect the resources of this node and every node below it, without recursing so long keys can not
+         * overflow the stack.
+         */
+        void collectResources(List<Resource> resources) {
+            ArrayDeque<Node> pending = new ArrayDeque<>();
+            pending.push(this);
+            while (!pending.isEmpty()) {
+                Node node = pending.pop();
+                if (node._resource != null) {
+                    resources.add(node._resource);
+                }
+                node.pushChildren(pending);
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.willkamp.ether;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in power of two nanosecond buckets.
+ */
+class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+    private final StripedCounter _totalNanos = new StripedCounter();
+    private final AtomicLong _maxNanos = new AtomicLong();
+
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        _counts.incrementAndGet(Math.min(BUCKETS - 1, BUCKETS - Long.numberOfLeadingZeros(nanos)));
+        _totalNanos.add(nanos);
+        long max;
+        while (nanos > (max = _maxNanos.get())) {
+            if (_maxNanos.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    EtherStats.Latency snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = _counts.get(i);
+        }
+        return new EtherStats.Latency(counts, _totalNanos.sum(), _maxNanos.get());
+    }
+}
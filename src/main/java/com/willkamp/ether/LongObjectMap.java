@@ -0,0 +1,163 @@
+package com.willkamp.ether;
+
+import java.util.Collection;
+
+/**
+ * Open addressing hash map from primitive {@code long} keys to objects, so neither keys nor lookups are boxed.
+ * <p>
+ * Collisions are resolved by linear probing and removals shift the following entries back instead of leaving
+ * tombstones, so lookups never degrade after churn. The key 0 marks a free slot and can not be stored, values must not
+ * be null. Not thread safe.
+ */
+class LongObjectMap<V> {
+
+    private static final int MAX_LOAD_PERCENT = 60;
+
+    private long[] _keys;
+    private Object[] _values;
+    private int _mask;
+    private int _size;
+    private int _resizeAt;
+
+    LongObjectMap() {
+        this(16);
+    }
+
+    /**
+     * @param capacity the number of entries to size the table for.
+     */
+    LongObjectMap(int capacity) {
+        int length = 2;
+        while (length * MAX_LOAD_PERCENT / 100 < capacity) {
+            length <<= 1;
+        }
+        allocate(length);
+    }
+
+    private void allocate(int length) {
+        _keys = new long[length];
+        _values = new Object[length];
+        _mask = length - 1;
+        _resizeAt = length * MAX_LOAD_PERCENT / 100;
+    }
+
+    private int slotFor(long key) {
+        long hash = key * 0x9e3779b97f4a7c15L;
+        return (int) (hash ^ (hash >>> 32)) & _mask;
+    }
+
+    V get(long key) {
+        int slot = slotFor(key);
+        long found;
+        while ((found = _keys[slot]) != 0) {
+            if (found == key) {
+                //noinspection unchecked
+                return (V) _values[slot];
+            }
+            slot = (slot + 1) & _mask;
+        }
+        return null;
+    }
+
+    /**
+     * @return the previous value or null if there was none.
+     */
+    V put(long key, V value) {
+        if (key == 0) {
+            throw new IllegalArgumentException("the key 0 can not be stored");
+        }
+        int slot = slotFor(key);
+        long found;
+        while ((found = _keys[slot]) != 0) {
+            if (found == key) {
+                //noinspection unchecked
+                V previous = (V) _values[slot];
+                _values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & _mask;
+        }
+        _keys[slot] = key;
+        _values[slot] = value;
+        if (++_size > _resizeAt) {
+            resize();
+        }
+        return null;
+    }
+
+    /**
+     * @return the removed value or null if there was none.
+     */
+    V remove(long key) {
+        int slot = slotFor(key);
+        long found;
+        while ((found = _keys[slot]) != 0) {
+            if (found == key) {
+                //noinspection unchecked
+                V removed = (V) _values[slot];
+                shiftBack(slot);
+                _size--;
+                return removed;
+            }
+            slot = (slot + 1) & _mask;
+        }
+        return null;
+    }
+
+    /**
+     * Fill the freed slot with the next entry of the probe sequence that may move there, until a free slot is reached.
+     */
+    private void shiftBack(int gap) {
+        int slot = (gap + 1) & _mask;
+        long key;
+        while ((key = _keys[slot]) != 0) {
+            int home = slotFor(key);
+            // the entry can move if the gap lies between its home slot and its current slot
+            if (((slot - home) & _mask) >= ((slot - gap) & _mask)) {
+                _keys[gap] = key;
+                _values[gap] = _values[slot];
+                gap = slot;
+            }
+            slot = (slot + 1) & _mask;
+        }
+        _keys[gap] = 0;
+        _values[gap] = null;
+    }
+
+    private void resize() {
+        long[] keys = _keys;
+        Object[] values = _values;
+        allocate(keys.length << 1);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                int slot = slotFor(keys[i]);
+                while (_keys[slot] != 0) {
+                    slot = (slot + 1) & _mask;
+                }
+                _keys[slot] = keys[i];
+                _values[slot] = values[i];
+            }
+        }
+    }
+
+    int size() {
+        return _size;
+    }
+
+    /**
+     * Remove every entry.
+     *
+     * @param removed the collection the removed values are added to.
+     */
+    void clear(Collection<? super V> removed) {
+        for (int i = 0; i < _keys.length; i++) {
+            if (_keys[i] != 0) {
+                //noinspection unchecked
+                removed.add((V) _values[i]);
+                _keys[i] = 0;
+                _values[i] = null;
+            }
+        }
+        _size = 0;
+    }
+}
@@ -0,0 +1,92 @@
+package com.willkamp.ether;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A transport between nodes in the same process. Every node receives its frames in order on a thread of its own, as
+ * it would from a network, and hears of every other node that closes its transport.
+ */
+@SuppressWarnings("WeakerAccess")
+public class LoopbackTransport implements Transport {
+
+    private final Network _network;
+    private String _localNode;
+    private Receiver _receiver;
+    private ExecutorService _executor;
+
+    /**
+     * @param network the network shared by the transports of the nodes that talk to each other.
+     */
+    public LoopbackTransport(Network network) {
+        _network = network;
+    }
+
+    @Override
+    public synchronized void start(final String localNode, Receiver receiver) {
+        _localNode = localNode;
+        _receiver = receiver;
+        _executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ether-loopback-" + localNode);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        if (_network._transports.putIfAbsent(localNode, this) != null) {
+            _executor.shutdown();
+            throw new IllegalStateException(localNode + " is already on the network");
+        }
+    }
+
+    @Override
+    public void send(String toNode, final byte[] frame) {
+        final LoopbackTransport target = _network._transports.get(toNode);
+        if (target == null) {
+            // like a network, frames to an unknown node are lost
+            return;
+        }
+        final String fromNode = _localNode;
+        try {
+            target._executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    target._receiver.receive(fromNode, frame);
+                }
+            });
+        } catch (RejectedExecutionException ignored) {
+            // the target closed
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (_executor != null && _network._transports.remove(_localNode, this)) {
+            _executor.shutdown();
+            final String fromNode = _localNode;
+            for (final LoopbackTransport target : _network._transports.values()) {
+                try {
+                    target._executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            target._receiver.disconnected(fromNode);
+                        }
+                    });
+                } catch (RejectedExecutionException ignored) {
+                    // the target closed
+                }
+            }
+        }
+    }
+
+    /**
+     * The nodes reachable through loopback transports.
+     */
+    public static final class Network {
+        private final ConcurrentHashMap<String, LoopbackTransport> _transports = new ConcurrentHashMap<>();
+    }
+}
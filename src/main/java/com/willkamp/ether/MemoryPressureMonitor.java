@@ -0,0 +1,116 @@
+package com.willkamp.ether;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Purges the stores watching the heap when a heap pool's usage crosses its threshold, either as it grows or as it is
+ * left after a collection.
+ * <p>
+ * Pool thresholds are shared by the whole JVM, so a single monitor serves every store and the threshold set last
+ * applies to all of them. The monitor only listens, and only owns the thresholds, while a store watches the heap: the
+ * thresholds found when the first store starts watching are put back and the listener removed when the last one stops.
+ * Only stores that watch the heap load this class, the rest never touch the management API.
+ */
+class MemoryPressureMonitor implements NotificationListener {
+
+    private static MemoryPressureMonitor __instance;
+
+    private final Set<EtherImpl> _stores = new CopyOnWriteArraySet<>();
+    // the usage and collection usage thresholds of each heap pool before the first store watched, -1 if unsupported
+    private final Map<MemoryPoolMXBean, long[]> _previousThresholds = new HashMap<>();
+
+    static synchronized MemoryPressureMonitor instance() {
+        if (__instance == null) {
+            __instance = new MemoryPressureMonitor();
+        }
+        return __instance;
+    }
+
+    /**
+     * @param threshold the share of each heap pool's maximum that triggers a purge.
+     */
+    synchronized void watch(EtherImpl store, double threshold) {
+        if (_stores.isEmpty()) {
+            for (MemoryPoolMXBean pool : heapPools()) {
+                _previousThresholds.put(pool, new long[]{
+                        pool.isUsageThresholdSupported() ? pool.getUsageThreshold() : -1,
+                        pool.isCollectionUsageThresholdSupported() ? pool.getCollectionUsageThreshold() : -1});
+            }
+            emitter().addNotificationListener(this, null, null);
+        }
+        _stores.add(store);
+        double share = Math.min(threshold, 1.0);
+        for (MemoryPoolMXBean pool : heapPools()) {
+            long bytes = (long) (pool.getUsage().getMax() * share);
+            setThresholds(pool, bytes, bytes);
+        }
+    }
+
+    synchronized void unwatch(EtherImpl store) {
+        if (!_stores.remove(store) || !_stores.isEmpty()) {
+            return;
+        }
+        try {
+            emitter().removeNotificationListener(this);
+        } catch (ListenerNotFoundException ignored) {
+        }
+        for (Map.Entry<MemoryPoolMXBean, long[]> previous : _previousThresholds.entrySet()) {
+            setThresholds(previous.getKey(), previous.getValue()[0], previous.getValue()[1]);
+        }
+        _previousThresholds.clear();
+    }
+
+    private static NotificationEmitter emitter() {
+        return (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+    }
+
+    /**
+     * @return the heap pools with a known maximum size.
+     */
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getUsage().getMax() > 0) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+
+    /**
+     * @param usage           the usage threshold in bytes, ignored if negative.
+     * @param collectionUsage the collection usage threshold in bytes, ignored if negative.
+     */
+    private static void setThresholds(MemoryPoolMXBean pool, long usage, long collectionUsage) {
+        if (usage >= 0 && pool.isUsageThresholdSupported()) {
+            pool.setUsageThreshold(usage);
+        }
+        if (collectionUsage >= 0 && pool.isCollectionUsageThresholdSupported()) {
+            pool.setCollectionUsageThreshold(collectionUsage);
+        }
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        String type = notification.getType();
+        if (MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(type)
+                || MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(type)) {
+            for (EtherImpl store : _stores) {
+                store.purgeForMemoryPressure();
+            }
+        }
+    }
+}
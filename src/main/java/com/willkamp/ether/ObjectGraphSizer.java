@@ -0,0 +1,167 @@
+package com.willkamp.ether;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Approximates the heap retained by a resource by walking the fields of its object graph.
+ * <p>
+ * Sizes assume a 64 bit JVM with compressed references and ignore field packing. Fields of classes the JVM will not
+ * open to reflection are counted shallowly, except for collections and maps which are walked through their public API.
+ * Classes and enum constants are shared and not counted, and the walk stops after a fixed number of objects so a
+ * resource linked into a large shared graph is not charged for all of it.
+ */
+class ObjectGraphSizer implements Sizer {
+
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+    private static final int ALIGNMENT = 8;
+    // a hash map entry, its key and value are walked separately
+    private static final int MAP_ENTRY = 32;
+    private static final int MAX_OBJECTS = 4096;
+
+    private final ConcurrentHashMap<Class<?>, Layout> _layouts = new ConcurrentHashMap<>();
+
+    @Override
+    public long sizeOf(String key, Object resource) {
+        if (resource instanceof OffHeapArena.Block) {
+            // the payload is off the heap
+            return layout(resource.getClass())._shallowSize;
+        }
+        Map<Object, Boolean> visited = new IdentityHashMap<>();
+        ArrayDeque<Object> pending = new ArrayDeque<>();
+        push(resource, visited, pending);
+        long size = 0;
+        while (!pending.isEmpty()) {
+            Object object = pending.pop();
+            Class<?> type = object.getClass();
+            if (type.isArray()) {
+                size += sizeOfArray(object, visited, pending);
+                continue;
+            }
+            Layout layout = layout(type);
+            size += layout._shallowSize;
+            if (layout._references != null) {
+                for (Field field : layout._references) {
+                    try {
+                        push(field.get(object), visited, pending);
+                    } catch (IllegalAccessException ignored) {
+                    }
+                }
+            } else if (object instanceof Collection || object instanceof Map) {
+                size += sizeOfContainer(object, visited, pending);
+            } else if (object instanceof String) {
+                size += align(ARRAY_HEADER + 2L * ((String) object).length());
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the estimated size of a collection's or map's backing storage, its elements are walked separately.
+     */
+    private static long sizeOfContainer(Object container, Map<Object, Boolean> visited, ArrayDeque<Object> pending) {
+        try {
+            if (container instanceof Collection) {
+                Collection<?> collection = (Collection<?>) container;
+                for (Object element : collection) {
+                    push(element, visited, pending);
+                }
+                return align(ARRAY_HEADER + (long) REFERENCE * collection.size());
+            }
+            Map<?, ?> map = (Map<?, ?>) container;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                push(entry.getKey(), visited, pending);
+                push(entry.getValue(), visited, pending);
+            }
+            return align(ARRAY_HEADER + (long) REFERENCE * map.size()) + (long) MAP_ENTRY * map.size();
+        } catch (RuntimeException e) {
+            // modified while it was walked, what was reached so far is still counted
+            return 0;
+        }
+    }
+
+    private long sizeOfArray(Object array, Map<Object, Boolean> visited, ArrayDeque<Object> pending) {
+        Class<?> componentType = array.getClass().getComponentType();
+        int length = Array.getLength(array);
+        if (componentType.isPrimitive()) {
+            return align(ARRAY_HEADER + (long) primitiveSize(componentType) * length);
+        }
+        for (Object element : (Object[]) array) {
+            push(element, visited, pending);
+        }
+        return align(ARRAY_HEADER + (long) REFERENCE * length);
+    }
+
+    private static void push(Object object, Map<Object, Boolean> visited, ArrayDeque<Object> pending) {
+        if (object == null || object instanceof Class || object instanceof Enum || visited.size() >= MAX_OBJECTS) {
+            return;
+        }
+        if (visited.put(object, Boolean.TRUE) == null) {
+            pending.push(object);
+        }
+    }
+
+    private Layout layout(Class<?> type) {
+        Layout layout = _layouts.get(type);
+        if (layout == null) {
+            layout = new Layout(type);
+            _layouts.putIfAbsent(type, layout);
+        }
+        return layout;
+    }
+
+    private static long align(long size) {
+        return (size + ALIGNMENT - 1) & ~(ALIGNMENT - 1);
+    }
+
+    private static int primitiveSize(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == short.class || type == char.class) {
+            return 2;
+        }
+        return 1;
+    }
+
+    /**
+     * The shallow size of a class's instances and the reference fields to follow from them.
+     */
+    private static final class Layout {
+        final long _shallowSize;
+        // null if the fields can not be read
+        final List<Field> _references;
+
+        Layout(Class<?> type) {
+            long size = OBJECT_HEADER;
+            List<Field> references = new ArrayList<>();
+            boolean accessible = true;
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    Class<?> fieldType = field.getType();
+                    size += fieldType.isPrimitive() ? primitiveSize(fieldType) : REFERENCE;
+                    if (!fieldType.isPrimitive() && accessible) {
+                        try {
+                            field.setAccessible(true);
+                            references.add(field);
+                        } catch (RuntimeException e) {
+                            // a module that is not open to reflection
+                            accessible = false;
+                        }
+                    }
+                }
+            }
+            _shallowSize = align(size);
+            _references = accessible ? references : null;
+        }
+    }
+}
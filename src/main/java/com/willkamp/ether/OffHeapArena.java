@@ -0,0 +1,176 @@
+package com.willkamp.ether;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores binary payloads outside the Java heap, in direct buffers or in memory mapped files.
+ * <p>
+ * Payloads are copied into slabs by bumping an offset, a payload larger than a slab gets a slab of its own. The
+ * capacity of a slab is used once: releasing a block does not return its bytes to the arena, and there is no free
+ * list or compaction, because views handed out stay valid for as long as the observer keeps them and reused bytes
+ * would change under them. Once a slab is full and every block in it has been released the arena lets go of it, and
+ * its memory is freed when the garbage collector reclaims the last view still referencing it, until then direct slabs
+ * count against the JVM's direct memory limit. A slab with a single block still held keeps all of its capacity, so
+ * payloads held for long pin the space of those replaced around them.
+ */
+class OffHeapArena {
+
+    private final File _directory;
+    private final int _slabSize;
+    private final AtomicInteger _liveSlabs = new AtomicInteger();
+    private final AtomicLong _reservedBytes = new AtomicLong();
+    private Slab _current;
+
+    /**
+     * @param directory the directory to map slab files in or null to allocate direct buffers.
+     * @param slabSize  the size of a slab in bytes.
+     */
+    OffHeapArena(File directory, int slabSize) {
+        if (slabSize <= 0) {
+            throw new IllegalArgumentException("slabSize must be positive");
+        }
+        _directory = directory;
+        _slabSize = slabSize;
+    }
+
+    /**
+     * Copy a payload's remaining bytes into the arena, leaving the payload's position untouched.
+     */
+    Block allocate(ByteBuffer payload) {
+        int length = payload.remaining();
+        Slab slab;
+        int offset;
+        if (length > _slabSize) {
+            // the slab is never filled further, its block holds the only count
+            slab = new Slab(newBuffer(length));
+            offset = 0;
+        } else {
+            synchronized (this) {
+                if (_current == null || _current._buffer.capacity() - _current._position < length) {
+                    if (_current != null) {
+                        _current.release();
+                    }
+                    _current = new Slab(newBuffer(_slabSize));
+                }
+                slab = _current;
+                offset = slab._position;
+                slab._position += length;
+                slab._live.incrementAndGet();
+            }
+        }
+        // blocks never overlap, so the copy needs no lock
+        ByteBuffer region = slab._buffer.duplicate();
+        region.limit(offset + length).position(offset);
+        region = region.slice();
+        region.put(payload.duplicate());
+        region.clear();
+        return new Block(slab, region.asReadOnlyBuffer());
+    }
+
+    /**
+     * @return the number of slabs that still hold live blocks or are being filled.
+     */
+    int liveSlabs() {
+        return _liveSlabs.get();
+    }
+
+    /**
+     * @return the bytes reserved by live slabs.
+     */
+    long reservedBytes() {
+        return _reservedBytes.get();
+    }
+
+    private ByteBuffer newBuffer(int size) {
+        ByteBuffer buffer;
+        if (_directory == null) {
+            buffer = ByteBuffer.allocateDirect(size);
+        } else {
+            buffer = mapFile(size);
+        }
+        _liveSlabs.incrementAndGet();
+        _reservedBytes.addAndGet(size);
+        return buffer;
+    }
+
+    private ByteBuffer mapFile(int size) {
+        File file = null;
+        try {
+            file = File.createTempFile("ether-slab", ".bin", _directory);
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+                 FileChannel channel = randomAccessFile.getChannel()) {
+                // the mapping outlives the channel and the file's name
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("could not map a slab in " + _directory, e);
+        } finally {
+            if (file != null && !file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * @return the item as observers see it, a fresh read-only view if it is stored in an arena.
+     */
+    static Object expose(Object item) {
+        return item instanceof Block ? ((Block) item).view() : item;
+    }
+
+    private final class Slab {
+        final ByteBuffer _buffer;
+        // the arena holds one count while the slab is being filled
+        final AtomicInteger _live = new AtomicInteger(1);
+        // guarded by the arena
+        int _position;
+
+        Slab(ByteBuffer buffer) {
+            _buffer = buffer;
+        }
+
+        void release() {
+            if (_live.decrementAndGet() == 0) {
+                _liveSlabs.decrementAndGet();
+                _reservedBytes.addAndGet(-_buffer.capacity());
+            }
+        }
+    }
+
+    /**
+     * A payload stored in a slab.
+     */
+    final class Block {
+        private final Slab _slab;
+        private final ByteBuffer _region;
+        private final AtomicBoolean _released = new AtomicBoolean();
+
+        private Block(Slab slab, ByteBuffer region) {
+            _slab = slab;
+            _region = region;
+        }
+
+        /**
+         * @return a read-only view of the payload with its own position and limit.
+         */
+        ByteBuffer view() {
+            return _region.duplicate();
+        }
+
+        /**
+         * Give the block's space back once its resource is no longer held. Releasing twice has no effect.
+         */
+        void release() {
+            if (_released.compareAndSet(false, true)) {
+                _slab.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.willkamp.ether;
+
+/**
+ * Why a held resource left the store.
+ */
+public enum RemovalCause {
+    /**
+     * Its retain time ran out or, for a resource held while accessed, it went unaccessed for too long.
+     */
+    EXPIRED,
+
+    /**
+     * It was fetched or observed by the observer that used it up, the observer now owns it.
+     */
+    CONSUMED,
+
+    /**
+     * It was evicted to stay within the maximum size or weight or to free memory.
+     */
+    EVICTED,
+
+    /**
+     * Another resource was held with its key.
+     */
+    REPLACED,
+
+    /**
+     * The store was flushed or closed.
+     */
+    FLUSHED,
+
+    /**
+     * Its softly or weakly held item was garbage collected, the removal carries no resource.
+     */
+    COLLECTED
+}
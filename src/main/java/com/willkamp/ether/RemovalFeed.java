@@ -0,0 +1,90 @@
+package com.willkamp.ether;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Queues the removals of a store and reports them to its {@link RemovalListener} on an executor.
+ * <p>
+ * Removing only costs the store an enqueue. A single task drains the queue at a time, reporting up to a batch of
+ * removals before it hands the executor back, so removals are reported in order and a burst of them costs one task per
+ * batch rather than one per removal. An executor that rejects the feed, such as one that was shut down, leaves the
+ * removing thread to report the queue itself.
+ */
+class RemovalFeed implements Runnable {
+
+    private static final int BATCH_SIZE = 256;
+
+    final RemovalListener _listener;
+    private final Executor _executor;
+    private final ConcurrentLinkedQueue<Removal> _pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean _scheduled = new AtomicBoolean();
+
+    RemovalFeed(RemovalListener listener, Executor executor) {
+        _listener = listener;
+        _executor = executor;
+    }
+
+    void add(String key, Object resource, RemovalCause cause) {
+        _pending.offer(new Removal(key, resource, cause));
+        schedule();
+    }
+
+    private void schedule() {
+        while (!_pending.isEmpty() && _scheduled.compareAndSet(false, true)) {
+            try {
+                _executor.execute(this);
+                return;
+            } catch (RejectedExecutionException e) {
+                drainOnCaller();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            Removal removal;
+            for (int i = 0; i < BATCH_SIZE && (removal = _pending.poll()) != null; i++) {
+                _listener.onRemoved(removal._key, removal._resource, removal._cause);
+            }
+        } finally {
+            // a listener that throws only loses the removal it threw on
+            _scheduled.set(false);
+            schedule();
+        }
+    }
+
+    /**
+     * Report a batch on the removing thread, a listener that throws must not fail the removal it is reported from.
+     */
+    private void drainOnCaller() {
+        try {
+            Removal removal;
+            for (int i = 0; i < BATCH_SIZE && (removal = _pending.poll()) != null; i++) {
+                try {
+                    _listener.onRemoved(removal._key, removal._resource, removal._cause);
+                } catch (RuntimeException e) {
+                    Thread currentThread = Thread.currentThread();
+                    currentThread.getUncaughtExceptionHandler().uncaughtException(currentThread, e);
+                }
+            }
+        } finally {
+            _scheduled.set(false);
+        }
+    }
+
+    private static final class Removal {
+        final String _key;
+        final Object _resource;
+        final RemovalCause _cause;
+
+        Removal(String key, Object resource, RemovalCause cause) {
+            _key = key;
+            _resource = resource;
+            _cause = cause;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.willkamp.ether;
+
+/**
+ * Notified when a resource leaves the store, to release what the resource holds outside of it.
+ * <p>
+ * Only resources that were stored are reported, so the listener is not told of
+ * <ul>
+ * <li>a resource handed straight to the observers waiting for its key, which never enters the store.</li>
+ * <li>a resource held with a handle from {@link EtherStore#createHandle()}, which lives in the handle table rather
+ * than under a key.</li>
+ * </ul>
+ */
+public interface RemovalListener {
+
+    /**
+     * Called on the store's removal executor, never under a lock of the store. Removals are reported in the order they
+     * happened. Once the executor rejects a task the removals are reported on the thread that removed them, which may
+     * be the store's timer thread.
+     *
+     * @param key      the removed resource's key.
+     * @param resource the removed resource, null if it was {@link RemovalCause#COLLECTED}.
+     * @param cause    why the resource was removed.
+     */
+    void onRemoved(String key, Object resource, RemovalCause cause);
+}
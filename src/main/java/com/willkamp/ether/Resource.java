@@ -1,16 +1,210 @@
 package com.willkamp.ether;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 /**
  * Internal resource data store.
  */
 class Resource<T> {
+    private static final AtomicLongFieldUpdater<Resource> ACCESSED_UPDATER =
+            AtomicLongFieldUpdater.newUpdater(Resource.class, "_accessedAt");
+    private static final AtomicIntegerFieldUpdater<Resource> REMAINING_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(Resource.class, "_remainingObservations");
+    private static final AtomicLongFieldUpdater<Resource> SIZE_UPDATER =
+            AtomicLongFieldUpdater.newUpdater(Resource.class, "_size");
+    private static final long SIZE_RELEASED = -1;
+
     final String _key;
     final T _resource;
+    final Reference<T> _reference;
     final RetainPolicy _retainPolicy;
+    volatile ExpiryWheel.Timeout _expiry;
+    // the expiry shared with the resources held in the same batch, set once the batch is stored
+    volatile BatchExpiry _batchExpiry;
+    int _batchIndex;
+
+    // set before the resource is stored
+    long _expiresAt;
+    long _logId;
+    long _idleMillis;
+    long _maxExpiresAt;
+
+    // written without ordering by readers of a sliding resource, the expiry only needs an eventually visible time
+    private volatile long _accessedAt;
+    // the observations a counted resource has left, set before it is stored
+    volatile int _remainingObservations;
+    // the estimated bytes counted in the store's total, 0 until counted and SIZE_RELEASED once removed
+    private volatile long _size;
+
+    // set once the resource leaves the store, before its removal is queued in the store's SegmentedLru
+    volatile boolean _evictionRemoved;
+    // guarded by the store's SegmentedLru
+    int _weight = 1;
+    int _evictionState;
+    Resource _evictionPrev;
+    Resource _evictionNext;
 
     Resource(String key, T resource, RetainPolicy retainPolicy) {
         _key = key;
         _resource = resource;
+        _reference = null;
         _retainPolicy = retainPolicy;
     }
+
+    /**
+     * Create a resource that holds its item through a reference enqueued on the queue once the item is collected.
+     */
+    Resource(String key, T resource, RetainPolicy retainPolicy, ReferenceQueue<Object> queue) {
+        _key = key;
+        _resource = null;
+        _retainPolicy = retainPolicy;
+        if (retainPolicy == RetainPolicy.SOFT) {
+            _reference = new SoftResourceReference<>(resource, queue, this);
+        } else {
+            _reference = new WeakResourceReference<>(resource, queue, this);
+        }
+    }
+
+    /**
+     * @return the item, null if it was held through a reference that has been cleared.
+     */
+    T value() {
+        return _reference == null ? _resource : _reference.get();
+    }
+
+    /**
+     * Give back the off-heap space the item is stored in, if any.
+     */
+    void releaseStorage() {
+        if (_resource instanceof OffHeapArena.Block) {
+            ((OffHeapArena.Block) _resource).release();
+        }
+    }
+
+    /**
+     * Extend a {@link RetainPolicy#SLIDING} resource's life.
+     *
+     * @param now the store's time in milliseconds.
+     */
+    void recordAccess(long now) {
+        if (_accessedAt < now) {
+            ACCESSED_UPDATER.lazySet(this, now);
+        }
+    }
+
+    /**
+     * Take one observation from a {@link RetainPolicy#COUNTED} resource's budget.
+     *
+     * @return the observations left after this one or -1 if the budget was already spent.
+     */
+    int observe() {
+        while (true) {
+            int remaining = _remainingObservations;
+            if (remaining <= 0) {
+                return -1;
+            }
+            if (REMAINING_UPDATER.compareAndSet(this, remaining, remaining - 1)) {
+                return remaining - 1;
+            }
+        }
+    }
+
+    /**
+     * Give observations back to a {@link RetainPolicy#COUNTED} resource's budget, unless it was already spent.
+     *
+     * @return false if the budget was spent, the resource is then not held or about to be removed.
+     */
+    boolean returnObservations(int observations) {
+        while (true) {
+            int remaining = _remainingObservations;
+            if (remaining <= 0) {
+                return false;
+            }
+            if (REMAINING_UPDATER.compareAndSet(this, remaining, remaining + observations)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return when a {@link RetainPolicy#SLIDING} resource expires unless it is accessed again.
+     */
+    long slidingExpiresAt() {
+        long expiresAt = _accessedAt + _idleMillis;
+        return _maxExpiresAt == 0 ? expiresAt : Math.min(expiresAt, _maxExpiresAt);
+    }
+
+    /**
+     * Record the resource's estimated size unless it was already counted or removed.
+     *
+     * @return true if the size should be added to the store's total.
+     */
+    boolean countSize(long size) {
+        return size > 0 && SIZE_UPDATER.compareAndSet(this, 0, size);
+    }
+
+    /**
+     * Mark the resource as removed.
+     *
+     * @return the size to take off the store's total, 0 if it was never counted.
+     */
+    long releaseSize() {
+        long size = SIZE_UPDATER.getAndSet(this, SIZE_RELEASED);
+        return size > 0 ? size : 0;
+    }
+
+    /**
+     * @return the estimated size counted for the resource, 0 if it was not counted.
+     */
+    long size() {
+        long size = _size;
+        return size > 0 ? size : 0;
+    }
+
+    void cancelExpiry() {
+        if (_expiry != null) {
+            _expiry.cancel();
+        }
+        BatchExpiry batchExpiry = _batchExpiry;
+        if (batchExpiry != null) {
+            batchExpiry.leave(this);
+        }
+    }
+
+    interface ResourceReference {
+        Resource owner();
+    }
+
+    private static final class SoftResourceReference<T> extends SoftReference<T> implements ResourceReference {
+        private final Resource _owner;
+
+        SoftResourceReference(T referent, ReferenceQueue<Object> queue, Resource owner) {
+            super(referent, queue);
+            _owner = owner;
+        }
+
+        @Override
+        public Resource owner() {
+            return _owner;
+        }
+    }
+
+    private static final class WeakResourceReference<T> extends WeakReference<T> implements ResourceReference {
+        private final Resource _owner;
+
+        WeakResourceReference(T referent, ReferenceQueue<Object> queue, Resource owner) {
+            super(referent, queue);
+            _owner = owner;
+        }
+
+        @Override
+        public Resource owner() {
+            return _owner;
+        }
+    }
 }
@@ -0,0 +1,21 @@
+package com.willkamp.ether;
+
+/**
+ * Receives a resource once it is held, without going through an {@link rx.Observable}. Exactly one of the methods is
+ * called, unless the wait is cancelled first.
+ *
+ * @param <T> the resource's type.
+ */
+public interface ResourceCallback<T> {
+
+    /**
+     * @param resource the resource.
+     */
+    void onResource(T resource);
+
+    /**
+     * @param error a {@link java.util.concurrent.TimeoutException} if the resource was not held in time or an
+     *              {@link IllegalStateException} if the store closed.
+     */
+    void onFailure(Throwable error);
+}
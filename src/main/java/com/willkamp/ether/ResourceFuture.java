@@ -0,0 +1,137 @@
+package com.willkamp.ether;
+
+import java.util.concurrent.*;
+
+/**
+ * A future parked directly in the store until a resource with its key is held, optionally completing a
+ * {@link ResourceCallback} as well. A resource that is already held completes the future before it is returned, with
+ * no waiting or thread hand-off.
+ */
+class ResourceFuture<T> extends Waiter implements Future<T> {
+
+    private static final int PENDING = 0;
+    private static final int DELIVERED = 1;
+    private static final int FAILED = 2;
+    private static final int CANCELLED = 3;
+
+    private final EtherImpl _store;
+    private final ResourceCallback<? super T> _callback;
+    // guarded by this
+    private int _state = PENDING;
+    private T _resource;
+    private Throwable _error;
+
+    /**
+     * @param callback the callback to complete along with the future or null.
+     */
+    ResourceFuture(EtherImpl store, String key, ResourceCallback<? super T> callback) {
+        super(key, null);
+        _store = store;
+        _callback = callback;
+    }
+
+    @Override
+    synchronized boolean isUnsubscribed() {
+        return _state != PENDING;
+    }
+
+    @Override
+    boolean deliver(Object item) {
+        //noinspection unchecked
+        T resource = (T) OffHeapArena.expose(item);
+        synchronized (this) {
+            if (_state != PENDING) {
+                return false;
+            }
+            _resource = resource;
+            _state = DELIVERED;
+            notifyAll();
+        }
+        if (_callback != null) {
+            _callback.onResource(resource);
+        }
+        return true;
+    }
+
+    @Override
+    void fail(Throwable error) {
+        synchronized (this) {
+            if (_state != PENDING) {
+                return;
+            }
+            _error = error;
+            _state = FAILED;
+            notifyAll();
+        }
+        if (_callback != null) {
+            _callback.onFailure(error);
+        }
+    }
+
+    @Override
+    void complete() {
+        fail(new IllegalStateException("the store is closed"));
+    }
+
+    /**
+     * Stop waiting, the callback is not called. A future a hold already claimed can not be cancelled, so a once
+     * observed resource handed to it is never dropped.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (isDone() || !_store.removeWaiter(this)) {
+            return false;
+        }
+        synchronized (this) {
+            if (_state != PENDING) {
+                return false;
+            }
+            _state = CANCELLED;
+            notifyAll();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return _state == CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return _state != PENDING;
+    }
+
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (_state == PENDING) {
+            wait();
+        }
+        return result();
+    }
+
+    @Override
+    public synchronized T get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long remaining = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + remaining;
+        while (_state == PENDING) {
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            remaining = deadline - System.nanoTime();
+        }
+        return result();
+    }
+
+    private T result() throws ExecutionException {
+        if (_state == CANCELLED) {
+            throw new CancellationException();
+        }
+        if (_state == FAILED) {
+            throw new ExecutionException(_error);
+        }
+        return _resource;
+    }
+}
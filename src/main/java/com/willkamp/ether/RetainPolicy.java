@@ -2,5 +2,9 @@ package com.willkamp.ether;
 
 enum RetainPolicy {
     TIMED,
-    ONCE_OBSERVED
+    ONCE_OBSERVED,
+    SOFT,
+    WEAK,
+    SLIDING,
+    COUNTED
 }
@@ -0,0 +1,244 @@
+package com.willkamp.ether;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Segmented LRU eviction policy bounding the total weight of held resources.
+ * <p>
+ * New resources enter a probation segment and are promoted to a protected segment when they are read again, so a
+ * burst of resources that are never read only displaces other unread resources. Victims are taken from the tail of
+ * probation first. Every operation is O(1).
+ * <p>
+ * Stores and removals are queued in a write buffer and reads in a lossy ring buffer, both replayed by whichever
+ * thread takes the policy lock, so holds and reads only take the lock when it is free. Reads are replayed before the
+ * writes queued with them, and a write only waits for the lock once the write buffer fills up, so the weight can not
+ * run far past its bound. A removal queued before its store, from a thread that raced the holder, still wins.
+ */
+class SegmentedLru {
+
+    static final int STATE_NEW = 0;
+    static final int STATE_PROBATION = 1;
+    static final int STATE_PROTECTED = 2;
+    static final int STATE_REMOVED = 3;
+
+    private static final double PROTECTED_RATIO = 0.8;
+    private static final int READ_BUFFER_SIZE = 128;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    private static final int READ_DRAIN_THRESHOLD = 32;
+    private static final int WRITE_BUFFER_LIMIT = 1024;
+
+    final ReentrantLock _lock = new ReentrantLock();
+    private final Resource _probation = sentinel();
+    private final Resource _protected = sentinel();
+    private final AtomicReferenceArray<Resource> _readBuffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+    private final AtomicLong _readTail = new AtomicLong();
+    // advanced under the lock, read without it to tell how full the read buffer is
+    private volatile long _readHead;
+    private final ConcurrentLinkedQueue<Resource> _writeBuffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger _pendingWrites = new AtomicInteger();
+    private long _maximumWeight;
+    private long _weight;
+    private long _protectedWeight;
+
+    SegmentedLru(long maximumWeight) {
+        _maximumWeight = maximumWeight;
+    }
+
+    private static Resource sentinel() {
+        Resource sentinel = new Resource<>(null, null, null);
+        sentinel._evictionPrev = sentinel;
+        sentinel._evictionNext = sentinel;
+        return sentinel;
+    }
+
+    /**
+     * Track a newly stored resource.
+     *
+     * @return the resources evicted to make room, already untracked, or null if there were none or another thread
+     * replays the write and evicts them.
+     */
+    List<Resource> add(Resource resource) {
+        return write(resource);
+    }
+
+    /**
+     * Stop tracking a resource that left the store.
+     *
+     * @return the resources evicted to make room for the stores replayed with the removal, already untracked, or null.
+     */
+    List<Resource> remove(Resource resource) {
+        resource._evictionRemoved = true;
+        return write(resource);
+    }
+
+    private List<Resource> write(Resource resource) {
+        _writeBuffer.add(resource);
+        if (_pendingWrites.incrementAndGet() > WRITE_BUFFER_LIMIT) {
+            // the buffer is full, wait for the lock rather than let the weight run away
+            _lock.lock();
+            try {
+                return drain(null);
+            } finally {
+                _lock.unlock();
+            }
+        }
+        List<Resource> victims = null;
+        // the holder of the lock may have finished replaying before the write was queued
+        while (!_writeBuffer.isEmpty() && _lock.tryLock()) {
+            try {
+                victims = drain(victims);
+            } finally {
+                _lock.unlock();
+            }
+        }
+        return victims;
+    }
+
+    /**
+     * Record a read of a resource, dropped if the read buffer is full. A read that takes the lock also replays the
+     * writes queued by threads that lost the race for it.
+     *
+     * @return the resources evicted to make room for those writes, already untracked, or null.
+     */
+    List<Resource> recordAccess(Resource resource) {
+        long head = _readHead;
+        long tail = _readTail.get();
+        long pending = tail - head;
+        if (pending < READ_BUFFER_SIZE && _readTail.compareAndSet(tail, tail + 1)) {
+            _readBuffer.lazySet((int) (tail & READ_BUFFER_MASK), resource);
+            pending++;
+        }
+        if ((pending >= READ_DRAIN_THRESHOLD || _pendingWrites.get() > 0) && _lock.tryLock()) {
+            try {
+                if (_pendingWrites.get() > 0) {
+                    return drain(null);
+                }
+                drainReads();
+            } finally {
+                _lock.unlock();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the resources evicted to fit the new maximum, already untracked, or null if there were none.
+     */
+    List<Resource> setMaximumWeight(long maximumWeight) {
+        _lock.lock();
+        try {
+            _maximumWeight = maximumWeight;
+            return drain(null);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Replay the buffered reads and writes and evict down to the maximum weight. Must hold the lock.
+     *
+     * @param victims the victims collected so far or null.
+     */
+    private List<Resource> drain(List<Resource> victims) {
+        drainReads();
+        Resource resource;
+        while ((resource = _writeBuffer.poll()) != null) {
+            _pendingWrites.decrementAndGet();
+            if (resource._evictionRemoved) {
+                if (resource._evictionState == STATE_PROBATION || resource._evictionState == STATE_PROTECTED) {
+                    untrack(resource);
+                }
+                resource._evictionState = STATE_REMOVED;
+            } else if (resource._evictionState == STATE_NEW) {
+                resource._evictionState = STATE_PROBATION;
+                linkFirst(_probation, resource);
+                _weight += resource._weight;
+            }
+        }
+        return evict(victims);
+    }
+
+    /**
+     * Replay the buffered reads, stopping at a slot whose read is yet to be written. Must hold the lock.
+     */
+    private void drainReads() {
+        long head = _readHead;
+        long tail = _readTail.get();
+        while (head < tail) {
+            int index = (int) (head & READ_BUFFER_MASK);
+            Resource resource = _readBuffer.get(index);
+            if (resource == null) {
+                break;
+            }
+            _readBuffer.lazySet(index, null);
+            access(resource);
+            head++;
+        }
+        _readHead = head;
+    }
+
+    private void access(Resource resource) {
+        if (resource._evictionState == STATE_PROBATION) {
+            unlink(resource);
+            resource._evictionState = STATE_PROTECTED;
+            linkFirst(_protected, resource);
+            _protectedWeight += resource._weight;
+            long maximumProtected = (long) (_maximumWeight * PROTECTED_RATIO);
+            while (_protectedWeight > maximumProtected && _protected._evictionPrev != resource) {
+                Resource demoted = _protected._evictionPrev;
+                unlink(demoted);
+                _protectedWeight -= demoted._weight;
+                demoted._evictionState = STATE_PROBATION;
+                linkFirst(_probation, demoted);
+            }
+        } else if (resource._evictionState == STATE_PROTECTED) {
+            unlink(resource);
+            linkFirst(_protected, resource);
+        }
+    }
+
+    private List<Resource> evict(List<Resource> victims) {
+        while (_weight > _maximumWeight) {
+            Resource victim = _probation._evictionPrev != _probation ? _probation._evictionPrev
+                    : _protected._evictionPrev;
+            if (victim == _protected) {
+                break;
+            }
+            untrack(victim);
+            victim._evictionState = STATE_REMOVED;
+            if (victims == null) {
+                victims = new ArrayList<>();
+            }
+            victims.add(victim);
+        }
+        return victims;
+    }
+
+    private void untrack(Resource resource) {
+        unlink(resource);
+        _weight -= resource._weight;
+        if (resource._evictionState == STATE_PROTECTED) {
+            _protectedWeight -= resource._weight;
+        }
+    }
+
+    private static void linkFirst(Resource sentinel, Resource resource) {
+        resource._evictionPrev = sentinel;
+        resource._evictionNext = sentinel._evictionNext;
+        sentinel._evictionNext._evictionPrev = resource;
+        sentinel._evictionNext = resource;
+    }
+
+    private static void unlink(Resource resource) {
+        resource._evictionPrev._evictionNext = resource._evictionNext;
+        resource._evictionNext._evictionPrev = resource._evictionPrev;
+        resource._evictionPrev = null;
+        resource._evictionNext = null;
+    }
+}
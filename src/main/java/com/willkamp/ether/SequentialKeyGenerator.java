@@ -0,0 +1,55 @@
+package com.willkamp.ether;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Default {@link KeyGenerator} creating keys from a random instance prefix and a sequence number.
+ * <p>
+ * Each thread claims a block of sequence numbers from a shared counter and hands them out without any further
+ * synchronization. Keys have the form {@code ether:<instance>:<sequence>} where the instance part is random per
+ * generator, so they are unique within the process and will not collide with keys chosen by users.
+ */
+class SequentialKeyGenerator implements KeyGenerator {
+
+    private static final int BLOCK_SIZE = 1024;
+    private static final char[] DIGITS = "0123456789abcdefghijklmnopqrstuvwxyz".toCharArray();
+
+    private final char[] _prefix;
+    private final AtomicLong _nextBlock = new AtomicLong();
+    private final ThreadLocal<long[]> _threadBlock = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            // {next, limit}
+            return new long[2];
+        }
+    };
+
+    SequentialKeyGenerator() {
+        _prefix = ("ether:" + Long.toString(UUID.randomUUID().getMostSignificantBits() >>> 1, 36) + ":").toCharArray();
+    }
+
+    @Override
+    public String createUniqueKey() {
+        long[] block = _threadBlock.get();
+        if (block[0] == block[1]) {
+            block[0] = _nextBlock.getAndIncrement() * BLOCK_SIZE;
+            block[1] = block[0] + BLOCK_SIZE;
+        }
+        return format(block[0]++);
+    }
+
+    private String format(long sequence) {
+        char[] digits = new char[13];
+        int position = digits.length;
+        do {
+            digits[--position] = DIGITS[(int) (sequence % 36)];
+            sequence /= 36;
+        } while (sequence > 0);
+        int length = digits.length - position;
+        char[] key = new char[_prefix.length + length];
+        System.arraycopy(_prefix, 0, key, 0, _prefix.length);
+        System.arraycopy(digits, position, key, _prefix.length, length);
+        return new String(key);
+    }
+}
@@ -0,0 +1,20 @@
+package com.willkamp.ether;
+
+/**
+ * Estimates the heap retained by held resources, so a store can report its footprint and shrink under memory pressure.
+ */
+public interface Sizer {
+
+    /**
+     * Approximates a resource's size by walking its object graph, assuming a 64 bit JVM with compressed references.
+     * Measuring costs a walk of the graph at each hold, a sizer that knows its resources is cheaper and more accurate.
+     */
+    Sizer OBJECT_GRAPH = new ObjectGraphSizer();
+
+    /**
+     * @param key      the resource's key.
+     * @param resource the resource.
+     * @return the estimated size of the resource in bytes, must not be negative.
+     */
+    long sizeOf(String key, Object resource);
+}
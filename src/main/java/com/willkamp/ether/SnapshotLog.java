@@ -0,0 +1,424 @@
+package com.willkamp.ether;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only log of the resources held in a store, replayed to restore them after a restart.
+ * <p>
+ * Every stored resource is appended with an id, its retain policy and the time it expires, and every removal is
+ * appended with the id of the resource it removed, so a removal can never drop a newer resource held with the same
+ * key. Ids are reserved under the key's lock, in the order the key's resources are stored, while the records are
+ * appended once the lock is released, so the replay orders a key's records by id rather than by position and keeps the
+ * removal of a resource whose put comes later in the log. Appended records are queued and written by whichever
+ * appending thread takes the write lock, which flushes once for every record queued meanwhile, so the log survives
+ * the process once a hold returns but not the machine. A record cut short by a crash ends the replay, as does a length
+ * that runs past the end of the file, which is checked before anything is allocated for it. A log that fails to write
+ * closes itself and the store stops logging to it. Once more than
+ * half the records appended since the log was last rewritten are dead, the live ones are rewritten to a fresh file
+ * that atomically replaces the log.
+ */
+class SnapshotLog implements Closeable {
+
+    private static final int MAGIC = 0x45544852;
+    private static final int VERSION = 1;
+    private static final byte KIND_OBJECT = 1;
+    private static final byte KIND_BUFFER = 2;
+    private static final byte KIND_REMOVE = 3;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int DEFAULT_COMPACTION_THRESHOLD = 1024;
+
+    private final AtomicLong _nextId = new AtomicLong(1);
+    private final ConcurrentLinkedQueue<byte[]> _pending = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock _writeLock = new ReentrantLock();
+    private final int _compactionThreshold;
+    private volatile boolean _closed;
+    // guarded by the write lock
+    private DataOutputStream _out;
+    private File _file;
+    private boolean _committed;
+    private long _records;
+    private long _liveRecords;
+
+    private SnapshotLog(File file, DataOutputStream out, int compactionThreshold) {
+        _file = file;
+        _out = out;
+        _compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Create an empty log, replacing the file once the log has been written to it with {@link #commit(File)}.
+     */
+    static SnapshotLog create(File file) throws IOException {
+        return create(file, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * @param compactionThreshold the number of records appended before the log is rewritten if most are dead.
+     */
+    static SnapshotLog create(File file, int compactionThreshold) throws IOException {
+        return new SnapshotLog(file, open(file), compactionThreshold);
+    }
+
+    private static DataOutputStream open(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.flush();
+        return out;
+    }
+
+    /**
+     * Atomically move the log over the file it replaces and keep appending to it there, the log is only rewritten
+     * once it is committed.
+     */
+    void commit(File target) throws IOException {
+        _writeLock.lock();
+        try {
+            writePending();
+            Files.move(_file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            _file = target;
+            _committed = true;
+        } finally {
+            _writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return true once the log was closed or closed itself after failing to write, nothing is appended from then on.
+     */
+    boolean isClosed() {
+        return _closed;
+    }
+
+    /**
+     * Serialize an item for {@link #appendPut(long, String, RetainPolicy, long, Entry)}.
+     *
+     * @return the serialized item or null if it can not be serialized.
+     */
+    static Entry serialize(Object item) {
+        if (item instanceof OffHeapArena.Block) {
+            ByteBuffer view = ((OffHeapArena.Block) item).view();
+            byte[] bytes = new byte[view.remaining()];
+            view.get(bytes);
+            return new Entry(KIND_BUFFER, bytes);
+        }
+        if (item != null && !(item instanceof Serializable)) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(item);
+            }
+            return new Entry(KIND_OBJECT, bytes.toByteArray());
+        } catch (IOException e) {
+            // a serializable item holding something that is not
+            return null;
+        }
+    }
+
+    /**
+     * Reserve the id of a resource about to be stored. Must hold the key's lock, so the ids of a key's resources
+     * follow the order they are stored in.
+     */
+    long reserveId() {
+        return _nextId.getAndIncrement();
+    }
+
+    /**
+     * @param id        the id reserved for the resource with {@link #reserveId()}.
+     * @param expiresAt when a {@link RetainPolicy#TIMED} resource expires in milliseconds, otherwise 0.
+     */
+    void appendPut(long id, String key, RetainPolicy policy, long expiresAt, Entry entry) {
+        append(encodePut(entry._kind, id, key, policy, expiresAt, entry._bytes));
+    }
+
+    void appendRemove(String key, long id) {
+        append(encodeRemove(id, key));
+    }
+
+    private static byte[] encodePut(byte kind, long id, String key, RetainPolicy policy, long expiresAt,
+                                    byte[] bytes) {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        return ByteBuffer.allocate(1 + 8 + 4 + keyBytes.length + 1 + 8 + 4 + bytes.length)
+                .put(kind)
+                .putLong(id)
+                .putInt(keyBytes.length)
+                .put(keyBytes)
+                .put((byte) policy.ordinal())
+                .putLong(expiresAt)
+                .putInt(bytes.length)
+                .put(bytes)
+                .array();
+    }
+
+    private static byte[] encodeRemove(long id, String key) {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        return ByteBuffer.allocate(1 + 8 + 4 + keyBytes.length)
+                .put(KIND_REMOVE)
+                .putLong(id)
+                .putInt(keyBytes.length)
+                .put(keyBytes)
+                .array();
+    }
+
+    /**
+     * Queue a record and write the queue unless another thread is writing it, that thread then writes the record
+     * before it releases the write lock or the next appender does.
+     */
+    private void append(byte[] record) {
+        if (_closed) {
+            return;
+        }
+        _pending.add(record);
+        while (!_pending.isEmpty() && _writeLock.tryLock()) {
+            try {
+                writePending();
+                if (_committed && _records >= _compactionThreshold && _liveRecords * 2 < _records) {
+                    compact();
+                }
+            } catch (IOException e) {
+                failed(e);
+            } finally {
+                _writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Write and flush the queued records. Must hold the write lock.
+     */
+    private void writePending() throws IOException {
+        if (_closed) {
+            _pending.clear();
+            return;
+        }
+        byte[] record = _pending.poll();
+        if (record == null) {
+            return;
+        }
+        while (record != null) {
+            _out.write(record);
+            _records++;
+            _liveRecords += record[0] == KIND_REMOVE ? -1 : 1;
+            record = _pending.poll();
+        }
+        _out.flush();
+    }
+
+    /**
+     * Rewrite the live records, and the removals whose put has yet to be appended, to a fresh file that replaces the
+     * log. Must hold the write lock.
+     */
+    private void compact() throws IOException {
+        Replay replay = replay(_file);
+        File compacted = new File(_file.getPath() + ".compact");
+        DataOutputStream out = open(compacted);
+        try {
+            for (Record record : replay._live.values()) {
+                out.write(encodePut(record._buffer ? KIND_BUFFER : KIND_OBJECT, record._id, record._key,
+                        record._policy, record._expiresAt, record._bytes));
+            }
+            for (Map.Entry<Long, String> removal : replay._removals.entrySet()) {
+                out.write(encodeRemove(removal.getKey(), removal.getValue()));
+            }
+            out.flush();
+            Files.move(compacted.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+        _out.close();
+        _out = out;
+        _liveRecords = replay._live.size();
+        _records = _liveRecords + replay._removals.size();
+    }
+
+    /**
+     * Stop logging, the log on disk stays a consistent prefix. Must hold the write lock.
+     */
+    private void failed(IOException e) {
+        // stop logging rather than fail holds
+        _closed = true;
+        _pending.clear();
+        try {
+            _out.close();
+        } catch (IOException ignored) {
+        }
+        Thread currentThread = Thread.currentThread();
+        currentThread.getUncaughtExceptionHandler().uncaughtException(currentThread, e);
+    }
+
+    /**
+     * Write the records still queued and close the log.
+     */
+    @Override
+    public void close() throws IOException {
+        _writeLock.lock();
+        try {
+            if (_closed) {
+                return;
+            }
+            try {
+                writePending();
+            } finally {
+                _closed = true;
+                _pending.clear();
+                _out.close();
+            }
+        } finally {
+            _writeLock.unlock();
+        }
+    }
+
+    /**
+     * Replay a log by mapping it into memory.
+     *
+     * @return the resources still held when the log was last written, in the order they were held.
+     */
+    static List<Record> read(File file) throws IOException {
+        return new ArrayList<>(replay(file)._live.values());
+    }
+
+    private static Replay replay(File file) throws IOException {
+        Replay replay = new Replay();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+             FileChannel channel = randomAccessFile.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException(file + " is not a snapshot log");
+            }
+            try {
+                while (buffer.hasRemaining()) {
+                    byte kind = buffer.get();
+                    long id = buffer.getLong();
+                    String key = readKey(buffer);
+                    if (kind == KIND_REMOVE) {
+                        replay.remove(key, id);
+                        continue;
+                    }
+                    RetainPolicy policy = RetainPolicy.values()[buffer.get()];
+                    long expiresAt = buffer.getLong();
+                    byte[] bytes = readBytes(buffer);
+                    replay.put(new Record(id, key, policy, expiresAt, kind == KIND_BUFFER, bytes));
+                }
+            } catch (BufferUnderflowException | ArrayIndexOutOfBoundsException e) {
+                // a record cut short by a crash
+            }
+        }
+        return replay;
+    }
+
+    private static String readKey(ByteBuffer buffer) {
+        return new String(readBytes(buffer), UTF_8);
+    }
+
+    /**
+     * Read a length prefixed run of bytes, checking the length against what is left of the log before allocating.
+     */
+    private static byte[] readBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * The state of a log replayed up to a record.
+     */
+    private static final class Replay {
+        final LinkedHashMap<String, Record> _live = new LinkedHashMap<>();
+        // the removals whose put has yet to be read, by id
+        final Map<Long, String> _removals = new LinkedHashMap<>();
+
+        void put(Record record) {
+            if (_removals.remove(record._id) != null) {
+                return;
+            }
+            Record current = _live.get(record._key);
+            if (current != null && current._id > record._id) {
+                // a newer resource held with the key was appended first
+                return;
+            }
+            // a re-held key moves to the end
+            _live.remove(record._key);
+            _live.put(record._key, record);
+        }
+
+        void remove(String key, long id) {
+            Record current = _live.get(key);
+            if (current != null && current._id == id) {
+                _live.remove(key);
+            } else if (current == null || current._id < id) {
+                _removals.put(id, key);
+            }
+        }
+    }
+
+    /**
+     * An item serialized for the log.
+     */
+    static final class Entry {
+        final byte _kind;
+        final byte[] _bytes;
+
+        private Entry(byte kind, byte[] bytes) {
+            _kind = kind;
+            _bytes = bytes;
+        }
+    }
+
+    /**
+     * A resource replayed from the log.
+     */
+    static final class Record {
+        final long _id;
+        final String _key;
+        final RetainPolicy _policy;
+        final long _expiresAt;
+        final boolean _buffer;
+        final byte[] _bytes;
+
+        private Record(long id, String key, RetainPolicy policy, long expiresAt, boolean buffer, byte[] bytes) {
+            _id = id;
+            _key = key;
+            _policy = policy;
+            _expiresAt = expiresAt;
+            _buffer = buffer;
+            _bytes = bytes;
+        }
+
+        /**
+         * @return the item, a {@link ByteBuffer} if it was stored off the heap.
+         * @throws IOException            if the item can no longer be deserialized.
+         * @throws ClassNotFoundException if the item's class is gone.
+         */
+        Object item() throws IOException, ClassNotFoundException {
+            if (_buffer) {
+                return ByteBuffer.wrap(_bytes);
+            }
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(_bytes))) {
+                return in.readObject();
+            }
+        }
+    }
+}
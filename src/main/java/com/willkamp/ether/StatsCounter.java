@@ -0,0 +1,30 @@
+package com.willkamp.ether;
+
+/**
+ * The counters behind {@link EtherStats}. A store only has one while its stats are enabled.
+ */
+class StatsCounter {
+    final StripedCounter _holds = new StripedCounter();
+    final StripedCounter _hits = new StripedCounter();
+    final StripedCounter _misses = new StripedCounter();
+    final StripedCounter _expirations = new StripedCounter();
+    final StripedCounter _evictions = new StripedCounter();
+    final StripedCounter _collections = new StripedCounter();
+    final StripedCounter _waiterTimeouts = new StripedCounter();
+    final LatencyHistogram _lockHold = new LatencyHistogram();
+    final LatencyHistogram _delivery = new LatencyHistogram();
+
+    void recordLookup(boolean hit) {
+        if (hit) {
+            _hits.increment();
+        } else {
+            _misses.increment();
+        }
+    }
+
+    EtherStats snapshot(long entryCount, long waitingKeyCount, long waiterCount) {
+        return new EtherStats(_holds.sum(), _hits.sum(), _misses.sum(), _expirations.sum(), _evictions.sum(),
+                _collections.sum(), _waiterTimeouts.sum(), entryCount, waitingKeyCount, waiterCount,
+                _lockHold.snapshot(), _delivery.snapshot());
+    }
+}
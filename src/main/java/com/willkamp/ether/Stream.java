@@ -0,0 +1,48 @@
+package com.willkamp.ether;
+
+import rx.Observable;
+import rx.subjects.PublishSubject;
+import rx.subjects.ReplaySubject;
+import rx.subjects.SerializedSubject;
+import rx.subjects.Subject;
+
+/**
+ * A long lived channel of values published with the same key. Observers first receive the most recent values kept for
+ * replay and then every value published afterwards.
+ */
+class Stream {
+    private final Subject<Object, Object> _subject;
+
+    /**
+     * @param replaySize the number of most recent values replayed to new observers.
+     */
+    Stream(int replaySize) {
+        Subject<Object, Object> subject;
+        if (replaySize == 0) {
+            subject = PublishSubject.create();
+        } else {
+            subject = ReplaySubject.createWithSize(replaySize);
+        }
+        // values may be published from many threads at once
+        _subject = new SerializedSubject<>(subject);
+    }
+
+    void publish(Object value) {
+        _subject.onNext(value);
+    }
+
+    void complete() {
+        _subject.onCompleted();
+    }
+
+    Observable<Object> observe(BackpressureStrategy strategy) {
+        switch (strategy) {
+            case BUFFER:
+                return _subject.onBackpressureBuffer();
+            case DROP:
+                return _subject.onBackpressureDrop();
+            default:
+                return _subject.onBackpressureLatest();
+        }
+    }
+}
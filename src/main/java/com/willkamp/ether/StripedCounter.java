@@ -0,0 +1,47 @@
+package com.willkamp.ether;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter spread over padded cells picked by thread, so threads counting concurrently rarely share a cache line.
+ * Serves the purpose of {@code LongAdder}, which is not available on Java 7.
+ */
+class StripedCounter {
+
+    // longs per 64 byte cache line
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray _cells;
+    private final int _mask;
+
+    StripedCounter() {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() * 2) {
+            stripes <<= 1;
+        }
+        _mask = stripes - 1;
+        _cells = new AtomicLongArray(stripes * PADDING);
+    }
+
+    void increment() {
+        add(1);
+    }
+
+    void add(long value) {
+        _cells.getAndAdd(cell(), value);
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < _cells.length(); i += PADDING) {
+            sum += _cells.get(i);
+        }
+        return sum;
+    }
+
+    private int cell() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((hash >>> 16) & _mask) * PADDING;
+    }
+}
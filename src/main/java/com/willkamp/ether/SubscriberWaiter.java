@@ -0,0 +1,48 @@
+package com.willkamp.ether;
+
+import rx.Scheduler;
+import rx.Subscriber;
+
+/**
+ * A subscriber parked until a resource with its key is held.
+ */
+class SubscriberWaiter extends Waiter {
+    private final Subscriber<? super Object> _subscriber;
+
+    /**
+     * @param scheduler the scheduler to deliver on or null to use the store's.
+     */
+    SubscriberWaiter(String key, Subscriber<? super Object> subscriber, Scheduler scheduler) {
+        super(key, scheduler);
+        _subscriber = subscriber;
+    }
+
+    @Override
+    boolean isUnsubscribed() {
+        return _subscriber.isUnsubscribed();
+    }
+
+    @Override
+    boolean deliver(Object item) {
+        if (_subscriber.isUnsubscribed()) {
+            return false;
+        }
+        _subscriber.onNext(OffHeapArena.expose(item));
+        _subscriber.onCompleted();
+        return true;
+    }
+
+    @Override
+    void fail(Throwable error) {
+        if (!_subscriber.isUnsubscribed()) {
+            _subscriber.onError(error);
+        }
+    }
+
+    @Override
+    void complete() {
+        if (!_subscriber.isUnsubscribed()) {
+            _subscriber.onCompleted();
+        }
+    }
+}
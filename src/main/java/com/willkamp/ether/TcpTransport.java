@@ -0,0 +1,416 @@
+package com.willkamp.ether;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A transport over TCP. Each node listens on an address and opens one connection to every peer it sends to.
+ * <p>
+ * Sends only enqueue the frame. A writer thread per peer drains everything queued since its last write and writes it
+ * with a single flush, so frames sent in a burst share packets and never wait for replies to earlier ones. Frames
+ * queued while a peer can not be reached are lost, the connection is retried with the next frame.
+ * <p>
+ * Connections are only accepted from peers added with {@link #addPeer(String, SocketAddress)}, from the host they
+ * were added with. The check is an allowlist of addresses, not authentication: the node name a connection opens with
+ * is taken on trust, so any process on a peer's host can pose as the peer, and a network that is not trusted needs
+ * a tunnel or firewall in front of the transport. A connection that does not name its node within the handshake
+ * timeout is dropped, and connections beyond the maximum, or beyond {@value #MAX_HANDSHAKES} still to name their
+ * node, are closed as soon as they are accepted. A peer that sends a frame larger than the maximum frame size is
+ * disconnected. Frames from every peer are handed to the receiver on a single thread, a reader that gets too far
+ * ahead of it waits.
+ */
+@SuppressWarnings("WeakerAccess")
+public class TcpTransport implements Transport {
+
+    public static final int DEFAULT_MAX_FRAME_BYTES = 16 << 20;
+    public static final int DEFAULT_MAX_CONNECTIONS = 256;
+    public static final long DEFAULT_HANDSHAKE_TIMEOUT_MILLIS = 5000;
+    static final int MAX_HANDSHAKES = 16;
+    private static final int RECEIVE_QUEUE_CAPACITY = 1024;
+    private static final long RECEIVE_QUEUE_POLL_MILLIS = 100;
+
+    private final InetSocketAddress _bindAddress;
+    private final int _maxFrameBytes;
+    private final ConcurrentHashMap<String, SocketAddress> _peerAddresses = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Connection> _connections = new ConcurrentHashMap<>();
+    // guards the inbound connection counts too
+    private final List<Socket> _acceptedSockets = new ArrayList<>();
+    private final Map<String, Integer> _inboundConnections = new HashMap<>();
+    private int _handshakes;
+    private volatile int _maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private volatile int _handshakeTimeoutMillis = (int) DEFAULT_HANDSHAKE_TIMEOUT_MILLIS;
+    private final LinkedBlockingQueue<Inbound> _received = new LinkedBlockingQueue<>(RECEIVE_QUEUE_CAPACITY);
+    private volatile boolean _closed;
+    private String _localNode;
+    private ServerSocket _serverSocket;
+    private Thread _receiveThread;
+
+    /**
+     * @param bindAddress the address to listen on, port 0 picks a free port.
+     */
+    public TcpTransport(InetSocketAddress bindAddress) {
+        this(bindAddress, DEFAULT_MAX_FRAME_BYTES);
+    }
+
+    /**
+     * @param bindAddress   the address to listen on, port 0 picks a free port.
+     * @param maxFrameBytes the size of the largest frame sent or received.
+     */
+    public TcpTransport(InetSocketAddress bindAddress, int maxFrameBytes) {
+        if (maxFrameBytes <= 0) {
+            throw new IllegalArgumentException("the maximum frame size must be positive");
+        }
+        _bindAddress = bindAddress;
+        _maxFrameBytes = maxFrameBytes;
+    }
+
+    /**
+     * Tell the transport where a peer listens. Connections from the peer are accepted once it was added.
+     *
+     * @param node    the peer's id.
+     * @param address the address the peer listens on.
+     */
+    public void addPeer(String node, SocketAddress address) {
+        _peerAddresses.put(node, address);
+    }
+
+    /**
+     * Set the number of inbound connections held open at once, those accepted beyond it are closed straight away.
+     *
+     * @param maxConnections the maximum, {@link #DEFAULT_MAX_CONNECTIONS} by default.
+     */
+    public void setMaxConnections(int maxConnections) {
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("the maximum number of connections must be positive");
+        }
+        _maxConnections = maxConnections;
+    }
+
+    /**
+     * Set how long an inbound connection has to name its node before it is dropped.
+     *
+     * @param timeout the timeout, {@link #DEFAULT_HANDSHAKE_TIMEOUT_MILLIS} milliseconds by default.
+     * @param unit    the timeout's unit.
+     */
+    public void setHandshakeTimeout(long timeout, TimeUnit unit) {
+        long millis = unit.toMillis(timeout);
+        if (millis <= 0 || millis > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("the handshake timeout must be between a millisecond and "
+                    + Integer.MAX_VALUE + " milliseconds");
+        }
+        _handshakeTimeoutMillis = (int) millis;
+    }
+
+    /**
+     * @return the address this transport listens on, once started.
+     */
+    public InetSocketAddress getLocalAddress() {
+        return (InetSocketAddress) _serverSocket.getLocalSocketAddress();
+    }
+
+    @Override
+    public synchronized void start(String localNode, final Receiver receiver) throws IOException {
+        _localNode = localNode;
+        _serverSocket = new ServerSocket();
+        _serverSocket.bind(_bindAddress);
+        _receiveThread = startDaemon("ether-tcp-receive-" + localNode, new Runnable() {
+            @Override
+            public void run() {
+                deliver(receiver);
+            }
+        });
+        startDaemon("ether-tcp-accept-" + localNode, new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+    }
+
+    /**
+     * Hand the frames the readers received to the receiver, one at a time.
+     */
+    private void deliver(Receiver receiver) {
+        try {
+            while (!_closed) {
+                Inbound inbound = _received.take();
+                try {
+                    if (inbound._frame == null) {
+                        receiver.disconnected(inbound._node);
+                    } else {
+                        receiver.receive(inbound._node, inbound._frame);
+                    }
+                } catch (RuntimeException e) {
+                    // a frame the receiver fails on does not stop the frames after it
+                    report(e);
+                }
+            }
+        } catch (InterruptedException ignored) {
+            // closed
+        }
+    }
+
+    private void accept() {
+        while (!_closed) {
+            final Socket socket;
+            try {
+                socket = _serverSocket.accept();
+            } catch (IOException e) {
+                // closed
+                return;
+            }
+            synchronized (_acceptedSockets) {
+                if (_acceptedSockets.size() >= _maxConnections || _handshakes >= MAX_HANDSHAKES) {
+                    // a reader thread per connection, only as many as the limits allow
+                    closeQuietly(socket);
+                    continue;
+                }
+                _acceptedSockets.add(socket);
+                _handshakes++;
+            }
+            startDaemon("ether-tcp-read-" + _localNode, new Runnable() {
+                @Override
+                public void run() {
+                    read(socket);
+                }
+            });
+        }
+    }
+
+    private void read(Socket socket) {
+        String fromNode = null;
+        boolean handshaking = true;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            socket.setSoTimeout(_handshakeTimeoutMillis);
+            String node = in.readUTF();
+            if (!isPeer(node, socket)) {
+                report(new IOException("refused a connection from " + node + " at " + socket.getInetAddress()));
+                return;
+            }
+            socket.setSoTimeout(0);
+            synchronized (_acceptedSockets) {
+                Integer connections = _inboundConnections.get(node);
+                _inboundConnections.put(node, connections == null ? 1 : connections + 1);
+                _handshakes--;
+                handshaking = false;
+            }
+            fromNode = node;
+            while (!_closed) {
+                int length = in.readInt();
+                if (length < 0 || length > _maxFrameBytes) {
+                    report(new IOException("disconnected " + fromNode + " for a frame of " + length + " bytes"));
+                    return;
+                }
+                byte[] frame = new byte[length];
+                in.readFully(frame);
+                enqueue(new Inbound(fromNode, frame));
+            }
+        } catch (IOException ignored) {
+            // the peer went away
+        } catch (InterruptedException ignored) {
+            // closed
+        } finally {
+            closeQuietly(socket);
+            synchronized (_acceptedSockets) {
+                _acceptedSockets.remove(socket);
+                if (handshaking) {
+                    _handshakes--;
+                }
+                if (fromNode != null) {
+                    disconnected(fromNode);
+                }
+            }
+        }
+    }
+
+    /**
+     * Report a node's disconnection once its last connection closed. Must hold {@link #_acceptedSockets}, so a
+     * connection the node opens meanwhile only delivers its frames after the disconnection.
+     */
+    private void disconnected(String node) {
+        int connections = _inboundConnections.get(node) - 1;
+        if (connections > 0) {
+            _inboundConnections.put(node, connections);
+            return;
+        }
+        _inboundConnections.remove(node);
+        try {
+            enqueue(new Inbound(node, null));
+        } catch (InterruptedException ignored) {
+            // closed
+        }
+    }
+
+    /**
+     * Wait for room to hand a frame to the receiving thread, giving up once the transport closes.
+     */
+    private void enqueue(Inbound inbound) throws InterruptedException {
+        while (!_received.offer(inbound, RECEIVE_QUEUE_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (_closed) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * @return true if the node was added as a peer and the connection comes from the host it was added with, which
+     * only checks the address the connection claims to come from.
+     */
+    private boolean isPeer(String node, Socket socket) {
+        SocketAddress address = _peerAddresses.get(node);
+        if (address == null) {
+            return false;
+        }
+        InetAddress host = address instanceof InetSocketAddress ? ((InetSocketAddress) address).getAddress() : null;
+        // a peer added with a wildcard or unresolved address may connect from any host
+        return host == null || host.isAnyLocalAddress() || host.equals(socket.getInetAddress());
+    }
+
+    @Override
+    public void send(String toNode, byte[] frame) {
+        if (frame.length > _maxFrameBytes) {
+            throw new IllegalArgumentException("a frame of " + frame.length + " bytes exceeds the maximum of "
+                    + _maxFrameBytes);
+        }
+        if (_closed) {
+            return;
+        }
+        Connection connection = _connections.get(toNode);
+        if (connection == null) {
+            Connection created = new Connection(toNode);
+            connection = _connections.putIfAbsent(toNode, created);
+            if (connection == null) {
+                connection = created;
+                created._thread = startDaemon("ether-tcp-write-" + toNode, created);
+            }
+        }
+        connection._queue.add(frame);
+    }
+
+    @Override
+    public void close() throws IOException {
+        _closed = true;
+        for (Connection connection : _connections.values()) {
+            Thread thread = connection._thread;
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+        synchronized (_acceptedSockets) {
+            for (Socket socket : _acceptedSockets) {
+                socket.close();
+            }
+        }
+        synchronized (this) {
+            if (_serverSocket != null) {
+                _serverSocket.close();
+            }
+            if (_receiveThread != null) {
+                _receiveThread.interrupt();
+            }
+        }
+    }
+
+    private static void report(Exception e) {
+        Thread currentThread = Thread.currentThread();
+        currentThread.getUncaughtExceptionHandler().uncaughtException(currentThread, e);
+    }
+
+    private static Thread startDaemon(String name, Runnable runnable) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * The outbound connection to a peer and the frames waiting to be written to it.
+     */
+    private final class Connection implements Runnable {
+        private final String _node;
+        private final LinkedBlockingQueue<byte[]> _queue = new LinkedBlockingQueue<>();
+        private volatile Thread _thread;
+
+        Connection(String node) {
+            _node = node;
+        }
+
+        @Override
+        public void run() {
+            List<byte[]> batch = new ArrayList<>();
+            Socket socket = null;
+            DataOutputStream out = null;
+            try {
+                while (!_closed) {
+                    batch.add(_queue.take());
+                    _queue.drainTo(batch);
+                    try {
+                        if (socket == null) {
+                            socket = connect();
+                            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                            out.writeUTF(_localNode);
+                        }
+                        for (byte[] frame : batch) {
+                            out.writeInt(frame.length);
+                            out.write(frame);
+                        }
+                        out.flush();
+                    } catch (IOException e) {
+                        closeQuietly(socket);
+                        socket = null;
+                        report(e);
+                    }
+                    batch.clear();
+                }
+            } catch (InterruptedException ignored) {
+                // closed
+            } finally {
+                closeQuietly(socket);
+            }
+        }
+
+        private Socket connect() throws IOException {
+            SocketAddress address = _peerAddresses.get(_node);
+            if (address == null) {
+                throw new IOException("no address for " + _node);
+            }
+            Socket socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(address);
+            return socket;
+        }
+    }
+
+    /**
+     * A frame received from a node, or its disconnection if the frame is null.
+     */
+    private static final class Inbound {
+        final String _node;
+        final byte[] _frame;
+
+        Inbound(String node, byte[] frame) {
+            _node = node;
+            _frame = frame;
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
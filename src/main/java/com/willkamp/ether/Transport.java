@@ -0,0 +1,47 @@
+package com.willkamp.ether;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Carries frames between the nodes of an {@link EtherNode} cluster. Sends are asynchronous and frames to the same node
+ * arrive in the order they were sent, a transport is free to batch them on the way.
+ */
+public interface Transport extends Closeable {
+
+    /**
+     * Receives the frames sent to the local node.
+     */
+    interface Receiver {
+        /**
+         * @param fromNode the node that sent the frame.
+         * @param frame    the frame.
+         */
+        void receive(String fromNode, byte[] frame);
+
+        /**
+         * Called once no more frames will arrive from a node until it reconnects, for instance because its connection
+         * closed. Called on the same thread as {@link #receive(String, byte[])}, after the node's last frame.
+         *
+         * @param fromNode the node that went away.
+         */
+        void disconnected(String fromNode);
+    }
+
+    /**
+     * Start receiving frames.
+     *
+     * @param localNode the local node's id.
+     * @param receiver  the receiver frames are handed to, one at a time and never from two threads at once.
+     * @throws IOException if the transport can not start.
+     */
+    void start(String localNode, Receiver receiver) throws IOException;
+
+    /**
+     * Send a frame without waiting for it to be delivered.
+     *
+     * @param toNode the node to send to.
+     * @param frame  the frame.
+     */
+    void send(String toNode, byte[] frame);
+}
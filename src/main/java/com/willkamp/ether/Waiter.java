@@ -0,0 +1,43 @@
+package com.willkamp.ether;
+
+import rx.Scheduler;
+
+/**
+ * Something parked until a resource with its key is held.
+ */
+abstract class Waiter {
+    final String _key;
+    final Scheduler _scheduler;
+    volatile ExpiryWheel.Timeout _expiry;
+
+    /**
+     * @param scheduler the scheduler to deliver on or null to use the store's.
+     */
+    Waiter(String key, Scheduler scheduler) {
+        _key = key;
+        _scheduler = scheduler;
+    }
+
+    void cancelExpiry() {
+        if (_expiry != null) {
+            _expiry.cancel();
+        }
+    }
+
+    /**
+     * @return true if the waiter no longer wants the resource.
+     */
+    abstract boolean isUnsubscribed();
+
+    /**
+     * @return true if the waiter took the item, false if it stopped waiting before the item reached it.
+     */
+    abstract boolean deliver(Object item);
+
+    abstract void fail(Throwable error);
+
+    /**
+     * Finish waiting without a resource.
+     */
+    abstract void complete();
+}
@@ -0,0 +1,15 @@
+package com.willkamp.ether;
+
+/**
+ * Calculates the weight of held resources for a store bounded by weight.
+ */
+public interface Weigher {
+
+    /**
+     * @param key      the resource's key.
+     * @param resource the resource.
+     * @return the weight of the resource, must not be negative. A hold whose resource is weighed below zero fails
+     * with an {@link IllegalArgumentException} and leaves the store as it was.
+     */
+    int weigh(String key, Object resource);
+}
@@ -0,0 +1,341 @@
+package com.willkamp.ether;
+
+import org.junit.Test;
+import rx.Observer;
+import rx.Subscription;
+import rx.schedulers.Schedulers;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Randomized high contention checks of the store's hand-off and expiry invariants. Every worker thread mixes holds,
+ * fetches, observations with deadlines, futures that are cancelled and observers that unsubscribe on a small set of
+ * keys, then the outcome is checked once the workers stop.
+ * <p>
+ * Run with {@code ./gradlew stressTest}, optionally with {@code -PstressSeconds}, {@code -PstressThreads} and
+ * {@code -PstressSeed} to replay the random choices of a failed run.
+ */
+public class EtherStressTest {
+
+    private static final long SECONDS = Long.getLong("ether.stress.seconds", 10);
+    private static final int THREADS = Integer.getInteger("ether.stress.threads",
+            Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+    private static final long SEED = Long.getLong("ether.stress.seed", System.nanoTime());
+    private static final int ONCE_KEYS = 64;
+    private static final int TIMED_KEYS = 32;
+    private static final long MAX_SHORT_RETAIN_MILLIS = 200;
+
+    /**
+     * A once observed resource is either stored and then fetched by exactly one consumer, or handed to the observers
+     * that were waiting when it was held and never stored. It is never lost, not even to observers that unsubscribe
+     * before it reaches them.
+     */
+    @Test
+    public void onceObserved_handOff() throws Exception {
+        onceObservedHandOff("once observed hand-off", null);
+    }
+
+    /**
+     * The hand-off invariants hold when every observer is delivered to on another thread, where an observer can
+     * unsubscribe after it was handed a resource and before the resource reaches it. An observer that takes a stored
+     * resource is then also delivered to on the scheduler, so it counts as a hand-off rather than a fetch.
+     */
+    @Test
+    public void onceObserved_handOffOnScheduler() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            onceObservedHandOff("once observed hand-off on a scheduler", executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @param deliveryExecutor the executor waiting observers are delivered to on or null to deliver on the holding
+     *                         thread.
+     */
+    private void onceObservedHandOff(String name, ExecutorService deliveryExecutor) throws Exception {
+        // given a store and a slot per key holding the token that is currently held with it
+        final EtherStore store = new EtherStore();
+        if (deliveryExecutor != null) {
+            store.setDeliveryScheduler(Schedulers.from(deliveryExecutor));
+        }
+        final AtomicLongArray slots = new AtomicLongArray(ONCE_KEYS);
+        final AtomicLong lastToken = new AtomicLong();
+        final ConcurrentHashMap<Long, AtomicInteger> fetched = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<Long, AtomicInteger> delivered = new ConcurrentHashMap<>();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        // when the workers race holds, fetches, observations, futures and unsubscribes
+        long operations = run(name, new Worker() {
+            @Override
+            public void operate(Random random) throws Exception {
+                final int slot = random.nextInt(ONCE_KEYS);
+                String key = "once-" + slot;
+                int operation = random.nextInt(100);
+                if (operation < 30) {
+                    // only one token per key is held at a time, so none is lost to a replacement
+                    long token = lastToken.incrementAndGet();
+                    if (slots.compareAndSet(slot, 0, token)) {
+                        store.holdUntilObserved(key, token);
+                    }
+                } else if (operation < 55) {
+                    Long token = store.getResourceWithKey(key);
+                    if (token != null) {
+                        received(fetched, slots, slot, token);
+                    }
+                } else if (operation < 75) {
+                    // observers that time out, or with a choice of unsubscribing on their own
+                    boolean unsubscribes = random.nextInt(4) == 0;
+                    final Thread subscribing = Thread.currentThread();
+                    final boolean[] inSubscribe = {true};
+                    Observer<Long> observer = new Observer<Long>() {
+                        @Override
+                        public void onCompleted() {
+                        }
+
+                        @Override
+                        public void onError(Throwable e) {
+                            if (!(e instanceof TimeoutException)) {
+                                failure.compareAndSet(null, e);
+                            }
+                        }
+
+                        @Override
+                        public void onNext(Long token) {
+                            // emitted while subscribing on the subscribing thread is a fetch of a stored token
+                            boolean fetch = Thread.currentThread() == subscribing && inSubscribe[0];
+                            received(fetch ? fetched : delivered, slots, slot, token);
+                        }
+                    };
+                    Subscription subscription = unsubscribes
+                            ? store.<Long>getResourceObservable(key).subscribe(observer)
+                            : store.<Long>getResourceObservable(key, 1 + random.nextInt(50), TimeUnit.MILLISECONDS)
+                            .subscribe(observer);
+                    inSubscribe[0] = false;
+                    if (unsubscribes) {
+                        if (random.nextBoolean()) {
+                            Thread.yield();
+                        }
+                        subscription.unsubscribe();
+                    }
+                } else {
+                    final Thread awaiting = Thread.currentThread();
+                    final boolean[] inAwait = {true};
+                    Future<Long> future = store.awaitResource(key, new ResourceCallback<Long>() {
+                        @Override
+                        public void onResource(Long token) {
+                            boolean fetch = Thread.currentThread() == awaiting && inAwait[0];
+                            received(fetch ? fetched : delivered, slots, slot, token);
+                        }
+
+                        @Override
+                        public void onFailure(Throwable error) {
+                            failure.compareAndSet(null, error);
+                        }
+                    });
+                    inAwait[0] = false;
+                    try {
+                        future.get(random.nextInt(2), TimeUnit.MILLISECONDS);
+                    } catch (TimeoutException e) {
+                        if (!future.cancel(false)) {
+                            // a hold claimed it before the cancel
+                            future.get();
+                        }
+                    }
+                }
+            }
+        });
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        awaitQuiescence(store);
+        if (deliveryExecutor != null) {
+            // the deliveries already scheduled, and the holds of the tokens their observers refused, run to the end
+            deliveryExecutor.shutdown();
+            assertTrue(deliveryExecutor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        Set<Long> drained = new HashSet<>();
+        for (int slot = 0; slot < ONCE_KEYS; slot++) {
+            Long token = store.getResourceWithKey("once-" + slot);
+            if (token != null) {
+                drained.add(token);
+            }
+        }
+
+        // then every token that was held was received by a single fetch, by waiting observers or is still held
+        long held = 0;
+        for (long token = 1; token <= lastToken.get(); token++) {
+            int fetchCount = count(fetched, token);
+            int deliveryCount = count(delivered, token);
+            boolean stillHeld = drained.contains(token);
+            if (fetchCount == 0 && deliveryCount == 0 && !stillHeld) {
+                // never held, its slot was taken
+                continue;
+            }
+            held++;
+            assertTrue("token " + token + " fetched " + fetchCount + " times", fetchCount <= 1);
+            assertFalse("token " + token + " both fetched and handed off", fetchCount == 1 && deliveryCount > 0);
+            assertFalse("token " + token + " still held after it was received",
+                    stillHeld && fetchCount + deliveryCount > 0);
+        }
+        for (long token = 1; token <= lastToken.get(); token++) {
+            int slot = -1;
+            for (int i = 0; i < ONCE_KEYS; i++) {
+                if (slots.get(i) == token) {
+                    slot = i;
+                }
+            }
+            assertTrue("token " + token + " was lost from slot " + slot, slot < 0 || drained.contains(token));
+        }
+        assertTrue("no waiters should remain " + store._impl._subscriberHashMap.keySet(),
+                store._impl._subscriberHashMap.isEmpty());
+        System.out.println(String.format("  %,d tokens held, %,d operations", held, operations));
+        store.close();
+    }
+
+    /**
+     * The expiry of a timed resource never removes a newer resource held with the same key.
+     */
+    @Test
+    public void expiry_neverRemovesNewerResource() throws Exception {
+        // given a store whose keys are re-held with short retain times
+        final EtherStore store = new EtherStore();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        // when the workers race holds, fetches and expirations
+        long operations = run("timed expiry", new Worker() {
+            @Override
+            public void operate(Random random) throws Exception {
+                String key = "timed-" + random.nextInt(TIMED_KEYS);
+                int operation = random.nextInt(100);
+                if (operation < 50) {
+                    long retain = 1 + random.nextInt((int) MAX_SHORT_RETAIN_MILLIS);
+                    store._impl.holdForTime(key, retain, TimeUnit.MILLISECONDS, retain);
+                } else if (operation < 60) {
+                    store.holdWhileAccessed(key, -1L, 1);
+                } else {
+                    Long retain = store.getResourceWithKey(key);
+                    if (retain != null && retain > MAX_SHORT_RETAIN_MILLIS) {
+                        failure.compareAndSet(null, new AssertionError("unexpected resource " + retain));
+                    }
+                }
+            }
+        });
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        // then a resource held for long afterwards outlives every expiry scheduled during the run
+        Long sentinel = Long.MAX_VALUE;
+        for (int i = 0; i < TIMED_KEYS; i++) {
+            store._impl.holdForTime("timed-" + i, sentinel, TimeUnit.SECONDS, 60);
+        }
+        // sliding resources expire after a second, rounded up to the wheel's tick
+        Thread.sleep(TimeUnit.SECONDS.toMillis(1) + MAX_SHORT_RETAIN_MILLIS * 3);
+        for (int i = 0; i < TIMED_KEYS; i++) {
+            assertEquals("timed-" + i, sentinel, store.getResourceWithKey("timed-" + i));
+        }
+        System.out.println(String.format("  %,d operations", operations));
+        store.close();
+    }
+
+    private static void received(ConcurrentHashMap<Long, AtomicInteger> receipts, AtomicLongArray slots, int slot,
+                                 Long token) {
+        AtomicInteger count = receipts.get(token);
+        if (count == null) {
+            AtomicInteger created = new AtomicInteger();
+            count = receipts.putIfAbsent(token, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+        slots.compareAndSet(slot, token, 0);
+    }
+
+    private static int count(Map<Long, AtomicInteger> receipts, long token) {
+        AtomicInteger count = receipts.get(token);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Wait for the observers' deadlines to pass so that no waiter is left parked.
+     */
+    private static void awaitQuiescence(EtherStore store) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ((store._impl._expiryWheel.outstanding() > 0 || !store._impl._subscriberHashMap.isEmpty())
+                && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Run a worker on every thread until the time is up.
+     *
+     * @return the number of operations performed.
+     */
+    private static long run(String name, final Worker worker) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(SECONDS);
+        final AtomicLong operations = new AtomicLong();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            final Random random = new Random(SEED + t);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long count = 0;
+                    try {
+                        start.await();
+                        while (System.nanoTime() < end && failure.get() == null) {
+                            worker.operate(random);
+                            count++;
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        operations.addAndGet(count);
+                    }
+                }
+            }, "ether-stress-" + t);
+            threads.add(thread);
+            thread.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        System.out.println(String.format("%s: %d threads, seed %d, %,d ops/s", name, THREADS, SEED,
+                operations.get() * TimeUnit.SECONDS.toNanos(1) / elapsed));
+        if (failure.get() != null) {
+            throw new AssertionError("seed " + SEED, failure.get());
+        }
+        return operations.get();
+    }
+
+    private interface Worker {
+        void operate(Random random) throws Exception;
+    }
+}
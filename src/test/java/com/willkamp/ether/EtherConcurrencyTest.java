@@ -0,0 +1,72 @@
+package com.willkamp.ether;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Many threads holding and fetching resources at once, each on keys of its own, throughput is measured by
+ * StripingBenchmark in the jmh source set.
+ */
+public class EtherConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int KEYS_PER_THREAD = 256;
+    private static final int OPERATIONS_PER_THREAD = 20000;
+
+    @Test
+    public void concurrentHolds_eachThreadSeesItsOwnResources() throws Exception {
+        // given a store
+        final EtherImpl store = new EtherImpl();
+
+        // when threads hold until observed and fetch back resources on their own keys, now and then holding a timed one
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        final AtomicLong failures = new AtomicLong();
+        for (int t = 0; t < THREADS; t++) {
+            final String prefix = "thread-" + t + "-";
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                            String key = prefix + (i % KEYS_PER_THREAD);
+                            if (i % 16 == 0) {
+                                store.hold(key + "-timed", i);
+                            }
+                            store.holdUntilObserved(key, i);
+                            if (!Integer.valueOf(i).equals(store.getResourceWithKey(key))) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+
+        // then every fetch returned the resource the thread had just held and used it up
+        assertEquals(0, failures.get());
+        for (int t = 0; t < THREADS; t++) {
+            for (int k = 0; k < KEYS_PER_THREAD; k++) {
+                String key = "thread-" + t + "-" + k;
+                assertNull(store.getResourceWithKey(key));
+
+                // and each timed key holds the last resource held with it
+                int last = (OPERATIONS_PER_THREAD - 1 - k) / KEYS_PER_THREAD * KEYS_PER_THREAD + k;
+                assertEquals(k % 16 == 0 ? Integer.valueOf(last) : null, store.getResourceWithKey(key + "-timed"));
+            }
+        }
+        store.close();
+    }
+}
@@ -0,0 +1,107 @@
+package com.willkamp.ether;
+
+import org.junit.Test;
+import rx.functions.Action1;
+import rx.schedulers.TestScheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class EtherCountedTest {
+
+    @Test
+    public void holdForObservations_fetches() throws Exception {
+        // given a resource held for 3 observations
+        EtherStore store = new EtherStore(new TestScheduler());
+        TestResource resource = new TestResource("counted");
+        store.holdForObservations("key", resource, 3);
+
+        // then no timer is scheduled for it
+        assertEquals(0, store._impl._expiryWheel.outstanding());
+
+        // and it is returned by exactly 3 fetches and observations
+        assertSame(resource, store.getResourceWithKey("key"));
+        final List<TestResource> observed = new ArrayList<>();
+        store.<TestResource>getResourceObservable("key").subscribe(new Action1<TestResource>() {
+            @Override
+            public void call(TestResource testResource) {
+                observed.add(testResource);
+            }
+        });
+        assertEquals(1, observed.size());
+        assertSame(resource, store.getResourceWithKey("key"));
+        assertNull(store.getResourceWithKey("key"));
+        assertTrue(store._impl._itemStore.isEmpty());
+    }
+
+    @Test
+    public void holdForObservations_waiters() throws Exception {
+        // given 3 observers waiting on a key
+        EtherStore store = new EtherStore();
+        final List<TestResource> observed = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            store.<TestResource>getResourceObservable("key").subscribe(new Action1<TestResource>() {
+                @Override
+                public void call(TestResource testResource) {
+                    observed.add(testResource);
+                }
+            });
+        }
+
+        // when a resource is held for 2 observations
+        TestResource first = new TestResource("first");
+        store.holdForObservations("key", first, 2);
+
+        // then 2 observers receive it, it is not stored and the third observer keeps waiting
+        assertEquals(2, observed.size());
+        assertNull(store.getResourceWithKey("key"));
+        assertEquals(1, store._impl._subscriberHashMap.get("key").size());
+
+        // and a resource held for more observations than there are waiters keeps the rest of its budget
+        TestResource second = new TestResource("second");
+        store.holdForObservations("key", second, 3);
+        assertEquals(3, observed.size());
+        assertSame(second, observed.get(2));
+        assertSame(second, store.getResourceWithKey("key"));
+        assertSame(second, store.getResourceWithKey("key"));
+        assertNull(store.getResourceWithKey("key"));
+    }
+
+    @Test
+    public void holdForObservations_concurrentFetches() throws Exception {
+        // given a resource held for 1000 observations
+        final EtherStore store = new EtherStore();
+        final TestResource resource = new TestResource("shared");
+        store.holdForObservations("key", resource, 1000);
+
+        // when 8 threads fetch it until it is gone
+        final AtomicInteger fetched = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(8);
+        for (int t = 0; t < 8; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (store.getResourceWithKey("key") == resource) {
+                        fetched.incrementAndGet();
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        // then it was fetched exactly 1000 times
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(1000, fetched.get());
+        assertTrue(store._impl._itemStore.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void holdForObservations_none() throws Exception {
+        new EtherStore().holdForObservations("key", new TestResource("none"), 0);
+    }
+}
@@ -0,0 +1,165 @@
+package com.willkamp.ether;
+
+import org.junit.Test;
+import rx.schedulers.TestScheduler;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class EtherFutureTest {
+
+    @Test
+    public void getResourceWithKey_default() throws Exception {
+        // given a store holding a null resource
+        EtherStore store = new EtherStore();
+        TestResource fallback = new TestResource("fallback");
+        store.hold("null", null);
+
+        // then a held null is told apart from a miss
+        assertNull(store.getResourceWithKey("null", fallback));
+        assertSame(fallback, store.getResourceWithKey("missing", fallback));
+
+        // and a once observed resource is still consumed
+        TestResource resource = new TestResource("once");
+        store.holdUntilObserved("once", resource);
+        assertSame(resource, store.getResourceWithKey("once", fallback));
+        assertSame(fallback, store.getResourceWithKey("once", fallback));
+    }
+
+    @Test
+    public void getResourceFuture_held() throws Exception {
+        // given a held resource
+        EtherStore store = new EtherStore();
+        TestResource resource = new TestResource("held");
+        store.holdUntilObserved("key", resource);
+
+        // when a future is requested
+        Future<TestResource> future = store.getResourceFuture("key");
+
+        // then it is already complete and consumed the resource
+        assertTrue(future.isDone());
+        assertSame(resource, future.get());
+        assertNull(store.getResourceWithKey("key"));
+    }
+
+    @Test
+    public void getResourceFuture_waits() throws Exception {
+        // given a future waiting on a key
+        EtherStore store = new EtherStore();
+        Future<TestResource> future = store.getResourceFuture("key");
+        assertFalse(future.isDone());
+        assertEquals(1, store._impl._subscriberHashMap.size());
+
+        // when a resource is held until observed
+        TestResource resource = new TestResource("later");
+        store.holdUntilObserved("key", resource);
+
+        // then the future receives it and it is not retained
+        assertSame(resource, future.get(5, TimeUnit.SECONDS));
+        assertNull(store.getResourceWithKey("key"));
+        assertTrue(store._impl._subscriberHashMap.isEmpty());
+    }
+
+    @Test
+    public void awaitResource_callback() throws Exception {
+        // given a callback waiting on a key
+        EtherStore store = new EtherStore();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<TestResource> received = new AtomicReference<>();
+        store.awaitResource("key", new ResourceCallback<TestResource>() {
+            @Override
+            public void onResource(TestResource resource) {
+                received.set(resource);
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                fail();
+            }
+        });
+
+        // when a resource is held
+        TestResource resource = new TestResource("called back");
+        store.hold("key", resource);
+
+        // then the callback receives it
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertSame(resource, received.get());
+    }
+
+    @Test
+    public void getResourceFuture_timeout() throws Exception {
+        // given a store keeping virtual time and a callback waiting 5 seconds
+        TestScheduler scheduler = new TestScheduler();
+        EtherStore store = new EtherStore(scheduler);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Future<TestResource> future = store.awaitResource("key", 5, TimeUnit.SECONDS,
+                new ResourceCallback<TestResource>() {
+                    @Override
+                    public void onResource(TestResource resource) {
+                        fail();
+                    }
+
+                    @Override
+                    public void onFailure(Throwable error) {
+                        failure.set(error);
+                    }
+                });
+
+        // when the timeout passes
+        scheduler.advanceTimeBy(6, TimeUnit.SECONDS);
+
+        // then both the callback and the future fail with a timeout and the waiter is gone
+        assertTrue(failure.get() instanceof TimeoutException);
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertTrue(store._impl._subscriberHashMap.isEmpty());
+    }
+
+    @Test
+    public void getResourceFuture_cancel() throws Exception {
+        // given a future waiting on a key
+        EtherStore store = new EtherStore();
+        Future<TestResource> future = store.getResourceFuture("key");
+
+        // when it is cancelled
+        assertTrue(future.cancel(false));
+
+        // then it no longer waits and a held resource is left in the store
+        assertTrue(future.isCancelled());
+        assertTrue(store._impl._subscriberHashMap.isEmpty());
+        TestResource resource = new TestResource("kept");
+        store.holdUntilObserved("key", resource);
+        assertSame(resource, store.getResourceWithKey("key"));
+        try {
+            future.get();
+            fail();
+        } catch (CancellationException ignored) {
+        }
+    }
+
+    @Test
+    public void getResourceFuture_closed() throws Exception {
+        // given a future waiting on a key
+        EtherStore store = new EtherStore();
+        Future<TestResource> future = store.getResourceFuture("key");
+
+        // when the store closes
+        store.close();
+
+        // then the future fails
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.willkamp.ether;
+
+import org.junit.Test;
+import rx.Observer;
+import rx.Subscription;
+import rx.functions.Action1;
+import rx.schedulers.TestScheduler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class EtherHandleTest {
+
+    @Test
+    public void holdUntilObserved_handle() throws Exception {
+        // given an observer waiting on a handle
+        EtherStore store = new EtherStore();
+        long handle = store.createHandle();
+        assertNotEquals(handle, store.createHandle());
+        final AtomicReference<TestResource> received = new AtomicReference<>();
+        store.<TestResource>getResourceObservable(handle).subscribe(new Action1<TestResource>() {
+            @Override
+            public void call(TestResource testResource) {
+                received.set(testResource);
+            }
+        });
+
+        // when a resource is held with the handle until observed
+        TestResource resource = new TestResource("handed off");
+        store.holdUntilObserved(handle, resource);
+
+        // then the observer receives it and it is not retained
+        assertSame(resource, received.get());
+        assertNull(store.getResourceWithHandle(handle));
+        assertEquals(0, store._impl._handles.size());
+
+        // and a second hold is consumed by the first fetch
+        store.holdUntilObserved(handle, resource);
+        assertSame(resource, store.getResourceWithHandle(handle));
+        assertNull(store.getResourceWithHandle(handle));
+    }
+
+    @Test
+    public void holdUntilObserved_handleRefusedOnSchedulerIsHeldAgain() throws Exception {
+        // given a store delivering to waiting observers on a scheduler and an observer waiting on a handle
+        EtherStore store = new EtherStore();
+        TestScheduler scheduler = new TestScheduler();
+        store.setDeliveryScheduler(scheduler);
+        long handle = store.createHandle();
+        Subscription subscription = store.getResourceObservable(handle).subscribe();
+
+        // when a resource is handed to it and it unsubscribes before the delivery runs
+        store.holdUntilObserved(handle, "resource");
+        subscription.unsubscribe();
+        scheduler.triggerActions();
+
+        // then the resource is held again
+        assertEquals("resource", store.getResourceWithHandle(handle));
+    }
+
+    @Test
+    public void hold_unsupportedHandleHoldLeavesWaiters() throws Exception {
+        // given an observer waiting on a handle
+        EtherStore store = new EtherStore();
+        long handle = store.createHandle();
+        final AtomicReference<Object> received = new AtomicReference<>();
+        store.getResourceObservable(handle).subscribe(new Action1<Object>() {
+            @Override
+            public void call(Object item) {
+                received.set(item);
+            }
+        });
+
+        // when the handle is held with a policy handles do not support or without a time unit
+        for (RetainPolicy policy : new RetainPolicy[]{RetainPolicy.SOFT, RetainPolicy.COUNTED, RetainPolicy.TIMED}) {
+            try {
+                store._impl.holdWithHandle(handle, "rejected", policy, null, 0);
+                fail("expected IllegalArgumentException");
+            } catch (IllegalArgumentException expected) {
+                // then the hold is refused
+            }
+        }
+
+        // and the observer still receives the next resource held with the handle
+        assertNull(received.get());
+        store.holdUntilObserved(handle, "accepted");
+        assertEquals("accepted", received.get());
+        assertNull(store.getResourceWithHandle(handle));
+    }
+
+    @Test
+    public void holdFor_handleExpires() throws Exception {
+        // given a store keeping virtual time and a resource held with a handle for 10 seconds
+        TestScheduler scheduler = new TestScheduler();
+        EtherStore store = new EtherStore(scheduler);
+        long handle = store.createHandle();
+        TestResource resource = new TestResource("timed");
+        store.holdFor(handle, resource, 10);
+
+        // when 5 seconds pass it can be fetched repeatedly
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS);
+        assertSame(resource, store.getResourceWithHandle(handle));
+        assertSame(resource, store.getResourceWithHandle(handle));
+
+        // and a key with the same digits is a different resource
+        assertNull(store.getResourceWithKey(String.valueOf(handle)));
+
+        // then after 10 seconds it is gone
+        scheduler.advanceTimeBy(6, TimeUnit.SECONDS);
+        assertNull(store.getResourceWithHandle(handle));
+    }
+
+    @Test
+    public void observe_handleTimeoutAndUnsubscribe() throws Exception {
+        // given a store keeping virtual time
+        TestScheduler scheduler = new TestScheduler();
+        EtherStore store = new EtherStore(scheduler);
+
+        // when one observer gives up after 5 seconds and another unsubscribes
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        store.getResourceObservable(store.createHandle(), 5, TimeUnit.SECONDS).subscribe(new Observer<Object>() {
+            @Override
+            public void onCompleted() {
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                error.set(e);
+            }
+
+            @Override
+            public void onNext(Object o) {
+            }
+        });
+        long handle = store.createHandle();
+        Subscription subscription = store.getResourceObservable(handle).subscribe();
+        subscription.unsubscribe();
+        scheduler.advanceTimeBy(6, TimeUnit.SECONDS);
+
+        // then the first times out
+        assertTrue(error.get() instanceof TimeoutException);
+
+        // and a once observed resource held for the second is retained
+        TestResource resource = new TestResource("retained");
+        store.holdUntilObserved(handle, resource);
+        assertSame(resource, store.getResourceWithHandle(handle));
+    }
+}
@@ -0,0 +1,558 @@
+package com.willkamp.ether;
+
+import org.junit.Test;
+import rx.Observer;
+import rx.Subscription;
+import rx.functions.Action1;
+import rx.schedulers.Schedulers;
+import rx.schedulers.TestScheduler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class EtherImplTest {
+
+    @Test
+    public void hold_slowObserverDoesNotBlockOtherKeys() throws Exception {
+        // given a store where every key shares one lock
+        final EtherImpl impl = new EtherImpl(1);
+
+        // and an observer that blocks when it receives its item
+        final CountDownLatch received = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        impl.<TestResource>observeResourceWithKey("slow").subscribe(new Action1<TestResource>() {
+            @Override
+            public void call(TestResource testResource) {
+                received.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                impl.holdUntilObserved("slow", new TestResource("slow"));
+            }
+        }).start();
+        assertTrue(received.await(1, TimeUnit.SECONDS));
+
+        // when another key is held and observed while the observer is still blocked
+        impl.holdUntilObserved("fast", new TestResource("fast"));
+        TestResource observed = impl.<TestResource>observeResourceWithKey("fast")
+                .timeout(1, TimeUnit.SECONDS).toBlocking().first();
+
+        // then it is not held up by the blocked observer
+        assertEquals("fast", observed.getName());
+        release.countDown();
+    }
+
+    @Test
+    public void holdUntilObserved_refusedOnSchedulerIsHeldAgain() throws Exception {
+        // given a store delivering to waiting observers on a scheduler and an observer waiting for a key
+        EtherStore store = new EtherStore();
+        TestScheduler scheduler = new TestScheduler();
+        store.setDeliveryScheduler(scheduler);
+        Subscription subscription = store.getResourceObservable("key").subscribe();
+
+        // when a resource held until observed is handed to it and it unsubscribes before the delivery runs
+        store.holdUntilObserved("key", "resource");
+        subscription.unsubscribe();
+        scheduler.triggerActions();
+
+        // then the resource is held again instead of being lost
+        assertEquals("resource", store.getResourceWithKey("key"));
+        assertNull(store.getResourceWithKey("key"));
+    }
+
+    @Test
+    public void holdUntilObserved_refusedOnSchedulerHandedToNextObserver() throws Exception {
+        // given a resource handed to an observer that unsubscribes before its delivery runs
+        EtherStore store = new EtherStore();
+        TestScheduler scheduler = new TestScheduler();
+        store.setDeliveryScheduler(scheduler);
+        Subscription subscription = store.getResourceObservable("key").subscribe();
+        store.holdUntilObserved("key", "resource");
+        subscription.unsubscribe();
+
+        // and another observer that started waiting meanwhile
+        final List<Object> received = new ArrayList<>();
+        store.getResourceObservable("key").subscribe(new Action1<Object>() {
+            @Override
+            public void call(Object resource) {
+                received.add(resource);
+            }
+        });
+
+        // when the deliveries run
+        scheduler.triggerActions();
+
+        // then the other observer receives the resource and it is not held
+        assertEquals(Arrays.<Object>asList("resource"), received);
+        assertNull(store.getResourceWithKey("key"));
+        assertTrue(store._impl._subscriberHashMap.isEmpty());
+    }
+
+    @Test
+    public void holdUntilObserved_heldResourceRefusedOnSchedulerIsHeldAgain() throws Exception {
+        // given a resource held until observed
+        EtherStore store = new EtherStore();
+        store.holdUntilObserved("key", "resource");
+
+        // when an observer takes it on a scheduler and unsubscribes before its delivery runs
+        TestScheduler scheduler = new TestScheduler();
+        Subscription subscription = store.getResourceObservable("key", scheduler).subscribe();
+        subscription.unsubscribe();
+        scheduler.triggerActions();
+
+        // then the resource is held again
+        assertEquals("resource", store.getResourceWithKey("key"));
+    }
+
+    @Test
+    public void holdForObservations_refusedOnSchedulerReturnsObservation() throws Exception {
+        // given a store delivering on a scheduler and two observers waiting for a key
+        EtherStore store = new EtherStore();
+        TestScheduler scheduler = new TestScheduler();
+        store.setDeliveryScheduler(scheduler);
+        Subscription first = store.getResourceObservable("key").subscribe();
+        store.getResourceObservable("key").subscribe();
+
+        // when a resource held for two observations is handed to both and one unsubscribes before its delivery
+        store.holdForObservations("key", "resource", 2);
+        first.unsubscribe();
+        scheduler.triggerActions();
+
+        // then its observation is held for the next observer
+        assertEquals("resource", store.getResourceWithKey("key"));
+        assertNull(store.getResourceWithKey("key"));
+    }
+
+    @Test
+    public void hold_fanOutOnScheduler() throws Exception {
+        // given a store delivering to waiting observers on a scheduler
+        EtherImpl impl = new EtherImpl();
+        impl.setDeliveryScheduler(Schedulers.computation());
+
+        // and many observers waiting for the same key
+        int waiters = 10000;
+        final CountDownLatch latch = new CountDownLatch(waiters);
+        final AtomicInteger onHoldingThread = new AtomicInteger();
+        final Thread holdingThread = Thread.currentThread();
+        for (int i = 0; i < waiters; i++) {
+            impl.<TestResource>observeResourceWithKey("key").subscribe(new Observer<TestResource>() {
+                @Override
+                public void onCompleted() {
+                    latch.countDown();
+                }
+
+                @Override
+                public void onError(Throwable e) {
+                }
+
+                @Override
+                public void onNext(TestResource testResource) {
+                    if (Thread.currentThread() == holdingThread) {
+                        onHoldingThread.incrementAndGet();
+                    }
+                }
+            });
+        }
+
+        // when the key is held
+        impl.hold("key", new TestResource("shared"));
+
+        // then every observer receives the item off of the holding thread
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(0, onHoldingThread.get());
+        assertTrue(impl._subscriberHashMap.isEmpty());
+        impl.flush();
+    }
+
+    @Test
+    public void observe_unsubscribeReclaimsWaiter() throws Exception {
+        // given a store
+        EtherImpl impl = new EtherImpl();
+
+        // and an observer waiting for a key that is not held
+        Subscription subscription = impl.observeResourceWithKey("key").subscribe();
+        assertEquals(1, impl._subscriberHashMap.get("key").size());
+
+        // when the observer unsubscribes
+        subscription.unsubscribe();
+
+        // then the waiter and its key are dropped
+        assertTrue(impl._subscriberHashMap.isEmpty());
+    }
+
+    @Test
+    public void observe_timeoutOperatorReclaimsWaiter() throws Exception {
+        // given a store
+        EtherImpl impl = new EtherImpl();
+
+        // when an observer gives up waiting for a key that is not held
+        try {
+            impl.observeResourceWithKey("key").timeout(100, TimeUnit.MILLISECONDS).toBlocking().first();
+            fail("expected a timeout");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+
+        // then the waiter is dropped once the timeout operator unsubscribes
+        for (int i = 0; i < 100 && !impl._subscriberHashMap.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(impl._subscriberHashMap.isEmpty());
+    }
+
+    @Test
+    public void observe_withDeadline() throws Exception {
+        // given a store
+        EtherImpl impl = new EtherImpl();
+
+        // when many observers wait with a deadline for keys that are never held
+        int waiters = 1000;
+        final CountDownLatch latch = new CountDownLatch(waiters);
+        final AtomicInteger timedOut = new AtomicInteger();
+        for (int i = 0; i < waiters; i++) {
+            impl.observeResourceWithKey("key-" + (i % 10), null, TimeUnit.MILLISECONDS, 100)
+                    .subscribe(new Observer<Object>() {
+                        @Override
+                        public void onCompleted() {
+                            latch.countDown();
+                        }
+
+                        @Override
+                        public void onError(Throwable e) {
+                            if (e instanceof TimeoutException) {
+                                timedOut.incrementAndGet();
+                            }
+                            latch.countDown();
+                        }
+
+                        @Override
+                        public void onNext(Object o) {
+                        }
+                    });
+        }
+
+        // then every observer fails with a timeout
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertEquals(waiters, timedOut.get());
+
+        // and all waiters are dropped
+        assertTrue(impl._subscriberHashMap.isEmpty());
+    }
+
+    @Test
+    public void observe_withDeadline_heldInTime() throws Exception {
+        // given a store
+        EtherImpl impl = new EtherImpl();
+
+        // when an observer waits with a deadline for a key that is then held
+        rx.Observable<TestResource> observable = impl.observeResourceWithKey("key", null, TimeUnit.SECONDS, 1);
+        TestResource resource = new TestResource("in time");
+        impl.holdUntilObserved("key", resource);
+
+        // then the item is received
+        assertSame(resource, observable.toBlocking().first());
+        assertTrue(impl._subscriberHashMap.isEmpty());
+    }
+
+    @Test
+    public void setMaximumSize_evictsLeastRecentlyObserved() throws Exception {
+        // given a store bounded to three resources
+        EtherImpl impl = new EtherImpl();
+        impl.setMaximumWeight(3, null);
+        final List<String> evicted = new ArrayList<>();
+        impl.setEvictionListener(new EvictionListener() {
+            @Override
+            public void onEvicted(String key, Object resource) {
+                evicted.add(key);
+            }
+        });
+
+        // and three held resources of which the first is observed again
+        impl.hold("a", new TestResource("a"));
+        impl.hold("b", new TestResource("b"));
+        impl.hold("c", new TestResource("c"));
+        assertNotNull(impl.getResourceWithKey("a"));
+
+        // when more resources are held
+        impl.hold("d", new TestResource("d"));
+        impl.holdUntilObserved("e", new TestResource("e"));
+
+        // then the store stays within its bound
+        assertEquals(3, impl._itemStore.size());
+
+        // and the resources that were never observed again are evicted first
+        assertEquals(2, evicted.size());
+        assertTrue(evicted.contains("b"));
+        assertTrue(evicted.contains("c"));
+        assertTrue(impl._itemStore.containsKey("a"));
+        impl.flush();
+    }
+
+    @Test
+    public void setMaximumWeight() throws Exception {
+        // given a store holding resources
+        EtherImpl impl = new EtherImpl();
+        for (int i = 0; i < 10; i++) {
+            impl.holdUntilObserved("key-" + i, new TestResource("name-" + i));
+        }
+
+        // when it is bounded by a weight its current resources exceed
+        impl.setMaximumWeight(12, new Weigher() {
+            @Override
+            public int weigh(String key, Object resource) {
+                return ((TestResource) resource).getName().length();
+            }
+        });
+
+        // then resources are evicted down to the bound
+        assertEquals(2, impl._itemStore.size());
+
+        // and a resource heavier than the bound is not retained
+        impl.holdUntilObserved("heavy", new TestResource("a very heavy resource"));
+        assertFalse(impl._itemStore.containsKey("heavy"));
+        impl.flush();
+    }
+
+    @Test
+    public void segmentedLru_removalQueuedBeforeStoreWins() throws Exception {
+        // given a policy bounded to one resource
+        SegmentedLru lru = new SegmentedLru(1);
+        Resource removed = new Resource<>("removed", "removed", RetainPolicy.TIMED);
+        Resource first = new Resource<>("first", "first", RetainPolicy.TIMED);
+        Resource second = new Resource<>("second", "second", RetainPolicy.TIMED);
+
+        // when a resource's removal is replayed before its store
+        assertNull(lru.remove(removed));
+        assertNull(lru.add(removed));
+
+        // then it is never tracked, so it is neither weighed nor picked as a victim
+        assertNull(lru.add(first));
+        assertEquals(Collections.singletonList(first), lru.add(second));
+    }
+
+    @Test
+    public void segmentedLru_bufferedReadsReplayedBeforeWrites() throws Exception {
+        // given a policy bounded to two resources
+        SegmentedLru lru = new SegmentedLru(2);
+        Resource a = new Resource<>("a", "a", RetainPolicy.TIMED);
+        Resource b = new Resource<>("b", "b", RetainPolicy.TIMED);
+        Resource c = new Resource<>("c", "c", RetainPolicy.TIMED);
+        lru.add(a);
+        lru.add(b);
+
+        // when the first is read and a third resource is added while the read is still buffered
+        lru.recordAccess(a);
+        List<Resource> victims = lru.add(c);
+
+        // then the read counts before the store and the resource never read is evicted
+        assertEquals(Collections.singletonList(b), victims);
+    }
+
+    @Test
+    public void segmentedLru_readReplaysStrandedWrites() throws Exception {
+        // given a policy bounded to one resource
+        final SegmentedLru lru = new SegmentedLru(1);
+        Resource a = new Resource<>("a", "a", RetainPolicy.TIMED);
+        Resource b = new Resource<>("b", "b", RetainPolicy.TIMED);
+        lru.add(a);
+
+        // and a store queued while another thread holds the lock
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                lru._lock.lock();
+                try {
+                    locked.countDown();
+                    release.await();
+                } catch (InterruptedException ignored) {
+                } finally {
+                    lru._lock.unlock();
+                }
+            }
+        });
+        holder.start();
+        locked.await();
+        assertNull(lru.add(b));
+        release.countDown();
+        holder.join();
+
+        // when the first resource is read
+        List<Resource> victims = lru.recordAccess(a);
+
+        // then the read replays the stranded store and evicts down to the bound
+        assertEquals(Collections.singletonList(b), victims);
+    }
+
+    @Test
+    public void setMaximumWeight_negativeWeightRejected() throws Exception {
+        // given a store bounded by a weigher that weighs one resource below zero
+        EtherImpl impl = new EtherImpl();
+        impl.setMaximumWeight(10, new Weigher() {
+            @Override
+            public int weigh(String key, Object resource) {
+                return key.equals("negative") ? -1 : 1;
+            }
+        });
+
+        // when that resource is held
+        try {
+            impl.hold("negative", new TestResource("negative"));
+            fail("a negative weight must be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        // then it is not stored and the store still holds others
+        assertFalse(impl._itemStore.containsKey("negative"));
+        impl.hold("positive", new TestResource("positive"));
+        assertTrue(impl._itemStore.containsKey("positive"));
+        impl.flush();
+    }
+
+    @Test
+    public void holdWeakly_collectedItemIsAMiss() throws Exception {
+        // given a store
+        EtherImpl impl = new EtherImpl();
+
+        // and an item held weakly while strongly reachable
+        TestResource resource = new TestResource("weak");
+        impl.holdReferenced("key", resource, RetainPolicy.WEAK);
+        assertSame(resource, impl.getResourceWithKey("key"));
+
+        // when the item is no longer strongly reachable and is collected
+        //noinspection UnusedAssignment
+        resource = null;
+        for (int i = 0; i < 50 && impl._itemStore.get("key").value() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        // then fetching it is a miss
+        assertNull(impl.getResourceWithKey("key"));
+
+        // and observing it waits for a new hold
+        TestResource replacement = new TestResource("replacement");
+        rx.Observable<TestResource> observable = impl.observeResourceWithKey("key");
+        SubscriberResult result = new SubscriberResult();
+        observable.subscribe(result);
+        assertNull(result._resource);
+        impl.holdReferenced("key", replacement, RetainPolicy.WEAK);
+        assertSame(replacement, result._resource);
+        impl.flush();
+    }
+
+    @Test
+    public void holdWeakly_collectedItemsAreSwept() throws Exception {
+        // given a store
+        EtherImpl impl = new EtherImpl();
+
+        // and many weakly held items that are no longer strongly reachable
+        for (int i = 0; i < 100; i++) {
+            impl.holdReferenced("key-" + i, new TestResource("weak-" + i), RetainPolicy.WEAK);
+        }
+
+        // when they are collected and another item is held
+        for (int i = 0; i < 50 && impl._itemStore.size() > 1; i++) {
+            System.gc();
+            Thread.sleep(10);
+            impl.holdUntilObserved("trigger", new TestResource("trigger"));
+        }
+
+        // then the collected entries are swept out
+        assertEquals(1, impl._itemStore.size());
+        impl.flush();
+    }
+
+    @Test
+    public void holdWeakly_collectedItemsAreSweptByReads() throws Exception {
+        // given a store
+        EtherImpl impl = new EtherImpl();
+
+        // and many weakly held items that are no longer strongly reachable
+        for (int i = 0; i < 100; i++) {
+            impl.holdReferenced("key-" + i, new TestResource("weak-" + i), RetainPolicy.WEAK);
+        }
+
+        // when they are collected and the store is only read
+        for (int i = 0; i < 50 && !impl._itemStore.isEmpty(); i++) {
+            System.gc();
+            Thread.sleep(10);
+            assertNull(impl.getResourceWithKey("missing"));
+        }
+
+        // then the collected entries are swept out
+        assertTrue(impl._itemStore.isEmpty());
+    }
+
+    @Test
+    public void holdAll() throws Exception {
+        // given a store
+        EtherImpl impl = new EtherImpl();
+
+        // and an observer waiting for a set of keys
+        rx.Observable<Map<String, TestResource>> observable = impl.observeResourcesWithKeys(
+                Arrays.asList("key-0", "key-50", "key-99"));
+        final List<Map<String, TestResource>> observed = new ArrayList<>();
+        observable.subscribe(new Action1<Map<String, TestResource>>() {
+            @Override
+            public void call(Map<String, TestResource> items) {
+                observed.add(items);
+            }
+        });
+
+        // when many items are held at once
+        Map<String, TestResource> items = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            items.put("key-" + i, new TestResource("name-" + i));
+        }
+        impl.holdAllForTime(items, TimeUnit.MILLISECONDS, 200);
+
+        // then the observer receives all of its items together
+        assertEquals(1, observed.size());
+        assertEquals(3, observed.get(0).size());
+        assertSame(items.get("key-50"), observed.get(0).get("key-50"));
+
+        // and the items can be fetched together
+        Map<String, TestResource> fetched = impl.getResourcesWithKeys(Arrays.asList("key-1", "key-2", "missing"));
+        assertEquals(2, fetched.size());
+        assertSame(items.get("key-2"), fetched.get("key-2"));
+
+        // and all of them expire together
+        Thread.sleep(500);
+        assertTrue(impl._itemStore.isEmpty());
+    }
+
+    private static class SubscriberResult extends rx.Subscriber<TestResource> {
+        TestResource _resource;
+
+        @Override
+        public void onCompleted() {
+        }
+
+        @Override
+        public void onError(Throwable e) {
+        }
+
+        @Override
+        public void onNext(TestResource testResource) {
+            _resource = testResource;
+        }
+    }
+}
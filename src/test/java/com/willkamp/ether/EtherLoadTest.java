@@ -0,0 +1,184 @@
+package com.willkamp.ether;
+
+import org.junit.Test;
+import rx.Observer;
+import rx.functions.Action1;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class EtherLoadTest {
+
+    @Test
+    public void getOrLoad_singleFlight() throws Exception {
+        // given a store whose loads are queued until run by the test
+        EtherStore store = new EtherStore();
+        QueuedExecutor executor = new QueuedExecutor();
+        store.setLoadExecutor(executor);
+        final TestResource resource = new TestResource("loaded");
+        final AtomicInteger loads = new AtomicInteger();
+        Callable<TestResource> loader = new Callable<TestResource>() {
+            @Override
+            public TestResource call() throws Exception {
+                loads.incrementAndGet();
+                return resource;
+            }
+        };
+
+        // when many observers miss the same key
+        final List<TestResource> received = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            store.getOrLoad("key", loader, 10).subscribe(new Action1<TestResource>() {
+                @Override
+                public void call(TestResource testResource) {
+                    received.add(testResource);
+                }
+            });
+        }
+
+        // then a single load is started
+        assertEquals(1, executor._queued.size());
+        assertTrue(received.isEmpty());
+
+        // and once it runs every observer receives its item, which stays held
+        executor.runAll();
+        assertEquals(1, loads.get());
+        assertEquals(10, received.size());
+        for (TestResource testResource : received) {
+            assertSame(resource, testResource);
+        }
+        assertSame(resource, store.getResourceWithKey("key"));
+        assertTrue(store._impl._loads.isEmpty());
+        assertTrue(store._impl._subscriberHashMap.isEmpty());
+    }
+
+    @Test
+    public void getOrLoad_hit() throws Exception {
+        // given a held resource
+        EtherStore store = new EtherStore();
+        QueuedExecutor executor = new QueuedExecutor();
+        store.setLoadExecutor(executor);
+        TestResource resource = new TestResource("held");
+        store.hold("key", resource);
+
+        // when it is observed with a loader
+        final AtomicReference<TestResource> received = new AtomicReference<>();
+        store.getOrLoad("key", new Callable<TestResource>() {
+            @Override
+            public TestResource call() throws Exception {
+                throw new AssertionError();
+            }
+        }, 10).subscribe(new Action1<TestResource>() {
+            @Override
+            public void call(TestResource testResource) {
+                received.set(testResource);
+            }
+        });
+
+        // then the held resource is emitted without loading
+        assertSame(resource, received.get());
+        assertTrue(executor._queued.isEmpty());
+    }
+
+    @Test
+    public void getOrLoad_failure() throws Exception {
+        // given a plain observer and a loading observer of the same key
+        EtherStore store = new EtherStore();
+        QueuedExecutor executor = new QueuedExecutor();
+        store.setLoadExecutor(executor);
+        final AtomicReference<Object> plain = new AtomicReference<>();
+        store.getResourceObservable("key").subscribe(new Action1<Object>() {
+            @Override
+            public void call(Object o) {
+                plain.set(o);
+            }
+        });
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        store.getOrLoad("key", new Callable<TestResource>() {
+            @Override
+            public TestResource call() throws Exception {
+                throw new IllegalArgumentException("no such resource");
+            }
+        }, 10).subscribe(new Observer<TestResource>() {
+            @Override
+            public void onCompleted() {
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                error.set(e);
+            }
+
+            @Override
+            public void onNext(TestResource testResource) {
+            }
+        });
+
+        // when the load fails
+        executor.runAll();
+
+        // then only the loading observer receives the error
+        assertTrue(error.get() instanceof IllegalArgumentException);
+        assertTrue(store._impl._loads.isEmpty());
+        assertEquals(1, store._impl._subscriberHashMap.get("key").size());
+
+        // and the plain observer still receives a later hold
+        TestResource resource = new TestResource("held");
+        store.hold("key", resource);
+        assertSame(resource, plain.get());
+    }
+
+    @Test
+    public void getOrLoad_heldWhileLoadingNotOverwritten() throws Exception {
+        // given an observer whose load is queued
+        EtherStore store = new EtherStore();
+        QueuedExecutor executor = new QueuedExecutor();
+        store.setLoadExecutor(executor);
+        final List<TestResource> received = new ArrayList<>();
+        store.getOrLoad("key", new Callable<TestResource>() {
+            @Override
+            public TestResource call() throws Exception {
+                return new TestResource("loaded");
+            }
+        }, 10).subscribe(new Action1<TestResource>() {
+            @Override
+            public void call(TestResource testResource) {
+                received.add(testResource);
+            }
+        });
+
+        // and a resource held with the key before the load finishes
+        TestResource held = new TestResource("held");
+        store.hold("key", held);
+
+        // when the load finishes
+        executor.runAll();
+
+        // then the observer received the held resource, which the loaded item does not replace
+        assertEquals(1, received.size());
+        assertSame(held, received.get(0));
+        assertSame(held, store.getResourceWithKey("key"));
+        assertTrue(store._impl._loads.isEmpty());
+    }
+
+    private static class QueuedExecutor implements Executor {
+        final List<Runnable> _queued = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            _queued.add(command);
+        }
+
+        void runAll() {
+            while (!_queued.isEmpty()) {
+                _queued.remove(0).run();
+            }
+        }
+    }
+}
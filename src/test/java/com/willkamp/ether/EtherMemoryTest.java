@@ -0,0 +1,183 @@
+package com.willkamp.ether;
+
+import org.junit.Test;
+
+import javax.management.Notification;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EtherMemoryTest {
+
+    private static final Sizer HUNDRED_BYTES = new Sizer() {
+        @Override
+        public long sizeOf(String key, Object resource) {
+            return 100;
+        }
+    };
+
+    @Test
+    public void setSizer_tracksRetainedBytes() throws Exception {
+        // given a resource held before sizes are tracked
+        EtherStore store = new EtherStore();
+        store.hold("before", "before");
+        assertEquals(0, store.getRetainedBytes());
+
+        // when a sizer is set
+        store.setSizer(HUNDRED_BYTES);
+
+        // then the held resource is measured and later holds are counted as they happen
+        assertEquals(100, store.getRetainedBytes());
+        store.hold("timed", "timed");
+        store.holdUntilObserved("once", "once");
+        assertEquals(300, store.getRetainedBytes());
+
+        // and a resource handed straight to an observer is never counted
+        store.getResourceObservable("handed-off").subscribe();
+        store.holdUntilObserved("handed-off", "handed off");
+        assertEquals(300, store.getRetainedBytes());
+
+        // and removals and replacements take the size off
+        store.getResourceWithKey("once");
+        assertEquals(200, store.getRetainedBytes());
+        store.hold("timed", "replaced");
+        assertEquals(200, store.getRetainedBytes());
+        store.flush();
+        assertEquals(0, store.getRetainedBytes());
+    }
+
+    @Test
+    public void objectGraph_estimates() throws Exception {
+        // given resources of known shape
+        byte[] bytes = new byte[1000];
+        List<Object> list = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            list.add(new byte[100]);
+        }
+        Object[] cycle = new Object[1];
+        cycle[0] = cycle;
+
+        // then their estimates are close to their footprint
+        long bytesSize = Sizer.OBJECT_GRAPH.sizeOf("bytes", bytes);
+        assertTrue(bytesSize >= 1000 && bytesSize < 1100);
+        long listSize = Sizer.OBJECT_GRAPH.sizeOf("list", list);
+        assertTrue(listSize >= 100 * 100 && listSize < 100 * 200);
+        assertEquals(24, Sizer.OBJECT_GRAPH.sizeOf("cycle", cycle));
+        assertEquals(0, Sizer.OBJECT_GRAPH.sizeOf("null", null));
+    }
+
+    @Test
+    public void purge_timedClosestToExpiryFirst() throws Exception {
+        // given timed resources with different deadlines and a resource held until observed
+        EtherStore store = new EtherStore();
+        store.setSizer(HUNDRED_BYTES);
+        store.holdFor("thirty", "thirty", 30);
+        store.holdFor("ten", "ten", 10);
+        store.holdFor("twenty", "twenty", 20);
+        store.holdUntilObserved("once", "once");
+
+        // when 150 bytes are purged
+        long freed = store._impl.purge(150);
+
+        // then the two timed resources closest to expiring are evicted
+        assertEquals(200, freed);
+        assertNull(store.getResourceWithKey("ten"));
+        assertNull(store.getResourceWithKey("twenty"));
+        assertEquals("thirty", store.getResourceWithKey("thirty"));
+        assertEquals("once", store.getResourceWithKey("once"));
+        assertEquals(100, store.getRetainedBytes());
+    }
+
+    @Test
+    public void memoryPressure_purges() throws Exception {
+        // given a store watching the heap
+        EtherStore store = new EtherStore();
+        store.setStatsEnabled(true);
+        store.setSizer(Sizer.OBJECT_GRAPH);
+        store.setMemoryPressureThreshold(0.99);
+        for (int i = 0; i < 10; i++) {
+            store.holdFor("key-" + i, new byte[1000], 10 + i);
+        }
+        long retained = store.getRetainedBytes();
+        assertTrue(retained >= 10000);
+
+        // when the heap crosses its threshold
+        MemoryPressureMonitor.instance().handleNotification(
+                new Notification(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED, this, 1), null);
+
+        // then half the retained bytes are evicted, oldest deadlines first
+        assertEquals(5, store.getStats().getEvictionCount());
+        assertNull(store.getResourceWithKey("key-4"));
+        assertNotNull(store.getResourceWithKey("key-5"));
+
+        // and once the store stops watching it is left alone
+        store.setMemoryPressureThreshold(0);
+        MemoryPressureMonitor.instance().handleNotification(
+                new Notification(MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED, this, 2), null);
+        assertEquals(5, store.getStats().getEvictionCount());
+    }
+
+    @Test
+    public void memoryPressure_requiresSizer() throws Exception {
+        // given a store without a sizer
+        EtherStore store = new EtherStore();
+
+        // when it is asked to watch the heap
+        try {
+            store.setMemoryPressureThreshold(0.9);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+            // then it refuses rather than picking a sizer
+        }
+
+        // and nothing is measured
+        store.hold("key", new byte[1000]);
+        assertEquals(0, store.getRetainedBytes());
+    }
+
+    @Test
+    public void memoryPressure_restoresThresholds() throws Exception {
+        // given heap pools with thresholds set by someone else
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getUsage().getMax() > 0
+                    && pool.isUsageThresholdSupported()) {
+                pools.add(pool);
+                pool.setUsageThreshold(1234);
+            }
+        }
+        EtherStore first = new EtherStore();
+        first.setSizer(HUNDRED_BYTES);
+        EtherStore second = new EtherStore();
+        second.setSizer(HUNDRED_BYTES);
+
+        try {
+            // when two stores watch the heap and one stops
+            first.setMemoryPressureThreshold(0.99);
+            second.setMemoryPressureThreshold(0.98);
+            first.setMemoryPressureThreshold(0);
+
+            // then the stores still own the thresholds
+            for (MemoryPoolMXBean pool : pools) {
+                assertTrue(pool.getUsageThreshold() > 1234);
+            }
+
+            // when the last store stops
+            second.setMemoryPressureThreshold(0);
+
+            // then the thresholds are put back
+            for (MemoryPoolMXBean pool : pools) {
+                assertEquals(1234, pool.getUsageThreshold());
+            }
+        } finally {
+            for (MemoryPoolMXBean pool : pools) {
+                pool.setUsageThreshold(0);
+            }
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.willkamp.ether;
+
+import org.junit.Test;
+import rx.Observable;
+import rx.Subscription;
+import rx.functions.Action1;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class EtherNodeTest {
+
+    private static final List<String> MEMBERS = Arrays.asList("a", "b", "c");
+
+    @Test
+    public void loopback_holdAndObserveAcrossNodes() throws Exception {
+        // given three members on a loopback network
+        LoopbackTransport.Network network = new LoopbackTransport.Network();
+        EtherStore[] stores = new EtherStore[3];
+        EtherNode[] nodes = new EtherNode[3];
+        for (int i = 0; i < 3; i++) {
+            stores[i] = new EtherStore();
+            nodes[i] = new EtherNode(MEMBERS.get(i), stores[i], new LoopbackTransport(network));
+            nodes[i].setMembers(MEMBERS);
+        }
+
+        // and a key owned by the second member
+        String key = keyOwnedBy(nodes[0], "b");
+
+        // when the third member observes it before the first holds it
+        Observable<String> observable = nodes[2].<String>getResourceObservable(key).timeout(5, TimeUnit.SECONDS).cache();
+        observable.subscribe();
+        nodes[0].holdUntilObserved(key, "hand-off");
+
+        // then the waiting observer receives a copy of the resource
+        assertEquals("hand-off", observable.toBlocking().first());
+
+        // and the owner gave it up
+        assertNull(stores[1].getResourceWithKey(key));
+        assertTrue(stores[1]._impl._subscriberHashMap.isEmpty());
+
+        // and a timed resource held from one member is seen from every member
+        String timedKey = keyOwnedBy(nodes[0], "c");
+        nodes[1].hold(timedKey, 42);
+        for (EtherNode node : nodes) {
+            assertEquals(Integer.valueOf(42),
+                    node.<Integer>getResourceObservable(timedKey).timeout(5, TimeUnit.SECONDS).toBlocking().first());
+        }
+        for (EtherNode node : nodes) {
+            node.close();
+        }
+    }
+
+    @Test
+    public void loopback_unsubscribeDropsRemoteWaiter() throws Exception {
+        // given two members on a loopback network
+        LoopbackTransport.Network network = new LoopbackTransport.Network();
+        EtherStore ownerStore = new EtherStore();
+        EtherNode owner = new EtherNode("a", ownerStore, new LoopbackTransport(network));
+        EtherNode observer = new EtherNode("b", new EtherStore(), new LoopbackTransport(network));
+        owner.setMembers(Arrays.asList("a", "b"));
+        observer.setMembers(Arrays.asList("a", "b"));
+        String key = keyOwnedBy(observer, "a");
+
+        // and an observation waiting with the owner
+        Subscription subscription = observer.getResourceObservable(key).subscribe(new Action1<Object>() {
+            @Override
+            public void call(Object o) {
+            }
+        });
+        awaitWaiters(ownerStore, false);
+
+        // when the observer unsubscribes
+        subscription.unsubscribe();
+
+        // then the owner drops its waiter
+        awaitWaiters(ownerStore, true);
+        owner.close();
+        observer.close();
+    }
+
+    @Test
+    public void loopback_onlyAllowedClassesReceived() throws Exception {
+        // given two members on a loopback network
+        LoopbackTransport.Network network = new LoopbackTransport.Network();
+        EtherStore ownerStore = new EtherStore();
+        EtherNode owner = new EtherNode("a", ownerStore, new LoopbackTransport(network));
+        EtherNode holder = new EtherNode("b", new EtherStore(), new LoopbackTransport(network));
+        owner.setMembers(Arrays.asList("a", "b"));
+        holder.setMembers(Arrays.asList("a", "b"));
+        String key = keyOwnedBy(holder, "a", 0);
+        String marker = keyOwnedBy(holder, "a", 1);
+
+        // when a resource of a class the owner does not allow is held, followed by one it allows
+        holder.holdFor(key, new AtomicInteger(1), 60);
+        holder.holdFor(marker, "marker", 60);
+        awaitHeld(ownerStore, marker);
+
+        // then the owner refused to deserialize the first
+        assertNull(ownerStore.getResourceWithKey(key));
+
+        // and once the class is allowed it is received
+        owner.allowClass(AtomicInteger.class);
+        holder.holdFor(key, new AtomicInteger(2), 60);
+        awaitHeld(ownerStore, key);
+        assertEquals(2, ownerStore.<AtomicInteger>getResourceWithKey(key).get());
+        owner.close();
+        holder.close();
+    }
+
+    @Test
+    public void loopback_framesFromNonMembersDropped() throws Exception {
+        // given an owner that only knows itself and a node that considers it a member
+        LoopbackTransport.Network network = new LoopbackTransport.Network();
+        EtherStore ownerStore = new EtherStore();
+        EtherNode owner = new EtherNode("a", ownerStore, new LoopbackTransport(network));
+        EtherNode stranger = new EtherNode("b", new EtherStore(), new LoopbackTransport(network));
+        stranger.setMembers(Collections.singletonList("a"));
+
+        // when the stranger holds a resource with the owner
+        stranger.holdFor("key", "resource", 60);
+
+        // then the owner drops it until the stranger is a member
+        Thread.sleep(100);
+        assertNull(ownerStore.getResourceWithKey("key"));
+        owner.setMembers(Arrays.asList("a", "b"));
+        stranger.holdFor("key", "resource", 60);
+        awaitHeld(ownerStore, "key");
+        owner.close();
+        stranger.close();
+    }
+
+    @Test
+    public void loopback_disconnectDropsRemoteWaiter() throws Exception {
+        // given an observation waiting with the owner
+        LoopbackTransport.Network network = new LoopbackTransport.Network();
+        EtherStore ownerStore = new EtherStore();
+        EtherNode owner = new EtherNode("a", ownerStore, new LoopbackTransport(network));
+        EtherNode observer = new EtherNode("b", new EtherStore(), new LoopbackTransport(network));
+        owner.setMembers(Arrays.asList("a", "b"));
+        observer.setMembers(Arrays.asList("a", "b"));
+        observer.getResourceObservable(keyOwnedBy(observer, "a")).subscribe(new Action1<Object>() {
+            @Override
+            public void call(Object o) {
+            }
+        });
+        awaitWaiters(ownerStore, false);
+
+        // when the observer goes away without unsubscribing
+        observer.close();
+
+        // then the owner drops its waiter
+        awaitWaiters(ownerStore, true);
+        owner.close();
+    }
+
+    @Test
+    public void tcp_refusesUnknownPeersAndOversizedFrames() throws Exception {
+        // given a transport that knows one peer and accepts frames of up to 1 KB
+        InetSocketAddress localhost = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        TcpTransport transport = new TcpTransport(localhost, 1024);
+        final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        transport.start("local", new Transport.Receiver() {
+            @Override
+            public void receive(String fromNode, byte[] frame) {
+                received.add(fromNode + ":" + frame.length);
+            }
+
+            @Override
+            public void disconnected(String fromNode) {
+                received.add(fromNode + " disconnected");
+            }
+        });
+        transport.addPeer("peer", localhost);
+
+        // when a node that is not a peer connects, then it is disconnected without its frame being received
+        ByteArrayOutputStream stranger = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(stranger);
+        out.writeUTF("stranger");
+        out.writeInt(1);
+        out.write(0);
+        assertDisconnected(transport, stranger.toByteArray());
+
+        // and a peer that sends a frame larger than the maximum is disconnected after its earlier frames
+        ByteArrayOutputStream oversized = new ByteArrayOutputStream();
+        out = new DataOutputStream(oversized);
+        out.writeUTF("peer");
+        out.writeInt(1);
+        out.write(0);
+        out.writeInt(Integer.MAX_VALUE);
+        assertDisconnected(transport, oversized.toByteArray());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (received.size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(Arrays.asList("peer:1", "peer disconnected"), received);
+        transport.close();
+    }
+
+    @Test
+    public void tcp_dropsSilentAndExcessConnections() throws Exception {
+        // given a transport that holds one connection open and waits a second for a connection to name its node
+        InetSocketAddress localhost = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        TcpTransport transport = new TcpTransport(localhost);
+        transport.setMaxConnections(1);
+        transport.setHandshakeTimeout(1, TimeUnit.SECONDS);
+        transport.start("local", new Transport.Receiver() {
+            @Override
+            public void receive(String fromNode, byte[] frame) {
+            }
+
+            @Override
+            public void disconnected(String fromNode) {
+            }
+        });
+
+        // when a client connects without sending anything
+        try (Socket silent = new Socket(InetAddress.getLoopbackAddress(), transport.getLocalAddress().getPort())) {
+            silent.setSoTimeout((int) TimeUnit.SECONDS.toMillis(5));
+
+            // then a second connection is closed while the first holds the only slot
+            assertDisconnected(transport, new byte[0]);
+
+            // and the silent connection is dropped once the handshake times out
+            assertEquals(-1, silent.getInputStream().read());
+        }
+        transport.close();
+    }
+
+    @Test
+    public void tcp_holdAndObserveAcrossNodes() throws Exception {
+        // given two members connected over TCP
+        InetSocketAddress localhost = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        TcpTransport firstTransport = new TcpTransport(localhost);
+        TcpTransport secondTransport = new TcpTransport(localhost);
+        EtherNode first = new EtherNode("first", new EtherStore(), firstTransport);
+        EtherNode second = new EtherNode("second", new EtherStore(), secondTransport);
+        firstTransport.addPeer("second", secondTransport.getLocalAddress());
+        secondTransport.addPeer("first", firstTransport.getLocalAddress());
+        List<String> members = Arrays.asList("first", "second");
+        first.setMembers(members);
+        second.setMembers(members);
+
+        // when many resources owned by the second member are held from the first
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            first.holdFor(keyOwnedBy(first, "second", i), "resource-" + i, 60);
+        }
+
+        // then each is received by an observer on the first
+        for (int i = 0; i < count; i++) {
+            assertEquals("resource-" + i, first.<String>getResourceObservable(keyOwnedBy(first, "second", i))
+                    .timeout(5, TimeUnit.SECONDS).toBlocking().first());
+        }
+        first.close();
+        second.close();
+    }
+
+    private static String keyOwnedBy(EtherNode node, String owner) {
+        return keyOwnedBy(node, owner, 0);
+    }
+
+    /**
+     * @return the index'th key owned by the owner.
+     */
+    private static String keyOwnedBy(EtherNode node, String owner, int index) {
+        int found = 0;
+        for (int i = 0; ; i++) {
+            String key = "key-" + i;
+            if (node.getOwner(key).equals(owner) && found++ == index) {
+                return key;
+            }
+        }
+    }
+
+    /**
+     * Connect to a transport, send it the bytes and wait for it to close the connection, which it may do before every
+     * byte was sent.
+     */
+    private static void assertDisconnected(TcpTransport transport, byte[] bytes) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), transport.getLocalAddress().getPort())) {
+            socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(5));
+            try {
+                socket.getOutputStream().write(bytes);
+                assertEquals(-1, socket.getInputStream().read());
+            } catch (SocketException e) {
+                // reset by the transport
+            }
+        }
+    }
+
+    private static void awaitHeld(EtherStore store, String key) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (store.getResourceWithKey(key) == null && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertNotNull(store.getResourceWithKey(key));
+    }
+
+    private static void awaitWaiters(EtherStore store, boolean empty) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (store._impl._subscriberHashMap.isEmpty() != empty && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(empty, store._impl._subscriberHashMap.isEmpty());
+    }
+}
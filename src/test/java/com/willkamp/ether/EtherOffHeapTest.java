@@ -0,0 +1,101 @@
+package com.willkamp.ether;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import rx.functions.Action1;
+import rx.schedulers.TestScheduler;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class EtherOffHeapTest {
+
+    @Rule
+    public TemporaryFolder _folder = new TemporaryFolder();
+
+    @Test
+    public void holdBufferUntilObserved_readOnlyView() throws Exception {
+        // given a payload held off the heap until observed
+        EtherStore store = new EtherStore();
+        ByteBuffer payload = ByteBuffer.wrap(new byte[]{1, 2, 3, 4});
+        payload.position(1);
+        store.holdBufferUntilObserved("key", payload);
+
+        // when it is observed
+        final AtomicReference<ByteBuffer> received = new AtomicReference<>();
+        store.<ByteBuffer>getResourceObservable("key").subscribe(new Action1<ByteBuffer>() {
+            @Override
+            public void call(ByteBuffer buffer) {
+                received.set(buffer);
+            }
+        });
+
+        // then the observer receives a read-only direct view of the remaining bytes
+        ByteBuffer view = received.get();
+        assertTrue(view.isReadOnly());
+        assertTrue(view.isDirect());
+        assertEquals(3, view.remaining());
+        assertEquals(2, view.get());
+        assertEquals(3, view.get());
+        assertEquals(4, view.get());
+
+        // and the payload was left untouched
+        assertEquals(1, payload.position());
+
+        // and the item is gone
+        assertNull(store.getResourceWithKey("key"));
+        store.close();
+    }
+
+    @Test
+    public void holdBuffer_independentViews() throws Exception {
+        // given a payload held off the heap for a time
+        EtherStore store = new EtherStore();
+        store.holdBuffer("key", ByteBuffer.wrap(new byte[]{1, 2}));
+
+        // when it is fetched twice
+        ByteBuffer first = store.getResourceWithKey("key");
+        ByteBuffer second = store.getResourceWithKey("key");
+
+        // then reading one view does not move the other
+        assertEquals(1, first.get());
+        assertEquals(0, second.position());
+        store.close();
+    }
+
+    @Test
+    public void mappedStorage_slabsReclaimed() throws Exception {
+        // given a store keeping virtual time that maps small slabs
+        TestScheduler scheduler = new TestScheduler();
+        EtherStore store = new EtherStore(scheduler);
+        store.setOffHeapStorage(_folder.getRoot(), 64);
+
+        // when payloads that each fill most of a slab are held and one larger than a slab
+        for (int i = 0; i < 3; i++) {
+            store.holdBufferFor("key-" + i, ByteBuffer.allocate(40), 1);
+        }
+        store.holdBufferFor("large", ByteBuffer.allocate(100), 1);
+
+        // then every payload reserved a slab
+        OffHeapArena arena = store._impl._arena;
+        assertEquals(4, arena.liveSlabs());
+        ByteBuffer view = store.getResourceWithKey("key-0");
+
+        // and once they expire only the slab being filled is left
+        scheduler.advanceTimeBy(2, TimeUnit.SECONDS);
+        assertNull(store.getResourceWithKey("key-0"));
+        assertEquals(1, arena.liveSlabs());
+        assertEquals(64, arena.reservedBytes());
+
+        // and views still held remain readable
+        assertEquals(40, view.remaining());
+
+        // and no slab files are left behind
+        assertEquals(0, _folder.getRoot().list().length);
+        store.close();
+    }
+}
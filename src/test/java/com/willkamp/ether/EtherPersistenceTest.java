@@ -0,0 +1,201 @@
+package com.willkamp.ether;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import rx.schedulers.TestScheduler;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class EtherPersistenceTest {
+
+    @Rule
+    public TemporaryFolder _folder = new TemporaryFolder();
+
+    @Test
+    public void restore_remainingTime() throws Exception {
+        // given a persisted store keeping virtual time
+        TestScheduler scheduler = new TestScheduler();
+        File file = new File(_folder.getRoot(), "ether.snapshot");
+        EtherStore store = new EtherStore(scheduler);
+        assertEquals(0, store.enablePersistence(file));
+
+        // and resources held for a time, until observed, off the heap and not serializable
+        store.holdFor("timed", "timed", 10);
+        store.holdUntilObserved("once", "once");
+        store.holdUntilObserved("consumed", "consumed");
+        store.holdBufferFor("bytes", ByteBuffer.wrap(new byte[]{7, 8}), 10);
+        store.hold("object", new Object());
+        store.holdFor("replaced", "first", 10);
+        store.holdFor("replaced", "second", 10);
+        store.holdFor("short", "short", 1);
+        assertEquals("consumed", store.getResourceWithKey("consumed"));
+
+        // when the process restarts 5 seconds later
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS);
+        store.close();
+        EtherStore restarted = new EtherStore(scheduler);
+        int restored = restarted.enablePersistence(file);
+
+        // then the serializable resources still held are restored
+        assertEquals(4, restored);
+        assertEquals("once", restarted.getResourceWithKey("once"));
+        assertEquals("second", restarted.getResourceWithKey("replaced"));
+        ByteBuffer bytes = restarted.getResourceWithKey("bytes");
+        assertTrue(bytes.isReadOnly());
+        assertEquals(7, bytes.get());
+        assertNull(restarted.getResourceWithKey("consumed"));
+        assertNull(restarted.getResourceWithKey("object"));
+        assertNull(restarted.getResourceWithKey("short"));
+
+        // and timed resources only for the time they had left
+        assertEquals("timed", restarted.getResourceWithKey("timed"));
+        scheduler.advanceTimeBy(6, TimeUnit.SECONDS);
+        assertNull(restarted.getResourceWithKey("timed"));
+        restarted.close();
+    }
+
+    @Test
+    public void restore_truncatedLog() throws Exception {
+        // given a snapshot whose last record was cut short
+        File file = new File(_folder.getRoot(), "ether.snapshot");
+        EtherStore store = new EtherStore();
+        store.enablePersistence(file);
+        store.holdUntilObserved("first", "first");
+        store.holdUntilObserved("second", "second");
+        store.close();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(randomAccessFile.length() - 3);
+        }
+
+        // when it is restored
+        EtherStore restarted = new EtherStore();
+        int restored = restarted.enablePersistence(file);
+
+        // then the complete records are restored
+        assertEquals(1, restored);
+        assertEquals("first", restarted.getResourceWithKey("first"));
+        restarted.close();
+    }
+
+    @Test
+    public void replay_ordersKeyRecordsById() throws Exception {
+        // given a log whose records were appended out of the order their ids were reserved in
+        File file = new File(_folder.getRoot(), "ether.snapshot");
+        SnapshotLog log = SnapshotLog.create(file);
+        long first = log.reserveId();
+        long second = log.reserveId();
+        long removed = log.reserveId();
+        log.appendPut(second, "key", RetainPolicy.ONCE_OBSERVED, 0, SnapshotLog.serialize("second"));
+        log.appendPut(first, "key", RetainPolicy.ONCE_OBSERVED, 0, SnapshotLog.serialize("first"));
+        log.appendRemove("removed", removed);
+        log.appendPut(removed, "removed", RetainPolicy.ONCE_OBSERVED, 0, SnapshotLog.serialize("removed"));
+        log.close();
+
+        // when it is replayed
+        List<SnapshotLog.Record> records = SnapshotLog.read(file);
+
+        // then each key keeps its newest resource and a removal appended before its put still applies
+        assertEquals(1, records.size());
+        assertEquals("second", records.get(0).item());
+    }
+
+    @Test
+    public void replay_corruptLengthEndsReplay() throws Exception {
+        // given a log whose last record claims a key far longer than the file
+        File file = new File(_folder.getRoot(), "ether.snapshot");
+        SnapshotLog log = SnapshotLog.create(file);
+        log.appendPut(log.reserveId(), "first", RetainPolicy.ONCE_OBSERVED, 0, SnapshotLog.serialize("first"));
+        log.close();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true))) {
+            out.writeByte(1);
+            out.writeLong(2);
+            out.writeInt(Integer.MAX_VALUE);
+        }
+
+        // when it is replayed
+        List<SnapshotLog.Record> records = SnapshotLog.read(file);
+
+        // then the replay ends at the corrupt record without allocating for it
+        assertEquals(1, records.size());
+        assertEquals("first", records.get(0).item());
+    }
+
+    @Test
+    public void failedLog_stopsSerializing() throws Exception {
+        // given a store whose snapshot log closed itself
+        File file = new File(_folder.getRoot(), "ether.snapshot");
+        EtherStore store = new EtherStore();
+        store.enablePersistence(file);
+        store._impl._snapshotLog.close();
+        CountingItem.__serialized.set(0);
+
+        // when an item is held
+        store.holdUntilObserved("key", new CountingItem());
+
+        // then it is not serialized for the log
+        assertEquals(0, CountingItem.__serialized.get());
+
+        // and persistence can be enabled again
+        store.enablePersistence(file);
+        store.holdUntilObserved("other", new CountingItem());
+        assertEquals(1, CountingItem.__serialized.get());
+        store.close();
+    }
+
+    @Test
+    public void compaction_dropsDeadRecords() throws Exception {
+        // given logs that are rewritten after a few records or never
+        File compactedFile = new File(_folder.getRoot(), "compacted.snapshot");
+        File fullFile = new File(_folder.getRoot(), "full.snapshot");
+        SnapshotLog compacted = SnapshotLog.create(new File(_folder.getRoot(), "compacted.tmp"), 8);
+        compacted.commit(compactedFile);
+        SnapshotLog full = SnapshotLog.create(new File(_folder.getRoot(), "full.tmp"), Integer.MAX_VALUE);
+        full.commit(fullFile);
+
+        // when most of the resources logged are removed
+        for (SnapshotLog log : Arrays.asList(compacted, full)) {
+            for (int i = 0; i < 100; i++) {
+                long id = log.reserveId();
+                log.appendPut(id, "key" + i, RetainPolicy.ONCE_OBSERVED, 0, SnapshotLog.serialize(i));
+                if (i % 10 != 0) {
+                    log.appendRemove("key" + i, id);
+                }
+            }
+            log.close();
+        }
+
+        // then the rewritten log keeps the same resources in less space
+        List<SnapshotLog.Record> records = SnapshotLog.read(compactedFile);
+        assertEquals(10, records.size());
+        assertEquals(SnapshotLog.read(fullFile).size(), records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals("key" + i * 10, records.get(i)._key);
+            assertEquals(i * 10, records.get(i).item());
+        }
+        assertTrue(compactedFile.length() * 2 < fullFile.length());
+        assertFalse(new File(_folder.getRoot(), "compacted.snapshot.compact").exists());
+    }
+
+    private static final class CountingItem implements Serializable {
+        static final AtomicInteger __serialized = new AtomicInteger();
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            __serialized.incrementAndGet();
+            out.defaultWriteObject();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.willkamp.ether;
+
+import org.junit.Test;
+import rx.Observer;
+import rx.Subscription;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class EtherPrefixTest {
+
+    @Test
+    public void getResourcesWithPrefix() throws Exception {
+        // given resources under a few prefixes held before any prefix query
+        EtherStore store = new EtherStore();
+        store.hold("session-42/a", "a");
+        store.hold("session-42/b", "b");
+        store.hold("session-4/c", "c");
+        store.holdUntilObserved("session-42/once", "once");
+        store.hold("other", "other");
+        assertNull(store._impl._keyIndex);
+
+        // when the prefix is fetched
+        Map<String, String> items = store.getResourcesWithPrefix("session-42/");
+
+        // then only the keys under it are returned, and the once observed resource is consumed
+        assertEquals(3, items.size());
+        assertEquals("a", items.get("session-42/a"));
+        assertEquals("b", items.get("session-42/b"));
+        assertEquals("once", items.get("session-42/once"));
+        assertNull(store.getResourceWithKey("session-42/once"));
+        assertEquals(3, store.getResourcesWithPrefix("session-4").size());
+        assertEquals(4, store.getResourcesWithPrefix("").size());
+
+        // and the index follows later holds and removals
+        store.hold("session-42/d", "d");
+        store.getResourceWithKey("session-42/a");
+        store.flush();
+        store.hold("session-42/e", "e");
+        items = store.getResourcesWithPrefix("session-42/");
+        assertEquals(1, items.size());
+        assertEquals("e", items.get("session-42/e"));
+    }
+
+    @Test
+    public void getResourcesObservableWithPrefix() throws Exception {
+        // given a held resource and an exact observer of a key under the prefix
+        EtherStore store = new EtherStore();
+        store.hold("session-42/a", "a");
+        final List<Object> exact = new ArrayList<>();
+        store.getResourceObservable("session-42/handed-off").subscribe(new RecordingObserver<>(exact));
+
+        // when the prefix is observed
+        List<Map.Entry<String, Object>> received = new ArrayList<>();
+        RecordingObserver<Map.Entry<String, Object>> observer = new RecordingObserver<>(received);
+        Subscription subscription = store.getResourcesObservableWithPrefix("session-42/").subscribe(observer);
+
+        // then the held resource is emitted at once
+        assertEquals(1, received.size());
+        assertEquals("session-42/a", received.get(0).getKey());
+        assertEquals("a", received.get(0).getValue());
+
+        // and later holds under the prefix are emitted, including one handed to its exact observer
+        store.hold("other", "other");
+        store.holdUntilObserved("session-42/b", "b");
+        store.holdUntilObserved("session-42/handed-off", "handed off");
+        assertEquals(3, received.size());
+        assertEquals("b", received.get(1).getValue());
+        assertEquals("handed off", received.get(2).getValue());
+        assertEquals(1, exact.size());
+
+        // and watching did not consume the once observed resource
+        assertEquals("b", store.getResourceWithKey("session-42/b"));
+
+        // and once unsubscribed nothing more is emitted and the watcher is gone from the index
+        subscription.unsubscribe();
+        store.hold("session-42/c", "c");
+        assertEquals(3, received.size());
+        assertNull(store._impl._keyIndex.watchersOf("session-42/c"));
+        assertFalse(observer._completed);
+    }
+
+    @Test
+    public void getResourcesObservableWithPrefix_close() throws Exception {
+        // given an observer of a prefix
+        EtherStore store = new EtherStore();
+        List<Map.Entry<String, Object>> received = new ArrayList<>();
+        RecordingObserver<Map.Entry<String, Object>> observer = new RecordingObserver<>(received);
+        store.getResourcesObservableWithPrefix("session-42/").subscribe(observer);
+
+        // when the store closes
+        store.close();
+
+        // then the observer completes
+        assertTrue(observer._completed);
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    public void keyIndex_prunes() throws Exception {
+        // given an index with nested keys
+        Map<String, Resource> store = new HashMap<>();
+        KeyIndex index = new KeyIndex(store);
+        Resource<String> ab = stored(store, new Resource<>("ab", "ab", RetainPolicy.TIMED));
+        Resource<String> abc = stored(store, new Resource<>("abc", "abc", RetainPolicy.TIMED));
+        Resource<String> abd = stored(store, new Resource<>("abd", "abd", RetainPolicy.TIMED));
+        index.add(abc);
+        index.add(ab);
+        index.add(abd);
+        assertEquals(3, index.resourcesWithPrefix("a").size());
+
+        // when a newer resource replaces one, the stale one is not removed
+        Resource<String> newer = stored(store, new Resource<>("abc", "newer", RetainPolicy.TIMED));
+        index.add(newer);
+        index.remove(abc);
+        assertEquals(3, index.resourcesWithPrefix("ab").size());
+
+        // then removing the rest leaves nothing behind
+        index.remove(newer);
+        index.remove(abd);
+        assertTrue(index.resourcesWithPrefix("abc").isEmpty());
+        assertSame(ab, index.resourcesWithPrefix("ab").get(0));
+        index.remove(ab);
+        assertTrue(index.resourcesWithPrefix("").isEmpty());
+    }
+
+    @Test
+    public void keyIndex_onlyIndexesStoredResources() throws Exception {
+        // given a key held twice, the second replacing the first in the store
+        Map<String, Resource> store = new HashMap<>();
+        KeyIndex index = new KeyIndex(store);
+        Resource<String> first = new Resource<>("key", "first", RetainPolicy.TIMED);
+        Resource<String> second = stored(store, new Resource<>("key", "second", RetainPolicy.TIMED));
+
+        // when their index updates race and the second is indexed before the first
+        index.add(second);
+        index.add(first);
+
+        // then the index keeps the resource that is stored
+        assertEquals(Collections.<Resource>singletonList(second), index.resourcesWithPrefix("k"));
+    }
+
+    @Test
+    public void keyIndex_compressesAndMatchesInsideEdges() throws Exception {
+        // given long generated keys sharing a prefix
+        Map<String, Resource> store = new HashMap<>();
+        KeyIndex index = new KeyIndex(store);
+        for (int i = 0; i < 100; i++) {
+            index.add(stored(store, new Resource<>("ether:3f9c2a7be1d04c55:" + i, i, RetainPolicy.TIMED)));
+        }
+
+        // then a prefix ending inside an edge, at a branch or past every key matches as expected
+        assertEquals(100, index.resourcesWithPrefix("ether:3f9").size());
+        assertEquals(11, index.resourcesWithPrefix("ether:3f9c2a7be1d04c55:1").size());
+        assertEquals(1, index.resourcesWithPrefix("ether:3f9c2a7be1d04c55:42").size());
+        assertTrue(index.resourcesWithPrefix("ether:3f9c2a7be1d04c55:420").isEmpty());
+        assertTrue(index.resourcesWithPrefix("ether:3f9d").isEmpty());
+    }
+
+    @Test
+    public void keyIndex_deepKeys() throws Exception {
+        // given keys nested thousands of levels deep
+        Map<String, Resource> store = new HashMap<>();
+        KeyIndex index = new KeyIndex(store);
+        StringBuilder key = new StringBuilder();
+        int depth = 3000;
+        for (int i = 0; i < depth; i++) {
+            key.append('a');
+            index.add(stored(store, new Resource<>(key.toString(), i, RetainPolicy.TIMED)));
+        }
+
+        // then collecting them does not overflow the stack
+        assertEquals(depth, index.resourcesWithPrefix("").size());
+        assertTrue(index.clearWatchers().isEmpty());
+    }
+
+    private static <T> Resource<T> stored(Map<String, Resource> store, Resource<T> resource) {
+        store.put(resource._key, resource);
+        return resource;
+    }
+
+    private static class RecordingObserver<T> implements Observer<T> {
+        private final List<? super T> _received;
+        boolean _completed;
+
+        RecordingObserver(List<? super T> received) {
+            _received = received;
+        }
+
+        @Override
+        public void onCompleted() {
+            _completed = true;
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            fail(e.toString());
+        }
+
+        @Override
+        public void onNext(T item) {
+            _received.add(item);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.willkamp.ether;
+
+import org.junit.Test;
+import rx.schedulers.TestScheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class EtherRemovalTest {
+
+    @Test
+    public void removalListener_reportsCauses() throws Exception {
+        // given a store keeping virtual time whose removals are reported on a queue run by hand
+        TestScheduler scheduler = new TestScheduler();
+        EtherStore store = new EtherStore(scheduler);
+        QueueExecutor executor = new QueueExecutor();
+        RecordingListener listener = new RecordingListener();
+        store.setRemovalListener(listener, executor);
+
+        // when resources leave the store in every way
+        store.holdFor("expired", "expired", 1);
+        scheduler.advanceTimeBy(2, TimeUnit.SECONDS);
+        store.holdUntilObserved("consumed", "consumed");
+        store.getResourceWithKey("consumed");
+        store.hold("replaced", "first");
+        store.hold("replaced", "second");
+        store.flush();
+
+        // then nothing is reported on the removing threads
+        assertTrue(listener._removals.isEmpty());
+
+        // and once the executor runs every removal is reported in order
+        executor.runAll();
+        assertEquals(listOf(
+                "expired=expired EXPIRED",
+                "consumed=consumed CONSUMED",
+                "replaced=first REPLACED",
+                "replaced=second FLUSHED"), listener._removals);
+    }
+
+    @Test
+    public void removalListener_evictedAndCounted() throws Exception {
+        // given a store bounded to one resource
+        EtherStore store = new EtherStore();
+        store.setMaximumSize(1);
+        QueueExecutor executor = new QueueExecutor();
+        RecordingListener listener = new RecordingListener();
+        store.setRemovalListener(listener, executor);
+
+        // when a second resource is held and a counted resource is used up
+        store.hold("first", "first");
+        store.hold("second", "second");
+        store.holdForObservations("counted", "counted", 2);
+        store.getResourceWithKey("counted");
+        store.getResourceWithKey("counted");
+        executor.runAll();
+
+        // then the evictions and the consumption are reported
+        assertTrue(listener._removals.contains("first=first EVICTED"));
+        assertTrue(listener._removals.contains("counted=counted CONSUMED"));
+    }
+
+    @Test
+    public void removalListener_handOffNotReported() throws Exception {
+        // given an observer waiting for a resource held until observed
+        EtherStore store = new EtherStore();
+        QueueExecutor executor = new QueueExecutor();
+        RecordingListener listener = new RecordingListener();
+        store.setRemovalListener(listener, executor);
+        store.getResourceObservable("key").subscribe();
+
+        // when it is held
+        store.holdUntilObserved("key", "handed off");
+
+        // then it is handed straight to the observer without ever being stored
+        assertEquals(0, executor._tasks.size());
+    }
+
+    @Test
+    public void removalListener_batched() throws Exception {
+        // given many resources in a store
+        EtherStore store = new EtherStore();
+        QueueExecutor executor = new QueueExecutor();
+        RecordingListener listener = new RecordingListener();
+        store.setRemovalListener(listener, executor);
+        for (int i = 0; i < 1000; i++) {
+            store.hold("key-" + i, i);
+        }
+
+        // when they are all flushed at once
+        store.flush();
+
+        // then a single task is scheduled and each run reports a batch before handing the executor back
+        assertEquals(1, executor._tasks.size());
+        executor.runNext();
+        assertEquals(256, listener._removals.size());
+        assertEquals(1, executor._tasks.size());
+        executor.runAll();
+        assertEquals(1000, listener._removals.size());
+    }
+
+    @Test
+    public void removalListener_defaultExecutor() throws Exception {
+        // given a listener on the default executor
+        EtherStore store = new EtherStore();
+        final CountDownLatch removed = new CountDownLatch(1);
+        final Thread[] reportedOn = new Thread[1];
+        store.setRemovalListener(new RemovalListener() {
+            @Override
+            public void onRemoved(String key, Object resource, RemovalCause cause) {
+                reportedOn[0] = Thread.currentThread();
+                removed.countDown();
+            }
+        });
+
+        // when a resource is removed
+        store.hold("key", "value");
+        store.flush();
+
+        // then it is reported on a daemon thread of the store
+        assertTrue(removed.await(5, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), reportedOn[0]);
+        assertTrue(reportedOn[0].getName().startsWith("ether-removal"));
+    }
+
+    @Test
+    public void removalListener_rejectedExecutorReportsOnCaller() throws Exception {
+        // given a listener on an executor that was shut down
+        EtherStore store = new EtherStore();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        RecordingListener listener = new RecordingListener();
+        store.setRemovalListener(listener, executor);
+
+        // when resources are removed
+        store.hold("replaced", "first");
+        store.hold("replaced", "second");
+        store.flush();
+
+        // then every removal is reported on the removing thread rather than dropped
+        assertEquals(listOf("replaced=first REPLACED", "replaced=second FLUSHED"), listener._removals);
+    }
+
+    private static List<String> listOf(String... values) {
+        List<String> list = new ArrayList<>();
+        for (String value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    private static final class RecordingListener implements RemovalListener {
+        final List<String> _removals = new ArrayList<>();
+
+        @Override
+        public void onRemoved(String key, Object resource, RemovalCause cause) {
+            _removals.add(key + "=" + resource + " " + cause);
+        }
+    }
+
+    private static final class QueueExecutor implements Executor {
+        final List<Runnable> _tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable task) {
+            _tasks.add(task);
+        }
+
+        void runNext() {
+            _tasks.remove(0).run();
+        }
+
+        void runAll() {
+            while (!_tasks.isEmpty()) {
+                runNext();
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.willkamp.ether;
+
+import org.junit.Test;
+import rx.functions.Action1;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class EtherStatsTest {
+
+    @Test
+    public void stats_countLookupsAndEvictions() throws Exception {
+        // given a store bounded to two resources that collects stats
+        EtherStore store = new EtherStore();
+        store.setMaximumSize(2);
+        store.setStatsEnabled(true);
+
+        // and an observer waiting for a resource
+        store.getResourceObservable("waited").subscribe(new Action1<Object>() {
+            @Override
+            public void call(Object o) {
+            }
+        });
+
+        // when resources are held and fetched
+        store.hold("a", new TestResource("a"));
+        store.hold("b", new TestResource("b"));
+        store.hold("c", new TestResource("c"));
+        store.hold("waited", new TestResource("waited"));
+        store.getResourceWithKey("missing");
+        store.getResourceWithKey("waited");
+
+        // then the holds, lookups and evictions are counted
+        EtherStats stats = store.getStats();
+        assertEquals(4, stats.getHoldCount());
+        assertEquals(1, stats.getHitCount());
+        assertEquals(2, stats.getMissCount());
+        assertEquals(1.0 / 3, stats.getHitRate(), 0.0001);
+        assertEquals(2, stats.getEvictionCount());
+        assertEquals(2, stats.getEntryCount());
+        assertEquals(0, stats.getWaiterCount());
+
+        // and the latencies are recorded
+        assertEquals(4, stats.getLockHoldLatency().getCount());
+        assertEquals(1, stats.getDeliveryLatency().getCount());
+        assertTrue(stats.getLockHoldLatency().getPercentile(99, TimeUnit.NANOSECONDS)
+                <= stats.getLockHoldLatency().getMax(TimeUnit.NANOSECONDS));
+        store.close();
+    }
+
+    @Test
+    public void stats_disabled() throws Exception {
+        // given a store that does not collect stats
+        EtherStore store = new EtherStore();
+
+        // when resources are held and fetched
+        store.hold("a", new TestResource("a"));
+        store.getResourceWithKey("a");
+
+        // then only the current entries are reported
+        EtherStats stats = store.getStats();
+        assertEquals(0, stats.getHoldCount());
+        assertEquals(0, stats.getHitCount());
+        assertEquals(1, stats.getEntryCount());
+        store.close();
+    }
+}
@@ -0,0 +1,91 @@
+package com.willkamp.ether;
+
+import org.junit.Test;
+import rx.Observer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class EtherStoreTest {
+
+    @Test
+    public void stores_areIndependent() throws Exception {
+        // given two stores
+        EtherStore first = new EtherStore();
+        EtherStore second = new EtherStore();
+
+        // when the same key is held in each
+        TestResource firstResource = new TestResource("first");
+        TestResource secondResource = new TestResource("second");
+        first.holdUntilObserved("key", firstResource);
+        second.holdUntilObserved("key", secondResource);
+
+        // then each store keeps its own resource
+        assertSame(firstResource, first.getResourceWithKey("key"));
+        assertSame(secondResource, second.getResourceWithKey("key"));
+    }
+
+    @Test
+    public void scope_close() throws Exception {
+        // given a store with a held resource
+        EtherStore store = new EtherStore();
+        TestResource storeResource = new TestResource("store");
+        store.hold("key", storeResource);
+
+        // and a nested scope with held resources and a waiting observer
+        EtherStore scope = store.scope("request-42");
+        assertSame(scope, store.scope("request-42"));
+        EtherStore nested = scope.scope("nested");
+        scope.hold("key", new TestResource("scoped"));
+        nested.holdUntilObserved("other", new TestResource("nested"));
+        final AtomicBoolean completed = new AtomicBoolean();
+        final AtomicBoolean received = new AtomicBoolean();
+        scope.<TestResource>getResourceObservable("missing").subscribe(new Observer<TestResource>() {
+            @Override
+            public void onCompleted() {
+                completed.set(true);
+            }
+
+            @Override
+            public void onError(Throwable e) {
+            }
+
+            @Override
+            public void onNext(TestResource testResource) {
+                received.set(true);
+            }
+        });
+
+        // when the scope is closed
+        scope.close();
+
+        // then its resources and those of its scopes are dropped
+        assertTrue(scope.isClosed());
+        assertTrue(nested.isClosed());
+        assertTrue(scope._impl._itemStore.isEmpty());
+        assertTrue(nested._impl._itemStore.isEmpty());
+
+        // and its waiting observers complete without a resource
+        assertTrue(completed.get());
+        assertFalse(received.get());
+        assertTrue(scope._impl._subscriberHashMap.isEmpty());
+
+        // and the parent store is untouched
+        assertSame(storeResource, store.getResourceWithKey("key"));
+
+        // and a scope with the same name is a new one
+        assertNotSame(scope, store.scope("request-42"));
+        store.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void hold_closed() throws Exception {
+        // given a closed store
+        EtherStore store = new EtherStore();
+        store.close();
+
+        // when a resource is held then it fails
+        store.hold("key", new TestResource("closed"));
+    }
+}
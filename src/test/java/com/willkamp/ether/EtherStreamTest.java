@@ -0,0 +1,135 @@
+package com.willkamp.ether;
+
+import org.junit.Test;
+import rx.Subscriber;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EtherStreamTest {
+
+    @Test
+    public void publish_replaysLatestThenLive() throws Exception {
+        // given a stream with published values
+        EtherStore store = new EtherStore();
+        store.publish("progress", 10);
+        store.publish("progress", 20);
+
+        // when it is observed
+        StreamResult result = new StreamResult(Long.MAX_VALUE);
+        store.getStreamObservable("progress").subscribe(result);
+
+        // then the observer receives the latest value and then the values published afterwards
+        store.publish("progress", 30);
+        assertEquals(Arrays.<Object>asList(20, 30), result._values);
+
+        // and completes when the stream is closed
+        store.closeStream("progress");
+        assertTrue(result._completed);
+        assertTrue(store._impl._streams.isEmpty());
+    }
+
+    @Test
+    public void openStream_boundedReplay() throws Exception {
+        // given a stream replaying its three latest values
+        EtherStore store = new EtherStore();
+        assertTrue(store.openStream("positions", 3));
+        assertFalse(store.openStream("positions", 10));
+
+        // when more values are published than are replayed
+        for (int i = 0; i < 5; i++) {
+            store.publish("positions", i);
+        }
+
+        // then a new observer receives only the three latest
+        StreamResult result = new StreamResult(Long.MAX_VALUE);
+        store.getStreamObservable("positions", BackpressureStrategy.BUFFER).subscribe(result);
+        assertEquals(Arrays.<Object>asList(2, 3, 4), result._values);
+        store.close();
+    }
+
+    @Test
+    public void backpressure_latestAndDrop() throws Exception {
+        // given a stream without replay and slow observers
+        EtherStore store = new EtherStore();
+        store.openStream("prices", 0);
+        StreamResult latest = new StreamResult(1);
+        StreamResult dropped = new StreamResult(1);
+        store.getStreamObservable("prices", BackpressureStrategy.LATEST).subscribe(latest);
+        store.getStreamObservable("prices", BackpressureStrategy.DROP).subscribe(dropped);
+
+        // when values are published faster than they are requested
+        for (int i = 0; i < 5; i++) {
+            store.publish("prices", i);
+        }
+        latest.request(1);
+        dropped.request(1);
+        store.publish("prices", 5);
+
+        // then the conflating observer received the latest value it missed
+        assertEquals(Arrays.<Object>asList(0, 4), latest._values);
+
+        // and the dropping observer only the values published while it was requesting
+        assertEquals(Arrays.<Object>asList(0, 5), dropped._values);
+        store.close();
+    }
+
+    @Test
+    public void close_completesStreams() throws Exception {
+        // given an observed stream
+        EtherStore store = new EtherStore();
+        StreamResult result = new StreamResult(Long.MAX_VALUE);
+        store.getStreamObservable("state").subscribe(result);
+
+        // when the store is closed
+        store.close();
+
+        // then the observer completes without values
+        assertTrue(result._completed);
+        assertEquals(Collections.emptyList(), result._values);
+
+        // and publishing fails
+        try {
+            store.publish("state", 1);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    private static class StreamResult extends Subscriber<Object> {
+        private final long _initialRequest;
+        final List<Object> _values = new ArrayList<>();
+        boolean _completed;
+
+        StreamResult(long initialRequest) {
+            _initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onStart() {
+            request(_initialRequest);
+        }
+
+        void request(int count) {
+            super.request(count);
+        }
+
+        @Override
+        public void onCompleted() {
+            _completed = true;
+        }
+
+        @Override
+        public void onError(Throwable e) {
+        }
+
+        @Override
+        public void onNext(Object o) {
+            _values.add(o);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.willkamp.ether;
+
+import org.junit.Test;
+import rx.Observer;
+import rx.functions.Action1;
+import rx.schedulers.TestScheduler;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class EtherVirtualTimeTest {
+
+    @Test
+    public void holdFor_virtualTime() throws Exception {
+        // given a store keeping virtual time
+        TestScheduler scheduler = new TestScheduler();
+        EtherStore store = new EtherStore(scheduler);
+
+        // and a resource held for 10 seconds
+        TestResource resource = new TestResource("timed");
+        store.holdFor("key", resource, 10);
+
+        // when almost 10 seconds pass
+        scheduler.advanceTimeBy(9900, TimeUnit.MILLISECONDS);
+
+        // then the resource is still held
+        assertSame(resource, store.getResourceWithKey("key"));
+
+        // and once the time has passed it expires without any real time passing
+        scheduler.advanceTimeBy(400, TimeUnit.MILLISECONDS);
+        assertNull(store.getResourceWithKey("key"));
+        assertEquals(0, store._impl._expiryWheel.outstanding());
+    }
+
+    @Test
+    public void observeTimeout_virtualTime() throws Exception {
+        // given a store keeping virtual time
+        TestScheduler scheduler = new TestScheduler();
+        EtherStore store = new EtherStore(scheduler);
+
+        // and an observer willing to wait 5 seconds
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        store.getResourceObservable("key", 5, TimeUnit.SECONDS).subscribe(new Observer<Object>() {
+            @Override
+            public void onCompleted() {
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                error.set(e);
+            }
+
+            @Override
+            public void onNext(Object o) {
+            }
+        });
+
+        // when 4 seconds pass the observer is still waiting
+        scheduler.advanceTimeBy(4, TimeUnit.SECONDS);
+        assertNull(error.get());
+
+        // then after 5 seconds it times out
+        scheduler.advanceTimeBy(2, TimeUnit.SECONDS);
+        assertTrue(error.get() instanceof TimeoutException);
+        assertTrue(store._impl._subscriberHashMap.isEmpty());
+    }
+
+    @Test
+    public void observeTimeout_flushed() throws Exception {
+        // given a store keeping virtual time
+        TestScheduler scheduler = new TestScheduler();
+        EtherStore store = new EtherStore(scheduler);
+
+        // and an observer willing to wait 5 seconds
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        store.getResourceObservable("key", 5, TimeUnit.SECONDS).subscribe(new Observer<Object>() {
+            @Override
+            public void onCompleted() {
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                error.set(e);
+            }
+
+            @Override
+            public void onNext(Object o) {
+            }
+        });
+
+        // when the store is flushed before the deadline
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        store.flush();
+
+        // then the observer terminates without waiting for its deadline
+        assertTrue(error.get() instanceof IllegalStateException);
+        assertTrue(store._impl._subscriberHashMap.isEmpty());
+
+        // and its deadline is no longer scheduled
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS);
+        assertTrue(error.get() instanceof IllegalStateException);
+        assertEquals(0, store._impl._expiryWheel.outstanding());
+    }
+
+    @Test
+    public void holdAllFor_reheldKeyLeavesBatchExpiry() throws Exception {
+        // given a store keeping virtual time and two resources held together for 5 seconds
+        TestScheduler scheduler = new TestScheduler();
+        EtherStore store = new EtherStore(scheduler);
+        Map<String, String> batch = new HashMap<>();
+        batch.put("first", "batch");
+        batch.put("second", "batch");
+        store.holdAllFor(batch, 5);
+
+        // when the first key is held again until it is observed
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        store.holdUntilObserved("first", "reheld");
+
+        // then the batch deadline only expires the key that was not held again
+        scheduler.advanceTimeBy(5, TimeUnit.SECONDS);
+        assertNull(store.getResourceWithKey("second"));
+        assertEquals("reheld", store.getResourceWithKey("first"));
+
+        // and once every member is held again the batch deadline is cancelled before it passes
+        store.holdAllFor(batch, 5);
+        store.holdUntilObserved("first", "reheld");
+        store.holdUntilObserved("second", "reheld");
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        assertEquals(0, store._impl._expiryWheel.outstanding());
+        store.close();
+    }
+
+    @Test
+    public void expiryChurn_virtualTime() throws Exception {
+        // given a store keeping virtual time that is also used by a scope
+        TestScheduler scheduler = new TestScheduler();
+        EtherStore store = new EtherStore(scheduler);
+        EtherStore scope = store.scope("scope");
+
+        // when resources are held with retention times of up to an hour over two hours of virtual time
+        int seconds = 2 * 60 * 60;
+        for (int second = 0; second < seconds; second++) {
+            store.holdFor("key-" + (second % 1000), second, 1 + second % 3600);
+            scope.holdFor("key-" + second, second, 1 + second % 60);
+            scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        }
+
+        // then the retained resources are still held
+        assertEquals(Integer.valueOf(seconds - 1), store.getResourceWithKey("key-" + ((seconds - 1) % 1000)));
+
+        // and once an hour passes everything expired
+        scheduler.advanceTimeBy(1, TimeUnit.HOURS);
+        assertTrue(store._impl._itemStore.isEmpty());
+        assertTrue(scope._impl._itemStore.isEmpty());
+        assertEquals(0, store._impl._expiryWheel.outstanding());
+    }
+
+    @Test
+    public void holdWhileAccessed_virtualTime() throws Exception {
+        // given a store keeping virtual time and a resource held while it is accessed at least every 5 seconds
+        TestScheduler scheduler = new TestScheduler();
+        EtherStore store = new EtherStore(scheduler);
+        TestResource resource = new TestResource("sliding");
+        store.holdWhileAccessed("key", resource, 5);
+
+        // when it is fetched every 4 seconds it outlives its idle time
+        for (int i = 0; i < 5; i++) {
+            scheduler.advanceTimeBy(4, TimeUnit.SECONDS);
+            assertSame(resource, store.getResourceWithKey("key"));
+        }
+
+        // then once it goes unaccessed for longer than its idle time it expires
+        scheduler.advanceTimeBy(5500, TimeUnit.MILLISECONDS);
+        assertNull(store.getResourceWithKey("key"));
+        assertEquals(0, store._impl._expiryWheel.outstanding());
+    }
+
+    @Test
+    public void holdWhileAccessed_maxTime() throws Exception {
+        // given a store keeping virtual time and a resource held while accessed but at most 10 seconds
+        TestScheduler scheduler = new TestScheduler();
+        EtherStore store = new EtherStore(scheduler);
+        TestResource resource = new TestResource("capped");
+        store.holdWhileAccessed("key", resource, 3, 10);
+
+        // when it is observed every 2 seconds
+        final AtomicReference<Object> observed = new AtomicReference<>();
+        for (int i = 0; i < 4; i++) {
+            scheduler.advanceTimeBy(2, TimeUnit.SECONDS);
+            observed.set(null);
+            store.getResourceObservable("key").subscribe(new Action1<Object>() {
+                @Override
+                public void call(Object o) {
+                    observed.set(o);
+                }
+            });
+            assertSame(resource, observed.get());
+        }
+
+        // then it still expires once its maximum time passes
+        scheduler.advanceTimeBy(2500, TimeUnit.MILLISECONDS);
+        assertNull(store.getResourceWithKey("key"));
+    }
+}
@@ -0,0 +1,70 @@
+package com.willkamp.ether;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ExpiryWheelTest {
+
+    @Test
+    public void schedule() throws Exception {
+        // given a wheel with a short tick
+        ExpiryWheel wheel = new ExpiryWheel("test-expiry", 10, TimeUnit.MILLISECONDS, 8);
+
+        // when many items are scheduled across several revolutions of the wheel
+        int count = 1000;
+        final CountDownLatch latch = new CountDownLatch(count);
+        final long start = System.nanoTime();
+        final AtomicInteger early = new AtomicInteger();
+        for (int i = 0; i < count; i++) {
+            final long delay = i % 200;
+            wheel.schedule(new ExpiryWheel.Expirable() {
+                @Override
+                public void expire() {
+                    if (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(delay)) {
+                        early.incrementAndGet();
+                    }
+                    latch.countDown();
+                }
+            }, TimeUnit.MILLISECONDS, delay);
+        }
+
+        // then every item expires
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        // and none expire before their deadline
+        assertEquals(0, early.get());
+        assertEquals(0, wheel.outstanding());
+    }
+
+    @Test
+    public void cancel() throws Exception {
+        // given a wheel with a short tick
+        ExpiryWheel wheel = new ExpiryWheel("test-expiry", 10, TimeUnit.MILLISECONDS, 8);
+
+        // and a scheduled item
+        final AtomicInteger expired = new AtomicInteger();
+        ExpiryWheel.Timeout timeout = wheel.schedule(new ExpiryWheel.Expirable() {
+            @Override
+            public void expire() {
+                expired.incrementAndGet();
+            }
+        }, TimeUnit.MILLISECONDS, 50);
+
+        // when the expiry is cancelled
+        assertTrue(timeout.cancel());
+
+        // then the item never expires
+        Thread.sleep(150);
+        assertEquals(0, expired.get());
+        assertFalse(timeout.isExpired());
+        assertEquals(0, wheel.outstanding());
+
+        // and it can not be cancelled twice
+        assertFalse(timeout.cancel());
+    }
+}
@@ -0,0 +1,51 @@
+package com.willkamp.ether;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LongObjectMapTest {
+
+    @Test
+    public void churn_matchesHashMap() throws Exception {
+        // given a map and a reference map
+        LongObjectMap<Long> map = new LongObjectMap<>();
+        Map<Long, Long> reference = new HashMap<>();
+
+        // when both go through the same random puts and removes over a small key range that forces collisions
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            long key = 1 + random.nextInt(2000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(reference.remove(key), map.remove(key));
+            } else {
+                long value = random.nextLong();
+                assertEquals(reference.put(key, value), map.put(key, value));
+            }
+        }
+
+        // then they hold the same entries
+        assertEquals(reference.size(), map.size());
+        for (long key = 1; key <= 2000; key++) {
+            assertEquals(reference.get(key), map.get(key));
+        }
+
+        // and clearing hands back every value
+        List<Long> removed = new ArrayList<>();
+        map.clear(removed);
+        assertEquals(reference.size(), removed.size());
+        assertEquals(0, map.size());
+        assertNull(map.get(reference.keySet().iterator().next()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void put_zeroKey() throws Exception {
+        new LongObjectMap<>().put(0, "zero");
+    }
+}
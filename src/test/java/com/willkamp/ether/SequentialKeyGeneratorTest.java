@@ -0,0 +1,53 @@
+package com.willkamp.ether;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SequentialKeyGeneratorTest {
+
+    @Test
+    public void createUniqueKey_concurrently() throws Exception {
+        // given a generator shared by many threads
+        final SequentialKeyGenerator generator = new SequentialKeyGenerator();
+        final Set<String> keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final int threads = 8;
+        final int keysPerThread = 10000;
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        // when every thread creates keys
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < keysPerThread; i++) {
+                        keys.add(generator.createUniqueKey());
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        // then no key was created twice
+        assertEquals(threads * keysPerThread, keys.size());
+    }
+
+    @Test
+    public void createUniqueKey_differentGenerators() throws Exception {
+        // given two generators
+        SequentialKeyGenerator first = new SequentialKeyGenerator();
+        SequentialKeyGenerator second = new SequentialKeyGenerator();
+
+        // then their keys are distinct and carry the reserved prefix
+        String key = first.createUniqueKey();
+        assertNotEquals(key, second.createUniqueKey());
+        assertTrue(key.startsWith("ether:"));
+    }
+}